@@ -0,0 +1,56 @@
+package edu.gemini;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.gemini.model.AbstractObservingProgramConfigs.CalibrationUnit;
+
+/**
+ * Benchmarks of the GCAL wavelength calibration: one arc, and the batch of arcs an observing
+ * program takes when it starts.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CalibrationBenchmark {
+
+    @Param({ "Argon", "Xenon", "ThAr", "CuAr" })
+    public CalibrationUnit lamp;
+
+    private List<double[]> arcs;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        arcs = new ArrayList<>(OCS.CALIBRATION_ARCS);
+        for (int i = 0; i < OCS.CALIBRATION_ARCS; i++) {
+            arcs.add(GcalCalibration.simulate(lamp, i));
+        }
+    }
+
+    @Benchmark
+    public GcalCalibration.Solution calibrateArc() {
+        return GcalCalibration.calibrate(lamp, arcs.get(0));
+    }
+
+    @Benchmark
+    public GcalCalibration.Solution[] calibrateProgramStart() {
+        return GcalCalibration.calibrate(lamp, arcs);
+    }
+}
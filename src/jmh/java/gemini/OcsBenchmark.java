@@ -0,0 +1,203 @@
+package edu.gemini;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.gemini.model.AbstractObservingProgramConfigs;
+import edu.gemini.model.AbstractSciencePlan;
+import edu.gemini.model.AbstractTelePositionPair;
+
+/**
+ * Benchmarks of the OCS hot paths at different store sizes. Every benchmark runs
+ * against an OCS pre-populated with {@code storeSize} complete science plans.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+@State(Scope.Benchmark)
+public class OcsBenchmark {
+
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+    // One in this many stored plans gets an observing program
+    private static final int PROGRAM_RATIO = 100;
+
+    @Param({ "1000", "100000", "1000000" })
+    public int storeSize;
+
+    private OCS ocs;
+    private Astronomer astronomer;
+    private ScienceObserver observer;
+    private SciencePlanGenerator newPlans;
+    private final List<Integer> createdPlanNos = new ArrayList<>();
+    private SplittableRandom random;
+    private PrintStream stdout;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ocs = SciencePlanGenerator.populate(storeSize, 42L);
+        astronomer = new Astronomer(1, "Bench", "Astronomer", "Gemini");
+        observer = new ScienceObserver(1, "Bench");
+        newPlans = new SciencePlanGenerator(7L, "new-plan-", storeSize);
+        random = new SplittableRandom(11L);
+
+        for (int planNo = 1; planNo <= storeSize; planNo += PROGRAM_RATIO) {
+            ObservingProgram op = new ObservingProgram();
+            op.setSciencePlan(ocs.getSciencePlanByNo(planNo));
+            ocs.saveObservingProgram(op);
+        }
+
+        // createObservingProgram reports every program on stdout
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(stdout);
+    }
+
+    // Keeps the store at storeSize between iterations
+    @TearDown(Level.Iteration)
+    public void removeCreatedPlans() {
+        for (int planNo : createdPlanNos) {
+            ocs.deleteSciencePlanByNo(planNo);
+        }
+        createdPlanNos.clear();
+    }
+
+    private int randomPlanNo() {
+        return 1 + random.nextInt(storeSize);
+    }
+
+    @Benchmark
+    public String createSciencePlanAccepted() {
+        SciencePlan sp = newPlans.next();
+        String result = ocs.createSciencePlan(sp, astronomer);
+        createdPlanNos.add(sp.getPlanNo());
+        return result;
+    }
+
+    @Benchmark
+    public String createSciencePlanDraft() {
+        SciencePlan sp = newPlans.next();
+        // Reusing the name of a stored plan sends the plan down the draft path
+        sp.setName("plan-" + random.nextInt(storeSize));
+        String result = ocs.createSciencePlan(sp, astronomer);
+        createdPlanNos.add(sp.getPlanNo());
+        return result;
+    }
+
+    @Benchmark
+    public SciencePlan getSciencePlanByNo() {
+        return ocs.getSciencePlanByNo(randomPlanNo());
+    }
+
+    @Benchmark
+    public int[] checkDateConflict() {
+        int index = random.nextInt(storeSize);
+        Date start = SciencePlanGenerator.startOf(index);
+        return ocs.getConflictingPlanNos(SciencePlanGenerator.telescopeOf(index),
+                start, new Date(start.getTime() + DAY_MS));
+    }
+
+    @Benchmark
+    public String testSciencePlan() {
+        return ocs.testSciencePlan(ocs.getSciencePlanByNo(randomPlanNo()), false);
+    }
+
+    // Moves the plan back to TESTED first, so every invocation submits
+    @Benchmark
+    public String submitSciencePlan() {
+        int planNo = randomPlanNo();
+        ocs.updateSciencePlanStatus(planNo, AbstractSciencePlan.STATUS.TESTED);
+        return ocs.submitSciencePlan(ocs.getSciencePlanByNo(planNo), astronomer);
+    }
+
+    /**
+     * Per iteration of {@link #createObservingProgram}: a pool of plans moved to VALIDATED before,
+     * taken in turn, and the programs created for them deleted after, which also ends their
+     * observations, so the store stays the same size over the run.
+     */
+    @State(Scope.Thread)
+    public static class ProgramPool {
+        private static final int MAX_SIZE = 1 << 16;
+
+        private SciencePlan[] plans;
+        private int taken;
+        private final List<Integer> createdIds = new ArrayList<>();
+
+        @Setup(Level.Iteration)
+        public void validatePlans(OcsBenchmark benchmark) {
+            plans = new SciencePlan[Math.min(benchmark.storeSize, MAX_SIZE)];
+            int first = benchmark.random.nextInt(benchmark.storeSize);
+            for (int i = 0; i < plans.length; i++) {
+                int planNo = 1 + (first + i) % benchmark.storeSize;
+                benchmark.ocs.updateSciencePlanStatus(planNo, AbstractSciencePlan.STATUS.VALIDATED);
+                plans[i] = benchmark.ocs.getSciencePlanByNo(planNo);
+            }
+            taken = 0;
+        }
+
+        // Past the first round the plans are RUNNING, so they are moved back to VALIDATED
+        // first, the way submitSciencePlan moves its plan back to TESTED
+        SciencePlan next(OCS ocs) {
+            SciencePlan sp = plans[taken % plans.length];
+            if (taken++ >= plans.length) {
+                ocs.updateSciencePlanStatus(sp.getPlanNo(), AbstractSciencePlan.STATUS.VALIDATED);
+            }
+            return sp;
+        }
+
+        @TearDown(Level.Iteration)
+        public void deletePrograms(OcsBenchmark benchmark) {
+            for (int id : createdIds) {
+                benchmark.ocs.deleteObservingProgram(id);
+            }
+            createdIds.clear();
+        }
+    }
+
+    // Without a calibration lamp: the arc fits are measured by CalibrationBenchmark
+    @Benchmark
+    public ObservingProgram createObservingProgram(ProgramPool pool) {
+        SciencePlan sp = pool.next(ocs);
+        boolean hawaii = "Hawaii".equals(sp.getTelescope());
+        ObservingProgram op = ocs.createObservingProgram(sp,
+                hawaii ? "GNZ" : "GSZ", hawaii ? 4.0 : 8.0, 10.0, 40.0,
+                AbstractObservingProgramConfigs.FoldMirrorType.CASSEGRAIN_FOCUS, 2, null,
+                hawaii ? AbstractObservingProgramConfigs.LightType.MaunaKeaSkyEmission
+                       : AbstractObservingProgramConfigs.LightType.CerroPachonSkyEmission,
+                new AbstractTelePositionPair[0], observer);
+        if (op != null) {
+            pool.createdIds.add(op.getId());
+        }
+        return op;
+    }
+
+    @Benchmark
+    public ObservingProgram getObservingProgramBySciencePlan() {
+        int planNo = 1 + random.nextInt(storeSize / PROGRAM_RATIO) * PROGRAM_RATIO;
+        return ocs.getObservingProgramBySciencePlan(ocs.getSciencePlanByNo(planNo));
+    }
+}
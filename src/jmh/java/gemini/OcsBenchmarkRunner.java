@@ -0,0 +1,31 @@
+package edu.gemini;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the OCS and calibration benchmarks with the GC profiler attached (allocation rate per operation)
+ * and writes the results as JSON to target/jmh-result.json, so runs on different
+ * commits can be compared. Command line arguments are passed through to JMH, e.g.
+ * {@code -p storeSize=1000} or a benchmark name pattern.
+ */
+public class OcsBenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(OcsBenchmark.class.getSimpleName())
+                .include(CalibrationBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result("target/jmh-result.json")
+                .build();
+        new Runner(options).run();
+    }
+}
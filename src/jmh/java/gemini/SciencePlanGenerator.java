@@ -0,0 +1,114 @@
+package edu.gemini;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import edu.gemini.model.StarSystem;
+
+/**
+ * Deterministic generator of synthetic science plans for the benchmarks. Targets are
+ * drawn from the {@link StarSystem.CONSTELLATIONS} observable from the plan's telescope
+ * during its dates, telescopes alternate between Hawaii and Chile, and every plan gets its
+ * own one-day slot so generated plans never conflict.
+ */
+public class SciencePlanGenerator {
+
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+    // 2030-01-01T00:00:00Z, far enough ahead of any real plan
+    private static final long EPOCH_MS = 1_893_456_000_000L;
+
+    private static final StarSystem.CONSTELLATIONS[] TARGETS = StarSystem.CONSTELLATIONS.values();
+    private static final String[] TELESCOPES = { "Hawaii", "Chile" };
+
+    private final SplittableRandom random;
+    private final String namePrefix;
+    private int next;
+
+    public SciencePlanGenerator(long seed, String namePrefix) {
+        this(seed, namePrefix, 0);
+    }
+
+    /**
+     * @param first the index of the first generated plan; plans with different indexes never share a slot
+     */
+    public SciencePlanGenerator(long seed, String namePrefix, int first) {
+        this.random = new SplittableRandom(seed);
+        this.namePrefix = namePrefix;
+        this.next = first;
+    }
+
+    /**
+     * Generate the next plan. Plans are valid and accepted by OCS as complete plans.
+     */
+    public SciencePlan next() {
+        int i = next++;
+        SciencePlan sp = new SciencePlan();
+        sp.setName(namePrefix + i);
+        sp.setObjective("Synthetic observation #" + i);
+        sp.setFunding(1_000 + random.nextInt(100_000));
+
+        // Each telescope gets a new slot every other day; slots are one day long
+        Date start = startOf(i);
+        sp.setStartDate(start);
+        sp.setEndDate(new Date(start.getTime() + DAY_MS));
+        sp.setTelescope(telescopeOf(i));
+        sp.setTarget(randomTarget(TelescopeSite.of(sp.getTelescope()), sp.getStartDate(), sp.getEndDate()).name());
+
+        sp.setFileType(SciencePlan.FileType.PNG);
+        sp.setFileQuality(SciencePlan.FileQuality.LOW);
+        sp.setColorType(SciencePlan.ColorType.COLOR);
+        sp.setContrast(random.nextDouble(0.0, 2.0));
+        sp.setBrightness(random.nextDouble(-1.0, 1.0));
+        sp.setSaturation(random.nextDouble(0.0, 2.0));
+        sp.setExposure(random.nextDouble(-3.0, 3.0));
+        return sp;
+    }
+
+    // Every month has targets in season at both sites, so this ends quickly
+    private StarSystem.CONSTELLATIONS randomTarget(TelescopeSite site, Date start, Date end) {
+        while (true) {
+            StarSystem.CONSTELLATIONS c = TARGETS[random.nextInt(TARGETS.length)];
+            if (ObservabilityMatrix.getDefault().isObservable(c, site, start, end)) {
+                return c;
+            }
+        }
+    }
+
+    public List<SciencePlan> next(int count) {
+        List<SciencePlan> plans = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            plans.add(next());
+        }
+        return plans;
+    }
+
+    /**
+     * @return the telescope the plan with the given index is booked on
+     */
+    public static String telescopeOf(int index) {
+        return TELESCOPES[index % TELESCOPES.length];
+    }
+
+    /**
+     * @return the start of the slot of the plan with the given index
+     */
+    public static Date startOf(int index) {
+        return new Date(EPOCH_MS + (long) (index / TELESCOPES.length) * 2 * DAY_MS);
+    }
+
+    /**
+     * Populate an OCS with the given number of complete science plans.
+     */
+    public static OCS populate(int size, long seed) {
+        OCS ocs = new OCS();
+        SciencePlanGenerator generator = new SciencePlanGenerator(seed, "plan-");
+        Astronomer astronomer = new Astronomer(1, "Bench", "Astronomer", "Gemini");
+        int batch = 10_000;
+        for (int created = 0; created < size; created += batch) {
+            ocs.createSciencePlans(generator.next(Math.min(batch, size - created)), astronomer);
+        }
+        return ocs;
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.implementation;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import edu.gemini.Astronomer;
+import edu.gemini.OCS;
+import edu.gemini.OcsPersistence;
+import edu.gemini.ScienceObserver;
+
+/**
+ * The OCS shared by every request. OCS is thread-safe, so one instance serves all
+ * request threads. When {@code gemini.data-dir} is set, its state is kept in that
+ * directory like the CLI's data directory argument.
+ */
+@Configuration
+public class OcsConfiguration implements DisposableBean {
+
+    private OcsPersistence persistence;
+
+    @Bean
+    public OCS ocs(@Value("${gemini.data-dir:}") String dataDir) throws IOException {
+        if (dataDir.isBlank()) {
+            return new OCS();
+        }
+        persistence = OcsPersistence.open(Paths.get(dataDir));
+        return persistence.getOcs();
+    }
+
+    // The same users the CLI acts as
+    @Bean
+    public Astronomer astronomer() {
+        Astronomer astronomer = new Astronomer();
+        astronomer.setId(1);
+        astronomer.setFirstName("John");
+        astronomer.setLastName("Doe");
+        astronomer.setInstitution("MIT");
+        return astronomer;
+    }
+
+    @Bean
+    public ScienceObserver scienceObserver() {
+        ScienceObserver observer = new ScienceObserver();
+        observer.setId(1);
+        observer.setFirstName("Jane");
+        observer.setLastName("Smith");
+        observer.setDepartment("Astro Department");
+        return observer;
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        if (persistence != null) {
+            persistence.close();
+        }
+    }
+}
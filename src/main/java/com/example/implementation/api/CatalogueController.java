@@ -0,0 +1,53 @@
+package com.example.implementation.api;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import edu.gemini.StarCatalogue;
+import edu.gemini.model.StarSystem;
+
+/**
+ * The star systems science plans can target, by Latin or English name.
+ */
+@RestController
+@RequestMapping("/api/catalogue")
+public class CatalogueController {
+
+    private final StarCatalogue catalogue = StarCatalogue.getDefault();
+
+    /**
+     * Suggest star systems for a name being typed.
+     *
+     * @param prefix the text typed so far, or none for the whole catalogue
+     */
+    @GetMapping
+    public List<StarSystemView> complete(@RequestParam(required = false) String prefix,
+                                         @RequestParam(defaultValue = "" + Page.DEFAULT_LIMIT) int limit) {
+        int n = Page.limit(limit);
+        List<StarSystem.CONSTELLATIONS> matches = prefix == null || prefix.isBlank()
+                ? catalogue.getAll().subList(0, Math.min(n, catalogue.getAll().size()))
+                : catalogue.complete(prefix, n);
+        List<StarSystemView> items = new ArrayList<>(matches.size());
+        for (StarSystem.CONSTELLATIONS c : matches) {
+            items.add(StarSystemView.of(c));
+        }
+        return items;
+    }
+
+    @GetMapping("/{name}")
+    public StarSystemView get(@PathVariable String name) {
+        StarSystem.CONSTELLATIONS c = catalogue.find(name);
+        if (c == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Star system not found: " + name);
+        }
+        return StarSystemView.of(c);
+    }
+}
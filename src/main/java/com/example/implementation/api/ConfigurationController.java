@@ -0,0 +1,47 @@
+package com.example.implementation.api;
+
+import java.util.List;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import edu.gemini.OCS;
+
+/**
+ * Installed configuration files, numbered by position from 0.
+ */
+@RestController
+@RequestMapping("/api/configurations")
+public class ConfigurationController {
+
+    private final OCS ocs;
+
+    public ConfigurationController(OCS ocs) {
+        this.ocs = ocs;
+    }
+
+    @GetMapping
+    public List<String> list() {
+        return ocs.getConfigurationList();
+    }
+
+    @PostMapping
+    public ResponseEntity<Result> add(@RequestParam String path) {
+        if (!ocs.addConfiguration(path)) {
+            return ResponseEntity.badRequest().body(new Result(false, "Configuration already installed: " + path));
+        }
+        return ResponseEntity.ok(new Result(true, "Configuration installed: " + path));
+    }
+
+    @DeleteMapping("/{confNo}")
+    public ResponseEntity<Void> remove(@PathVariable int confNo) {
+        return ocs.removeConfiguration(confNo) ? ResponseEntity.noContent().build()
+                : ResponseEntity.notFound().build();
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.implementation.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import edu.gemini.OCS;
+import edu.gemini.ObservingProgram;
+import edu.gemini.ScienceObserver;
+import edu.gemini.SciencePlan;
+import edu.gemini.model.AbstractTelePositionPair;
+
+/**
+ * Observing programs and the options their configuration is chosen from.
+ */
+@RestController
+@RequestMapping("/api/observing-programs")
+public class ObservingProgramController {
+
+    private final OCS ocs;
+    private final ScienceObserver observer;
+
+    public ObservingProgramController(OCS ocs, ScienceObserver observer) {
+        this.ocs = ocs;
+        this.observer = observer;
+    }
+
+    @GetMapping
+    public Page<ObservingProgramView> list(@RequestParam(defaultValue = "0") int after,
+                                           @RequestParam(defaultValue = "" + Page.DEFAULT_LIMIT) int limit) {
+        int n = Page.limit(limit);
+        List<ObservingProgramView> items = new ArrayList<>(n);
+        for (ObservingProgram op : ocs.getObservingPrograms(after, n)) {
+            items.add(ObservingProgramView.of(op));
+        }
+        return Page.of(items, n, ObservingProgramView::id);
+    }
+
+    @GetMapping("/{id}")
+    public ObservingProgramView get(@PathVariable int id) {
+        ObservingProgram op = ocs.getObservingProgramById(id);
+        if (op == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Observing program " + id + " not found");
+        }
+        return ObservingProgramView.of(op);
+    }
+
+    @GetMapping("/options")
+    public Map<String, Object> options() {
+        return Map.of(
+                "foldMirrorTypes", ocs.getFoldMirrorTypes(),
+                "calibrationUnits", ocs.getCalibrationUnits(),
+                "lightTypes", ocs.getLightTypes());
+    }
+
+    /**
+     * Create a program for a VALIDATED plan. The OCS checks the optics ranges for the plan's telescope.
+     */
+    @PostMapping
+    public ResponseEntity<ObservingProgramView> create(@RequestBody ObservingProgramRequest request) {
+        SciencePlan sp = ocs.getSciencePlanByNo(request.planNo());
+        if (sp == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Science plan #" + request.planNo() + " not found");
+        }
+        ObservingProgram op = ocs.createObservingProgram(sp, request.opticsPrimary(), request.fStop(),
+                request.opticsSecondaryRMS(), request.scienceFoldMirrorDegree(), request.foldMirrorType(),
+                request.moduleContent(), request.calibrationUnit(), request.lightType(),
+                new AbstractTelePositionPair[0], observer);
+        if (op == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Observing program rejected: the plan must be VALIDATED and the optics within range");
+        }
+        return ResponseEntity.status(HttpStatus.CREATED).body(ObservingProgramView.of(op));
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Void> delete(@PathVariable int id) {
+        return ocs.deleteObservingProgram(id) ? ResponseEntity.noContent().build()
+                : ResponseEntity.notFound().build();
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.implementation.api;
+
+import edu.gemini.model.AbstractObservingProgramConfigs;
+
+/**
+ * The parameters a science observer enters to create an observing program for a validated plan.
+ */
+public record ObservingProgramRequest(
+        int planNo,
+        String opticsPrimary,
+        double fStop,
+        double opticsSecondaryRMS,
+        double scienceFoldMirrorDegree,
+        AbstractObservingProgramConfigs.FoldMirrorType foldMirrorType,
+        int moduleContent,
+        AbstractObservingProgramConfigs.CalibrationUnit calibrationUnit,
+        AbstractObservingProgramConfigs.LightType lightType) {
+}
@@ -0,0 +1,33 @@
+package com.example.implementation.api;
+
+import edu.gemini.ObservingProgram;
+import edu.gemini.ObservingProgramConfigs;
+import edu.gemini.model.AbstractObservingProgramConfigs;
+
+/**
+ * An observing program as returned by the API, with its science plan by number.
+ */
+public record ObservingProgramView(
+        int id,
+        Integer planNo,
+        String geminiLocation,
+        String opticsPrimary,
+        double fStop,
+        double opticsSecondaryRMS,
+        double scienceFoldMirrorDegree,
+        int moduleContent,
+        AbstractObservingProgramConfigs.FoldMirrorType foldMirrorType,
+        AbstractObservingProgramConfigs.CalibrationUnit calibrationUnit,
+        AbstractObservingProgramConfigs.LightType lightType) {
+
+    public static ObservingProgramView of(ObservingProgram op) {
+        ObservingProgramConfigs configs = op.getConfigs();
+        return new ObservingProgramView(op.getId(),
+                op.getSciencePlan() == null ? null : op.getSciencePlan().getPlanNo(),
+                op.getGeminiLocation(), op.getOpticsPrimary(), op.getFStop(), op.getOpticsSecondaryRMS(),
+                op.getScienceFoldMirrorDegree(), op.getModuleContent(),
+                configs == null ? null : configs.getFoldMirrorTypeValue(),
+                configs == null ? null : configs.getCalibrationUnitValue(),
+                configs == null ? null : configs.getLightTypeValue());
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.implementation.api;
+
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * One page of a list endpoint. Lists are paged by key: pass {@code next} as the
+ * {@code after} parameter to get the following page.
+ *
+ * @param items the items of this page, in key order
+ * @param next the key to continue after, or null on the last page
+ */
+public record Page<T>(List<T> items, Integer next) {
+
+    public static final int DEFAULT_LIMIT = 50;
+    public static final int MAX_LIMIT = 500;
+
+    /**
+     * @param items up to limit items, as returned by the OCS
+     * @param key the key of an item
+     */
+    public static <T> Page<T> of(List<T> items, int limit, ToIntFunction<T> key) {
+        Integer next = items.size() < limit ? null : key.applyAsInt(items.get(items.size() - 1));
+        return new Page<>(items, next);
+    }
+
+    /**
+     * @return the requested limit, clamped to [1, MAX_LIMIT]
+     */
+    public static int limit(int requested) {
+        return Math.max(1, Math.min(requested, MAX_LIMIT));
+    }
+}
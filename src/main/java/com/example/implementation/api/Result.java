@@ -0,0 +1,7 @@
+package com.example.implementation.api;
+
+/**
+ * The outcome of an operation: whether it went through, and the message for the user.
+ */
+public record Result(boolean success, String message) {
+}
@@ -0,0 +1,86 @@
+package com.example.implementation.api;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import edu.gemini.OCS;
+import edu.gemini.TelescopeScheduler;
+import edu.gemini.UnavailableDateOutcome;
+
+/**
+ * Telescope availability and the proposed observing schedule.
+ */
+@RestController
+@RequestMapping("/api/schedule")
+public class ScheduleController {
+
+    private final OCS ocs;
+
+    public ScheduleController(OCS ocs) {
+        this.ocs = ocs;
+    }
+
+    /**
+     * Propose a schedule for the submitted and validated plans. Plans are not changed, but the
+     * schedule replaces the last proposed one, which is what reschedule updates.
+     */
+    @PostMapping
+    public TelescopeScheduler.Schedule schedule(@RequestParam LocalDate start,
+                                                @RequestParam(defaultValue = "365") int days) {
+        TelescopeScheduler.Schedule schedule = ocs.scheduleSciencePlans(SciencePlanRequest.toDate(start), days);
+        if (schedule == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "days must be positive");
+        }
+        return schedule;
+    }
+
+    /**
+     * Update the last proposed schedule after the plan changed.
+     */
+    @PostMapping("/plans/{planNo}")
+    public TelescopeScheduler.Schedule reschedule(@PathVariable int planNo) {
+        TelescopeScheduler.Schedule schedule = ocs.rescheduleSciencePlan(planNo);
+        if (schedule == null) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "No schedule has been proposed yet");
+        }
+        return schedule;
+    }
+
+    /**
+     * @param telescope the telescope, or none for the days every telescope is unavailable
+     */
+    @GetMapping("/unavailable-dates")
+    public List<LocalDate> unavailableDates(@RequestParam(required = false) String telescope) {
+        List<Date> dates = telescope == null ? ocs.getAllObservationSchedule() : ocs.getUnavailableDates(telescope);
+        List<LocalDate> days = new ArrayList<>(dates.size());
+        for (Date date : dates) {
+            days.add(LocalDate.ofInstant(date.toInstant(), ZoneId.systemDefault()));
+        }
+        return days;
+    }
+
+    @PostMapping("/unavailable-dates")
+    public Result addUnavailableDate(@RequestParam LocalDate date, @RequestParam(required = false) String telescope) {
+        UnavailableDateOutcome outcome = ocs.tryAddUnavailableDate(telescope, SciencePlanRequest.toDate(date));
+        return new Result(outcome.isSuccess(), outcome.getMessage());
+    }
+
+    @DeleteMapping("/unavailable-dates")
+    public Result deleteUnavailableDate(@RequestParam LocalDate date, @RequestParam(required = false) String telescope) {
+        UnavailableDateOutcome outcome = ocs.tryDeleteUnavailableDate(telescope, SciencePlanRequest.toDate(date));
+        return new Result(outcome.isSuccess(), outcome.getMessage());
+    }
+}
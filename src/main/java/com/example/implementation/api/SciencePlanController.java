@@ -0,0 +1,145 @@
+package com.example.implementation.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import edu.gemini.Astronomer;
+import edu.gemini.OCS;
+import edu.gemini.ScienceObserver;
+import edu.gemini.SciencePlan;
+import edu.gemini.SciencePlanOutcome;
+import edu.gemini.SciencePlanStepOutcome;
+import edu.gemini.model.AbstractSciencePlan;
+
+/**
+ * Science plans: create, read, delete, and the test, submit and validate steps.
+ */
+@RestController
+@RequestMapping("/api/science-plans")
+public class SciencePlanController {
+
+    /**
+     * The result of creating one plan. Plans that fail a check are saved as drafts.
+     */
+    public record Created(int planNo, SciencePlanOutcome outcome, String message) {
+    }
+
+    private final OCS ocs;
+    private final Astronomer astronomer;
+    private final ScienceObserver observer;
+
+    public SciencePlanController(OCS ocs, Astronomer astronomer, ScienceObserver observer) {
+        this.ocs = ocs;
+        this.astronomer = astronomer;
+        this.observer = observer;
+    }
+
+    @GetMapping
+    public Page<SciencePlanView> list(@RequestParam(required = false) AbstractSciencePlan.STATUS status,
+                                      @RequestParam(defaultValue = "0") int after,
+                                      @RequestParam(defaultValue = "" + Page.DEFAULT_LIMIT) int limit) {
+        int n = Page.limit(limit);
+        List<SciencePlanView> items = new ArrayList<>(n);
+        for (SciencePlan sp : ocs.getSciencePlans(status, after, n)) {
+            items.add(SciencePlanView.of(sp));
+        }
+        return Page.of(items, n, SciencePlanView::planNo);
+    }
+
+    @GetMapping("/counts")
+    public Map<AbstractSciencePlan.STATUS, Integer> counts() {
+        return ocs.getStatusCounts();
+    }
+
+    @GetMapping("/{planNo}")
+    public SciencePlanView get(@PathVariable int planNo) {
+        return SciencePlanView.of(find(planNo));
+    }
+
+    @PostMapping
+    public ResponseEntity<Created> create(@RequestBody SciencePlanRequest request) {
+        SciencePlan sp = request.toSciencePlan();
+        SciencePlanOutcome outcome = ocs.createSciencePlans(List.of(sp), astronomer)[0];
+        HttpStatus status = outcome.isAccepted() ? HttpStatus.CREATED
+                : outcome == SciencePlanOutcome.SYSTEM_ERROR ? HttpStatus.SERVICE_UNAVAILABLE
+                : HttpStatus.BAD_REQUEST;
+        return ResponseEntity.status(status).body(new Created(sp.getPlanNo(), outcome, outcome.getMessage()));
+    }
+
+    /**
+     * Create many plans in one call; conflicts are resolved in list order.
+     */
+    @PostMapping("/batch")
+    public List<Created> createAll(@RequestBody List<SciencePlanRequest> requests) {
+        List<SciencePlan> plans = new ArrayList<>(requests.size());
+        for (SciencePlanRequest request : requests) {
+            plans.add(request.toSciencePlan());
+        }
+        SciencePlanOutcome[] outcomes = ocs.createSciencePlans(plans, astronomer);
+        List<Created> result = new ArrayList<>(plans.size());
+        for (int i = 0; i < plans.size(); i++) {
+            result.add(new Created(plans.get(i).getPlanNo(), outcomes[i], outcomes[i].getMessage()));
+        }
+        return result;
+    }
+
+    @DeleteMapping("/{planNo}")
+    public ResponseEntity<Void> delete(@PathVariable int planNo) {
+        return ocs.deleteSciencePlanByNo(planNo) ? ResponseEntity.noContent().build()
+                : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * @param mark whether a passing plan moves to TESTED
+     */
+    @PostMapping("/{planNo}/test")
+    public Result test(@PathVariable int planNo, @RequestParam(defaultValue = "true") boolean mark) {
+        SciencePlanStepOutcome outcome = ocs.tryTestSciencePlan(find(planNo), mark);
+        return new Result(outcome.isSuccess(), outcome.getMessage());
+    }
+
+    @PostMapping("/{planNo}/submit")
+    public Result submit(@PathVariable int planNo) {
+        SciencePlanStepOutcome outcome = ocs.trySubmitSciencePlan(find(planNo), astronomer);
+        return new Result(outcome.isSuccess(), outcome.getMessage());
+    }
+
+    @PostMapping("/{planNo}/validate")
+    public SciencePlanView validate(@PathVariable int planNo) {
+        SciencePlan validated = ocs.validateSciencePlan(find(planNo), observer);
+        if (validated == null) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Science plan #" + planNo + " is not SUBMITTED");
+        }
+        return SciencePlanView.of(validated);
+    }
+
+    @PutMapping("/{planNo}/status")
+    public SciencePlanView updateStatus(@PathVariable int planNo, @RequestParam AbstractSciencePlan.STATUS status) {
+        if (!ocs.updateSciencePlanStatus(planNo, status)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Science plan #" + planNo + " not found");
+        }
+        return SciencePlanView.of(find(planNo));
+    }
+
+    private SciencePlan find(int planNo) {
+        SciencePlan sp = ocs.getSciencePlanByNo(planNo);
+        if (sp == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Science plan #" + planNo + " not found");
+        }
+        return sp;
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.implementation.api;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+
+import edu.gemini.SciencePlan;
+
+/**
+ * The fields an astronomer fills in to create a science plan. Dates are whole days,
+ * like in the CLI.
+ */
+public record SciencePlanRequest(
+        String name,
+        String objective,
+        double funding,
+        LocalDate startDate,
+        LocalDate endDate,
+        String telescope,
+        String target,
+        SciencePlan.FileType fileType,
+        SciencePlan.FileQuality fileQuality,
+        SciencePlan.ColorType colorType,
+        Double contrast,
+        Double brightness,
+        Double saturation,
+        Double exposure) {
+
+    public SciencePlan toSciencePlan() {
+        SciencePlan sp = new SciencePlan();
+        sp.setName(name);
+        sp.setObjective(objective);
+        sp.setFunding(funding);
+        sp.setStartDate(toDate(startDate));
+        sp.setEndDate(toDate(endDate));
+        sp.setTelescope(telescope);
+        sp.setTarget(target);
+        sp.setFileType(fileType);
+        sp.setFileQuality(fileQuality);
+        sp.setColorType(colorType);
+        sp.setContrast(contrast);
+        sp.setBrightness(brightness);
+        sp.setSaturation(saturation);
+        sp.setExposure(exposure);
+        return sp;
+    }
+
+    static Date toDate(LocalDate day) {
+        return day == null ? null : Date.from(day.atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+}
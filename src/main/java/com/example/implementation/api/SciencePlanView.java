@@ -0,0 +1,36 @@
+package com.example.implementation.api;
+
+import java.util.Date;
+
+import edu.gemini.SciencePlan;
+import edu.gemini.model.AbstractSciencePlan;
+
+/**
+ * A science plan as returned by the API. Astronomical data is left out; it is fetched separately.
+ */
+public record SciencePlanView(
+        int planNo,
+        String name,
+        String creator,
+        double funding,
+        String objective,
+        Date startDate,
+        Date endDate,
+        String telescope,
+        String target,
+        AbstractSciencePlan.STATUS status,
+        SciencePlan.FileType fileType,
+        SciencePlan.FileQuality fileQuality,
+        SciencePlan.ColorType colorType,
+        Double contrast,
+        Double brightness,
+        Double saturation,
+        Double exposure) {
+
+    public static SciencePlanView of(SciencePlan sp) {
+        return new SciencePlanView(sp.getPlanNo(), sp.getName(), sp.getCreator(), sp.getFunding(),
+                sp.getObjective(), sp.getStartDate(), sp.getEndDate(), sp.getTelescope(), sp.getTarget(),
+                sp.getStatus(), sp.getFileType(), sp.getFileQuality(), sp.getColorType(),
+                sp.getContrast(), sp.getBrightness(), sp.getSaturation(), sp.getExposure());
+    }
+}
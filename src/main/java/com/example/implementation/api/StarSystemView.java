@@ -0,0 +1,25 @@
+package com.example.implementation.api;
+
+import edu.gemini.TelescopeSite;
+import edu.gemini.model.Quadrant;
+import edu.gemini.model.StarSystem;
+
+/**
+ * A star system of the catalogue as returned by the API, with the telescope that observes it.
+ */
+public record StarSystemView(
+        String name,
+        String englishName,
+        Quadrant.QUADRANT quadrant,
+        String telescope,
+        double area,
+        int startingLatitude,
+        int endingLatitude,
+        int month) {
+
+    public static StarSystemView of(StarSystem.CONSTELLATIONS c) {
+        TelescopeSite site = TelescopeSite.forQuadrant(c.quadrant);
+        return new StarSystemView(c.name(), c.engName, c.quadrant, site == null ? null : site.getDisplayName(),
+                c.area, c.startingLatitude, c.endingLatitude, c.month);
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.implementation.api;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import edu.gemini.OCS;
+import edu.gemini.VirtualTelescope;
+
+/**
+ * The virtual telescopes: send commands and poll their status.
+ */
+@RestController
+@RequestMapping("/api/telescopes/{telescope}")
+public class TelescopeController {
+
+    /**
+     * The text result of a command or status query.
+     */
+    public record CommandResult(String command, String result) {
+    }
+
+    private final OCS ocs;
+
+    public TelescopeController(OCS ocs) {
+        this.ocs = ocs;
+    }
+
+    /**
+     * Position and status, read without waiting for queued commands.
+     */
+    @GetMapping
+    public VirtualTelescope.Snapshot status(@PathVariable String telescope) {
+        VirtualTelescope.Snapshot snapshot = ocs.getTelescopeSnapshot(telescope);
+        if (snapshot == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown telescope: " + telescope);
+        }
+        return snapshot;
+    }
+
+    @PostMapping("/commands")
+    public CommandResult execute(@PathVariable String telescope, @RequestParam String command) {
+        if (ocs.getTelescopeSnapshot(telescope) == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown telescope: " + telescope);
+        }
+        return new CommandResult(command, ocs.executeCommand(telescope, command));
+    }
+
+    /**
+     * Run a script such as "START; UP x3; FOCUS; TAKE_PHOTO; STOP" as one batch.
+     */
+    @PostMapping("/scripts")
+    public CommandResult executeScript(@PathVariable String telescope, @RequestBody String script) {
+        if (ocs.getTelescopeSnapshot(telescope) == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown telescope: " + telescope);
+        }
+        return new CommandResult(script, ocs.executeScript(telescope, script));
+    }
+}
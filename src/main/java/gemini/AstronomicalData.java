@@ -5,6 +5,8 @@ import edu.gemini.model.AbstractAstronomicalData;
 public class AstronomicalData extends AbstractAstronomicalData {
     private String fileName;
     private String description;
+    // The image, for data taken by a simulated telescope
+    private volatile SkyFrame frame;
 
     public AstronomicalData() {
         super();
@@ -42,4 +44,27 @@ public class AstronomicalData extends AbstractAstronomicalData {
     public void setDescription(String description) {
         this.description = description;
     }
-}
\ No newline at end of file
+
+    /**
+     * @return the image, or null if the data has none or its frame was released
+     */
+    public SkyFrame getFrame() {
+        SkyFrame f = frame;
+        return f == null || f.isReleased() ? null : f;
+    }
+
+    public void setFrame(SkyFrame frame) {
+        this.frame = frame;
+    }
+
+    /**
+     * Hand the image's buffer back to the frame pool; the data keeps its description.
+     */
+    public void releaseFrame() {
+        SkyFrame f = frame;
+        frame = null;
+        if (f != null) {
+            f.release();
+        }
+    }
+}
@@ -0,0 +1,621 @@
+package edu.gemini;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import edu.gemini.model.AbstractAstronomicalData;
+import edu.gemini.model.StarSystem;
+
+/**
+ * On-disk store of the astronomical data taken for science plans, frames included.
+ * <p>
+ * Records are appended to memory-mapped segment files of {@code segmentSize} bytes, framed as
+ * {@code [int length][int crc32][byte type][long id][int planNo][body]}, where the CRC covers
+ * everything after itself. Only a small index of record locations is kept on the heap, so the
+ * store can hold far more data than the heap; frames are read back as slices of the mapping,
+ * without copying.
+ * <p>
+ * Removing a record appends a tombstone. A background thread compacts a full segment once less
+ * than half of it is live, copying its live records to the current segment and deleting the
+ * file. Records keep their id when copied, so a compaction cut short by a crash leaves duplicates
+ * that recovery resolves in favour of the later copy. Tombstones are carried along too, except
+ * when the oldest segment is compacted, as their targets can only be in the same or older
+ * segments.
+ * <p>
+ * Appends are not synced; {@link #flush()} forces the segments to disk, and recovery drops a
+ * torn or corrupt tail. Safe to use from any thread.
+ */
+final class AstronomicalDataStore implements Closeable {
+
+    static final String SEGMENT_PREFIX = "data-";
+    static final String SEGMENT_SUFFIX = ".seg";
+    static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+    private static final byte DATA = 1;
+    private static final byte REMOVED = 2;
+    private static final byte PLAN_REMOVED = 3;
+
+    private static final int HEADER_LENGTH = 4 + 4 + 1 + 8 + 4;
+    private static final int CRC_FROM = 8;
+    private static final double COMPACT_BELOW = 0.5;
+
+    private static final TelescopeSite[] SITES = TelescopeSite.values();
+    private static final StarSystem.CONSTELLATIONS[] CONSTELLATIONS = StarSystem.CONSTELLATIONS.values();
+
+    private static final class Segment {
+        final int no;
+        final Path path;
+        final MappedByteBuffer map;
+        // Guarded by the store
+        int end;
+        long liveBytes;
+
+        Segment(int no, Path path, MappedByteBuffer map) {
+            this.no = no;
+            this.path = path;
+            this.map = map;
+        }
+    }
+
+    // Locations of a plan's records in id order; a removed record keeps its slot with locator -1
+    private static final class PlanIndex {
+        long[] ids = new long[8];
+        long[] locators = new long[8];
+        int size;
+        int live;
+
+        void put(long id, long locator) {
+            int slot = slotOfId(id);
+            if (slot >= 0) {
+                if (locators[slot] >= 0) locators[slot] = locator;
+                return;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                locators = Arrays.copyOf(locators, size * 2);
+            }
+            // Compaction copies may arrive after newer records on recovery
+            int at = -slot - 1;
+            System.arraycopy(ids, at, ids, at + 1, size - at);
+            System.arraycopy(locators, at, locators, at + 1, size - at);
+            ids[at] = id;
+            locators[at] = locator;
+            size++;
+            live++;
+        }
+
+        int slotOfId(long id) {
+            return Arrays.binarySearch(ids, 0, size, id);
+        }
+
+        // Slot of the index-th live record, or -1
+        int slotOf(int index) {
+            if (index < 0 || index >= live) return -1;
+            if (live == size) return index;
+            for (int slot = 0; slot < size; slot++) {
+                if (locators[slot] >= 0 && index-- == 0) return slot;
+            }
+            return -1;
+        }
+
+        void removeSlot(int slot) {
+            locators[slot] = -1;
+            live--;
+            if (size > 16 && live < size / 2) {
+                int n = 0;
+                for (int i = 0; i < size; i++) {
+                    if (locators[i] >= 0) {
+                        ids[n] = ids[i];
+                        locators[n++] = locators[i];
+                    }
+                }
+                size = n;
+            }
+        }
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private final Map<Integer, PlanIndex> plans = new HashMap<>();
+    private final CRC32 crc = new CRC32();
+    private final ExecutorService compactor;
+    private Segment active;
+    private long nextId = 1;
+    private boolean compactionQueued;
+    private boolean closed;
+
+    AstronomicalDataStore(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Open the store in a directory, creating it if needed, and recover the records in it.
+     *
+     * @param segmentSize the size of a segment file; a record larger than that gets a segment of its own
+     */
+    AstronomicalDataStore(Path directory, int segmentSize) throws IOException {
+        if (segmentSize < HEADER_LENGTH * 2) {
+            throw new IllegalArgumentException("Segment size is too small: " + segmentSize);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        for (int no : listSegments(directory)) {
+            Path path = segmentPath(directory, no);
+            Segment s = new Segment(no, path, map(path, Files.size(path)));
+            segments.put(no, s);
+            recover(s);
+        }
+        active = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        this.compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "astronomical-data-compaction");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduleCompaction();
+    }
+
+    static Path segmentPath(Path directory, int no) {
+        return directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, no, SEGMENT_SUFFIX));
+    }
+
+    static List<Integer> listSegments(Path directory) throws IOException {
+        List<Integer> nos = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(p -> {
+                String name = p.getFileName().toString();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        nos.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                                name.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException e) {
+                        // Not a segment
+                    }
+                }
+            });
+        }
+        nos.sort(null);
+        return nos;
+    }
+
+    // --- Reads ---
+
+    /**
+     * @return the number of records stored for a plan
+     */
+    synchronized int count(int planNo) {
+        PlanIndex p = plans.get(planNo);
+        return p == null ? 0 : p.live;
+    }
+
+    /**
+     * @return the index-th record of a plan, in the order they were added, or null if there is
+     *         none; its frame reads the mapped file directly
+     */
+    synchronized AstronomicalData get(int planNo, int index) {
+        PlanIndex p = plans.get(planNo);
+        int slot = p == null ? -1 : p.slotOf(index);
+        return slot < 0 ? null : read(p.locators[slot]);
+    }
+
+    /**
+     * @return the plan's latest record, or null if it has none
+     */
+    synchronized AstronomicalData getLatest(int planNo) {
+        return get(planNo, count(planNo) - 1);
+    }
+
+    /**
+     * @return the plans that have records
+     */
+    synchronized int[] getPlanNos() {
+        return plans.entrySet().stream().filter(e -> e.getValue().live > 0).mapToInt(Map.Entry::getKey).toArray();
+    }
+
+    synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    // --- Writes ---
+
+    /**
+     * Append a record for a plan, with the data's frame if it has one. The frame is copied; the
+     * caller keeps it.
+     */
+    synchronized void append(int planNo, AstronomicalData data) throws IOException {
+        checkOpen();
+        SkyFrame frame = data.getFrame();
+        byte[] body = encode(data, frame);
+        ByteBuffer pixels = frame == null ? null : frame.buffer();
+        int pixelBytes = frame == null ? 0 : frame.getFormat().getByteSize();
+        long id = nextId++;
+        Segment s = segmentFor(HEADER_LENGTH + body.length + pixelBytes);
+        int at = s.end;
+        int length = HEADER_LENGTH + body.length + pixelBytes;
+        putHeader(s.map, at, DATA, id, planNo);
+        s.map.put(at + HEADER_LENGTH, body);
+        if (pixels != null) {
+            s.map.put(at + HEADER_LENGTH + body.length, pixels, 0, pixelBytes);
+        }
+        seal(s, at, length);
+        s.liveBytes += length;
+        plans.computeIfAbsent(planNo, k -> new PlanIndex()).put(id, locator(s.no, at));
+    }
+
+    /**
+     * Remove the index-th record of a plan.
+     *
+     * @return the record removed, or null if there is none; its frame stays readable
+     */
+    synchronized AstronomicalData remove(int planNo, int index) throws IOException {
+        checkOpen();
+        PlanIndex p = plans.get(planNo);
+        int slot = p == null ? -1 : p.slotOf(index);
+        if (slot < 0) return null;
+        long locator = p.locators[slot];
+        AstronomicalData removed = read(locator);
+        appendTombstone(REMOVED, p.ids[slot], planNo);
+        kill(locator);
+        p.removeSlot(slot);
+        scheduleCompaction();
+        return removed;
+    }
+
+    /**
+     * Remove every record of a plan.
+     */
+    synchronized void removePlan(int planNo) throws IOException {
+        checkOpen();
+        PlanIndex p = plans.remove(planNo);
+        if (p == null) return;
+        // Every record of the plan has a lower id than the next one
+        appendTombstone(PLAN_REMOVED, nextId - 1, planNo);
+        for (int slot = 0; slot < p.size; slot++) {
+            if (p.locators[slot] >= 0) kill(p.locators[slot]);
+        }
+        scheduleCompaction();
+    }
+
+    synchronized void clear() throws IOException {
+        for (int planNo : getPlanNos()) {
+            removePlan(planNo);
+        }
+    }
+
+    /**
+     * Force every segment to disk.
+     */
+    void flush() {
+        List<Segment> all;
+        synchronized (this) {
+            all = new ArrayList<>(segments.values());
+        }
+        for (Segment s : all) {
+            s.map.force();
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+        }
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    // --- Records ---
+
+    private static long locator(int segment, int offset) {
+        return (long) segment << 32 | offset;
+    }
+
+    private static void putHeader(ByteBuffer map, int at, byte type, long id, int planNo) {
+        map.put(at + 8, type);
+        map.putLong(at + 9, id);
+        map.putInt(at + 17, planNo);
+    }
+
+    // Write the CRC and then the length, which makes the record visible to recovery
+    private void seal(Segment s, int at, int length) {
+        crc.reset();
+        crc.update(s.map.slice(at + CRC_FROM, length - CRC_FROM));
+        s.map.putInt(at + 4, (int) crc.getValue());
+        s.map.putInt(at, length);
+        s.end = at + length;
+    }
+
+    private void appendTombstone(byte type, long id, int planNo) {
+        Segment s = segmentFor(HEADER_LENGTH);
+        int at = s.end;
+        putHeader(s.map, at, type, id, planNo);
+        seal(s, at, HEADER_LENGTH);
+        // Removals are rare and small, sync them at once
+        s.map.force(at, HEADER_LENGTH);
+    }
+
+    // The segment a record of the given length goes to, starting a new one if the current one is full
+    private Segment segmentFor(int length) {
+        if (active != null && active.end + length <= active.map.capacity()) {
+            return active;
+        }
+        int no = active == null ? 1 : active.no + 1;
+        Path path = segmentPath(directory, no);
+        try {
+            Segment s = new Segment(no, path, map(path, Math.max(segmentSize, length)));
+            segments.put(no, s);
+            active = s;
+            return s;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create data segment " + path, e);
+        }
+    }
+
+    private static MappedByteBuffer map(Path path, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            // Mapping past the end grows the file, sparsely on most file systems
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    // Take a record's bytes off its segment's live count
+    private void kill(long locator) {
+        Segment s = segments.get((int) (locator >>> 32));
+        if (s != null) {
+            s.liveBytes -= s.map.getInt((int) locator);
+        }
+    }
+
+    private static byte[] encode(AbstractAstronomicalData data, SkyFrame frame) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeString(out, data.getFileType());
+        writeString(out, data.getFileQuality());
+        writeString(out, data.getColorType());
+        out.writeDouble(data.getContrast());
+        out.writeDouble(data.getBrightness());
+        out.writeDouble(data.getSaturation());
+        out.writeDouble(data.getHighlights());
+        out.writeDouble(data.getExposure());
+        out.writeDouble(data.getShadows());
+        out.writeDouble(data.getWhites());
+        out.writeDouble(data.getBlacks());
+        out.writeDouble(data.getLuminance());
+        out.writeDouble(data.getHue());
+        AstronomicalData named = data instanceof AstronomicalData ? (AstronomicalData) data : null;
+        writeString(out, named == null ? null : named.getFileName());
+        writeString(out, named == null ? null : named.getDescription());
+        out.writeBoolean(frame != null);
+        if (frame != null) {
+            out.writeInt(frame.getWidth());
+            out.writeInt(frame.getHeight());
+            out.writeByte(frame.getBitDepth());
+            out.writeByte(frame.getSite().ordinal());
+            out.writeShort(frame.getTarget() == null ? -1 : frame.getTarget().ordinal());
+            out.writeInt(frame.getAzimuth());
+            out.writeInt(frame.getAltitude());
+            out.writeBoolean(frame.isFocused());
+            out.writeLong(frame.getTakenAt());
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private AstronomicalData read(long locator) {
+        Segment s = segments.get((int) (locator >>> 32));
+        ByteBuffer in = s.map.duplicate();
+        in.position((int) locator + HEADER_LENGTH);
+        String fileType = readString(in);
+        String fileQuality = readString(in);
+        String colorType = readString(in);
+        double[] v = new double[10];
+        for (int i = 0; i < v.length; i++) {
+            v[i] = in.getDouble();
+        }
+        String fileName = readString(in);
+        String description = readString(in);
+        AstronomicalData data = new AstronomicalData(fileType, fileQuality, colorType,
+                v[0], v[1], v[2], v[3], v[4], v[5], v[6], v[7], v[8], v[9], fileName, description);
+        if (in.get() != 0) {
+            SkyFrame.Format format = new SkyFrame.Format(in.getInt(), in.getInt(), in.get());
+            TelescopeSite site = SITES[in.get()];
+            int target = in.getShort();
+            int azimuth = in.getInt();
+            int altitude = in.getInt();
+            boolean focused = in.get() != 0;
+            long takenAt = in.getLong();
+            ByteBuffer pixels = s.map.slice(in.position(), format.getByteSize()).asReadOnlyBuffer();
+            data.setFrame(new SkyFrame(format, pixels, null, site, target < 0 ? null : CONSTELLATIONS[target],
+                    azimuth, altitude, focused, takenAt));
+        }
+        return data;
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) return null;
+        byte[] b = new byte[length];
+        in.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    // --- Recovery ---
+
+    // Index a segment's records up to the first torn or corrupt one
+    private void recover(Segment s) {
+        ByteBuffer map = s.map;
+        int at = 0;
+        while (at + HEADER_LENGTH <= map.capacity()) {
+            int length = map.getInt(at);
+            if (length < HEADER_LENGTH || length > map.capacity() - at) break;
+            crc.reset();
+            crc.update(map.slice(at + CRC_FROM, length - CRC_FROM));
+            if ((int) crc.getValue() != map.getInt(at + 4)) {
+                System.err.println("Astronomical data segment " + s.no + " is corrupt after offset " + at);
+                break;
+            }
+            byte type = map.get(at + 8);
+            long id = map.getLong(at + 9);
+            int planNo = map.getInt(at + 17);
+            if (type == DATA) {
+                PlanIndex p = plans.computeIfAbsent(planNo, k -> new PlanIndex());
+                int slot = p.slotOfId(id);
+                nextId = Math.max(nextId, id + 1);
+                if (slot < 0) {
+                    p.put(id, locator(s.no, at));
+                    s.liveBytes += length;
+                } else if (p.locators[slot] >= 0) {
+                    // An earlier copy, from a compaction that did not finish
+                    kill(p.locators[slot]);
+                    p.locators[slot] = locator(s.no, at);
+                    s.liveBytes += length;
+                }
+            } else if (type == REMOVED) {
+                PlanIndex p = plans.get(planNo);
+                int slot = p == null ? -1 : p.slotOfId(id);
+                if (slot >= 0 && p.locators[slot] >= 0) {
+                    kill(p.locators[slot]);
+                    p.removeSlot(slot);
+                }
+            } else if (type == PLAN_REMOVED) {
+                PlanIndex p = plans.get(planNo);
+                if (p != null) {
+                    for (int slot = 0; slot < p.size; slot++) {
+                        if (p.ids[slot] <= id && p.locators[slot] >= 0) {
+                            kill(p.locators[slot]);
+                            p.locators[slot] = -1;
+                            p.live--;
+                        }
+                    }
+                    if (p.live == 0) plans.remove(planNo);
+                }
+            }
+            at += length;
+        }
+        s.end = at;
+    }
+
+    // --- Compaction ---
+
+    private void scheduleCompaction() {
+        if (compactionQueued || closed || findVictim() == null) return;
+        compactionQueued = true;
+        compactor.execute(this::compact);
+    }
+
+    // A full segment that is mostly dead
+    private Segment findVictim() {
+        for (Segment s : segments.values()) {
+            if (s != active && s.liveBytes < s.end * COMPACT_BELOW) return s;
+        }
+        return null;
+    }
+
+    private void compact() {
+        try {
+            while (true) {
+                Segment victim;
+                boolean oldest;
+                synchronized (this) {
+                    victim = closed ? null : findVictim();
+                    if (victim == null) {
+                        compactionQueued = false;
+                        return;
+                    }
+                    oldest = victim == segments.firstEntry().getValue();
+                }
+                // One record per lock hold, so appends and reads go on meanwhile
+                int at = 0;
+                while (true) {
+                    synchronized (this) {
+                        if (at >= victim.end) break;
+                        at += copyIfNeeded(victim, at, oldest);
+                    }
+                }
+                synchronized (this) {
+                    active.map.force();
+                    segments.remove(victim.no);
+                }
+                // Readers holding frames keep the mapping until they drop them
+                Files.deleteIfExists(victim.path);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Astronomical data compaction failed: " + e.getMessage());
+            synchronized (this) {
+                compactionQueued = false;
+            }
+        }
+    }
+
+    // Copy the record at an offset of a segment being compacted, if it must survive; returns its length
+    private int copyIfNeeded(Segment victim, int at, boolean oldest) {
+        ByteBuffer map = victim.map;
+        int length = map.getInt(at);
+        byte type = map.get(at + 8);
+        if (type == DATA) {
+            int planNo = map.getInt(at + 17);
+            PlanIndex p = plans.get(planNo);
+            int slot = p == null ? -1 : p.slotOfId(map.getLong(at + 9));
+            if (slot >= 0 && p.locators[slot] == locator(victim.no, at)) {
+                p.locators[slot] = copy(victim, at, length);
+                victim.liveBytes -= length;
+                segments.get((int) (p.locators[slot] >>> 32)).liveBytes += length;
+            }
+        } else if (!oldest) {
+            copy(victim, at, length);
+        }
+        return length;
+    }
+
+    private long copy(Segment from, int at, int length) {
+        Segment to = segmentFor(length);
+        int dest = to.end;
+        to.map.put(dest, from.map, at, length);
+        to.end = dest + length;
+        return locator(to.no, dest);
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Astronomical data store is closed");
+        }
+    }
+}
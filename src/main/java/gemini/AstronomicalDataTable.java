@@ -0,0 +1,431 @@
+package edu.gemini;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.gemini.model.AbstractAstronomicalData;
+
+/**
+ * Astronomical data stored column by column: one {@code double[]} per adjustment, the file type,
+ * quality and colour type as byte codes into a per-column dictionary, and the file names,
+ * descriptions and frames as plain arrays.
+ * <p>
+ * A row costs about 100 bytes plus its name and description, instead of an object with ten
+ * doubles and five references per exposure, and the type strings are held once per table.
+ * Scans over one adjustment, such as {@link #mean(Field)}, run down a single primitive array.
+ * {@link #cursor()} gives a reusable view of one row with the usual getters and setters.
+ * <p>
+ * Each string column holds at most {@link #MAX_DISTINCT} distinct values. Safe to use from any
+ * thread; a cursor must not be shared. The table owns its frames until {@link #remove} or
+ * {@link #releaseFrames()}; everything else that reads a row gets a copy of its frame.
+ */
+public final class AstronomicalDataTable {
+
+    public static final int MAX_DISTINCT = 255;
+
+    /**
+     * The adjustments of {@link AbstractAstronomicalData}, one column each.
+     */
+    public enum Field {
+        CONTRAST, BRIGHTNESS, SATURATION, HIGHLIGHTS, EXPOSURE, SHADOWS, WHITES, BLACKS, LUMINANCE, HUE
+    }
+
+    private static final int FIELDS = Field.values().length;
+    // Code of a null string
+    private static final byte NULL = -1;
+
+    // Strings of a column by code, and codes by string
+    private static final class Dictionary {
+        final String name;
+        final List<String> values = new ArrayList<>();
+        final Map<String, Byte> codes = new HashMap<>();
+
+        Dictionary(String name) {
+            this.name = name;
+        }
+
+        byte encode(String value) {
+            if (value == null) return NULL;
+            Byte code = codes.get(value);
+            if (code != null) return code;
+            if (values.size() == MAX_DISTINCT) {
+                throw new IllegalArgumentException("More than " + MAX_DISTINCT + " distinct " + name + " values");
+            }
+            byte b = (byte) values.size();
+            values.add(value);
+            codes.put(value, b);
+            return b;
+        }
+
+        String decode(byte code) {
+            return code == NULL ? null : values.get(code & 0xFF);
+        }
+    }
+
+    private final double[][] columns = new double[FIELDS][];
+    private final Dictionary fileTypes = new Dictionary("file type");
+    private final Dictionary fileQualities = new Dictionary("file quality");
+    private final Dictionary colorTypes = new Dictionary("color type");
+    private byte[] fileType;
+    private byte[] fileQuality;
+    private byte[] colorType;
+    private String[] fileName;
+    private String[] description;
+    private SkyFrame[] frame;
+    private int size;
+
+    public AstronomicalDataTable() {
+        this(16);
+    }
+
+    public AstronomicalDataTable(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        for (int f = 0; f < FIELDS; f++) {
+            columns[f] = new double[capacity];
+        }
+        fileType = new byte[capacity];
+        fileQuality = new byte[capacity];
+        colorType = new byte[capacity];
+        fileName = new String[capacity];
+        description = new String[capacity];
+        frame = new SkyFrame[capacity];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Append a row with the values of the data, and its name, description and frame if it is an
+     * {@link AstronomicalData}.
+     *
+     * @return the index of the row
+     * @throws IllegalArgumentException if a string column would exceed {@link #MAX_DISTINCT} values
+     */
+    public synchronized int add(AbstractAstronomicalData data) {
+        byte type = fileTypes.encode(data.getFileType());
+        byte quality = fileQualities.encode(data.getFileQuality());
+        byte color = colorTypes.encode(data.getColorType());
+        if (size == fileType.length) {
+            grow();
+        }
+        int i = size++;
+        fileType[i] = type;
+        fileQuality[i] = quality;
+        colorType[i] = color;
+        columns[Field.CONTRAST.ordinal()][i] = data.getContrast();
+        columns[Field.BRIGHTNESS.ordinal()][i] = data.getBrightness();
+        columns[Field.SATURATION.ordinal()][i] = data.getSaturation();
+        columns[Field.HIGHLIGHTS.ordinal()][i] = data.getHighlights();
+        columns[Field.EXPOSURE.ordinal()][i] = data.getExposure();
+        columns[Field.SHADOWS.ordinal()][i] = data.getShadows();
+        columns[Field.WHITES.ordinal()][i] = data.getWhites();
+        columns[Field.BLACKS.ordinal()][i] = data.getBlacks();
+        columns[Field.LUMINANCE.ordinal()][i] = data.getLuminance();
+        columns[Field.HUE.ordinal()][i] = data.getHue();
+        if (data instanceof AstronomicalData) {
+            AstronomicalData named = (AstronomicalData) data;
+            fileName[i] = named.getFileName();
+            description[i] = named.getDescription();
+            frame[i] = named.getFrame();
+        }
+        return i;
+    }
+
+    /**
+     * @return the row as a new object, with a copy of the row's frame; the table keeps its frame
+     *         in the pool, so it can be released while the caller still reads the copy
+     * @throws IndexOutOfBoundsException if there is no such row
+     */
+    public synchronized AstronomicalData get(int index) {
+        AstronomicalData data = row(index);
+        SkyFrame f = data.getFrame();
+        data.setFrame(f == null ? null : f.copy());
+        return data;
+    }
+
+    // The row as a new object, sharing the row's frame
+    private AstronomicalData row(int index) {
+        checkIndex(index);
+        AstronomicalData data = new AstronomicalData(
+                fileTypes.decode(fileType[index]), fileQualities.decode(fileQuality[index]),
+                colorTypes.decode(colorType[index]),
+                value(Field.CONTRAST, index), value(Field.BRIGHTNESS, index), value(Field.SATURATION, index),
+                value(Field.HIGHLIGHTS, index), value(Field.EXPOSURE, index), value(Field.SHADOWS, index),
+                value(Field.WHITES, index), value(Field.BLACKS, index), value(Field.LUMINANCE, index),
+                value(Field.HUE, index), fileName[index], description[index]);
+        data.setFrame(frame[index]);
+        return data;
+    }
+
+    /**
+     * Remove a row, moving the later rows up.
+     *
+     * @return the row removed; the caller owns its frame
+     * @throws IndexOutOfBoundsException if there is no such row
+     */
+    public synchronized AstronomicalData remove(int index) {
+        AstronomicalData removed = row(index);
+        int tail = size - index - 1;
+        for (double[] column : columns) {
+            System.arraycopy(column, index + 1, column, index, tail);
+        }
+        System.arraycopy(fileType, index + 1, fileType, index, tail);
+        System.arraycopy(fileQuality, index + 1, fileQuality, index, tail);
+        System.arraycopy(colorType, index + 1, colorType, index, tail);
+        System.arraycopy(fileName, index + 1, fileName, index, tail);
+        System.arraycopy(description, index + 1, description, index, tail);
+        System.arraycopy(frame, index + 1, frame, index, tail);
+        size--;
+        fileName[size] = null;
+        description[size] = null;
+        frame[size] = null;
+        return removed;
+    }
+
+    /**
+     * @return every row as new objects with copies of their frames, in order
+     */
+    public synchronized List<AstronomicalData> toList() {
+        List<AstronomicalData> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(get(i));
+        }
+        return list;
+    }
+
+    /**
+     * Release the frames of every row back to their pool.
+     */
+    public synchronized void releaseFrames() {
+        for (int i = 0; i < size; i++) {
+            if (frame[i] != null) {
+                frame[i].release();
+                frame[i] = null;
+            }
+        }
+    }
+
+    // --- Scans ---
+
+    /**
+     * @return the mean of an adjustment over the rows where it is set (not NaN), or NaN if there
+     *         are none
+     */
+    public synchronized double mean(Field field) {
+        double[] column = columns[field.ordinal()];
+        int size = this.size;
+        // Independent accumulators, so the additions do not wait on each other
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int n = 0;
+        int i = 0;
+        for (; i + 3 < size; i += 4) {
+            double a = column[i], b = column[i + 1], c = column[i + 2], d = column[i + 3];
+            // NaN is the only value not equal to itself
+            if (a == a && b == b && c == c && d == d) {
+                s0 += a;
+                s1 += b;
+                s2 += c;
+                s3 += d;
+                n += 4;
+            } else {
+                if (a == a) { s0 += a; n++; }
+                if (b == b) { s1 += b; n++; }
+                if (c == c) { s2 += c; n++; }
+                if (d == d) { s3 += d; n++; }
+            }
+        }
+        for (; i < size; i++) {
+            double a = column[i];
+            if (a == a) { s0 += a; n++; }
+        }
+        return n == 0 ? Double.NaN : (s0 + s1 + s2 + s3) / n;
+    }
+
+    /**
+     * @return the number of rows with the given file type
+     */
+    public synchronized int countFileType(String type) {
+        byte c = NULL;
+        if (type != null) {
+            Byte code = fileTypes.codes.get(type);
+            if (code == null) return 0;
+            c = code;
+        }
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            n += fileType[i] == c ? 1 : 0;
+        }
+        return n;
+    }
+
+    /**
+     * @return a copy of one adjustment's column, one value per row
+     */
+    public synchronized double[] column(Field field) {
+        return Arrays.copyOf(columns[field.ordinal()], size);
+    }
+
+    // --- Cursor ---
+
+    /**
+     * @return a view of row 0, to move with {@link Cursor#moveTo(int)} or {@link Cursor#next()}
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * A movable view of one row. Its getters read the table and its setters write it; the fields
+     * it inherits are not used.
+     */
+    public final class Cursor extends AbstractAstronomicalData {
+        private int row = -1;
+
+        private Cursor() {
+        }
+
+        /**
+         * @return this cursor, on the given row
+         * @throws IndexOutOfBoundsException if there is no such row
+         */
+        public Cursor moveTo(int index) {
+            synchronized (AstronomicalDataTable.this) {
+                checkIndex(index);
+            }
+            row = index;
+            return this;
+        }
+
+        /**
+         * Move to the next row.
+         *
+         * @return false if there is none
+         */
+        public boolean next() {
+            if (row + 1 >= size()) return false;
+            row++;
+            return true;
+        }
+
+        public int getRow() {
+            return row;
+        }
+
+        @Override public String getFileType() { return decode(fileTypes); }
+        @Override public String getFileQuality() { return decode(fileQualities); }
+        @Override public String getColorType() { return decode(colorTypes); }
+        @Override public void setFileType(String v) { encode(fileTypes, v); }
+        @Override public void setFileQuality(String v) { encode(fileQualities, v); }
+        @Override public void setColorType(String v) { encode(colorTypes, v); }
+
+        @Override public double getContrast() { return read(Field.CONTRAST); }
+        @Override public double getBrightness() { return read(Field.BRIGHTNESS); }
+        @Override public double getSaturation() { return read(Field.SATURATION); }
+        @Override public double getHighlights() { return read(Field.HIGHLIGHTS); }
+        @Override public double getExposure() { return read(Field.EXPOSURE); }
+        @Override public double getShadows() { return read(Field.SHADOWS); }
+        @Override public double getWhites() { return read(Field.WHITES); }
+        @Override public double getBlacks() { return read(Field.BLACKS); }
+        @Override public double getLuminance() { return read(Field.LUMINANCE); }
+        @Override public double getHue() { return read(Field.HUE); }
+        @Override public void setContrast(double v) { write(Field.CONTRAST, v); }
+        @Override public void setBrightness(double v) { write(Field.BRIGHTNESS, v); }
+        @Override public void setSaturation(double v) { write(Field.SATURATION, v); }
+        @Override public void setHighlights(double v) { write(Field.HIGHLIGHTS, v); }
+        @Override public void setExposure(double v) { write(Field.EXPOSURE, v); }
+        @Override public void setShadows(double v) { write(Field.SHADOWS, v); }
+        @Override public void setWhites(double v) { write(Field.WHITES, v); }
+        @Override public void setBlacks(double v) { write(Field.BLACKS, v); }
+        @Override public void setLuminance(double v) { write(Field.LUMINANCE, v); }
+        @Override public void setHue(double v) { write(Field.HUE, v); }
+
+        public String getFileName() {
+            synchronized (AstronomicalDataTable.this) {
+                return fileName[checkRow()];
+            }
+        }
+
+        public String getDescription() {
+            synchronized (AstronomicalDataTable.this) {
+                return description[checkRow()];
+            }
+        }
+
+        /**
+         * @return a copy of the row's frame, or null if it has none
+         */
+        public SkyFrame getFrame() {
+            synchronized (AstronomicalDataTable.this) {
+                SkyFrame f = frame[checkRow()];
+                return f == null || f.isReleased() ? null : f.copy();
+            }
+        }
+
+        private double read(Field field) {
+            synchronized (AstronomicalDataTable.this) {
+                return columns[field.ordinal()][checkRow()];
+            }
+        }
+
+        private void write(Field field, double v) {
+            synchronized (AstronomicalDataTable.this) {
+                columns[field.ordinal()][checkRow()] = v;
+            }
+        }
+
+        // The code column is looked up under the lock, as growing the table replaces it
+        private String decode(Dictionary dictionary) {
+            synchronized (AstronomicalDataTable.this) {
+                return dictionary.decode(codes(dictionary)[checkRow()]);
+            }
+        }
+
+        private void encode(Dictionary dictionary, String v) {
+            synchronized (AstronomicalDataTable.this) {
+                codes(dictionary)[checkRow()] = dictionary.encode(v);
+            }
+        }
+
+        private int checkRow() {
+            checkIndex(row);
+            return row;
+        }
+    }
+
+    // --- Internals ---
+
+    private byte[] codes(Dictionary dictionary) {
+        return dictionary == fileTypes ? fileType : dictionary == fileQualities ? fileQuality : colorType;
+    }
+
+    private double value(Field field, int index) {
+        return columns[field.ordinal()][index];
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Row " + index + " of " + size);
+        }
+    }
+
+    private void grow() {
+        int capacity = fileType.length * 2;
+        for (int f = 0; f < FIELDS; f++) {
+            columns[f] = Arrays.copyOf(columns[f], capacity);
+        }
+        fileType = Arrays.copyOf(fileType, capacity);
+        fileQuality = Arrays.copyOf(fileQuality, capacity);
+        colorType = Arrays.copyOf(colorType, capacity);
+        fileName = Arrays.copyOf(fileName, capacity);
+        description = Arrays.copyOf(description, capacity);
+        frame = Arrays.copyOf(frame, capacity);
+    }
+}
@@ -0,0 +1,172 @@
+package edu.gemini;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Days on which telescopes cannot observe. Days blacked out for the whole observatory and
+ * days blacked out for a single telescope are kept in separate {@link DayBitmap}s; a
+ * telescope is unavailable on a day if either has it set.
+ * <p>
+ * Dates are reduced to calendar days in the given time zone, so two timestamps on the same
+ * day are the same blackout. Reads share a lock, so availability checks from concurrent
+ * createSciencePlan calls do not wait for each other.
+ */
+class BlackoutCalendar {
+
+    private static final class TelescopeDays {
+        final String telescope;
+        final DayBitmap days = new DayBitmap();
+
+        TelescopeDays(String telescope) {
+            this.telescope = telescope;
+        }
+    }
+
+    private final ZoneId zone;
+    private final DayBitmap allTelescopes = new DayBitmap();
+    private final Map<String, TelescopeDays> byTelescope = new LinkedHashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public BlackoutCalendar(ZoneId zone) {
+        this.zone = zone;
+    }
+
+    public long toEpochDay(Date date) {
+        return LocalDate.ofInstant(date.toInstant(), zone).toEpochDay();
+    }
+
+    public Date toDate(long epochDay) {
+        return Date.from(LocalDate.ofEpochDay(epochDay).atStartOfDay(zone).toInstant());
+    }
+
+    /**
+     * Black out a day.
+     *
+     * @param telescope the telescope, or null for every telescope
+     * @return false if the day was already blacked out
+     */
+    public boolean add(String telescope, Date date) {
+        long day = toEpochDay(date);
+        lock.writeLock().lock();
+        try {
+            if (telescope == null) {
+                return allTelescopes.set(day);
+            }
+            return byTelescope.computeIfAbsent(key(telescope), k -> new TelescopeDays(telescope)).days.set(day);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param telescope the telescope, or null for every telescope
+     * @return false if the day was not blacked out
+     */
+    public boolean remove(String telescope, Date date) {
+        long day = toEpochDay(date);
+        lock.writeLock().lock();
+        try {
+            if (telescope == null) {
+                return allTelescopes.clear(day);
+            }
+            TelescopeDays t = byTelescope.get(key(telescope));
+            return t != null && t.days.clear(day);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Find the first day in [start, end] on which the telescope is unavailable.
+     *
+     * @return that day as an epoch day, or {@link DayBitmap#NONE} if the whole range is available
+     */
+    public long firstBlackout(String telescope, Date start, Date end) {
+        long from = toEpochDay(start);
+        long to = toEpochDay(end);
+        lock.readLock().lock();
+        try {
+            long first = allTelescopes.firstSetDay(from, to);
+            TelescopeDays t = telescope == null ? null : byTelescope.get(key(telescope));
+            if (t != null) {
+                // Only scan up to the blackout already found
+                long own = t.days.firstSetDay(from, first == DayBitmap.NONE ? to : first - 1);
+                if (own != DayBitmap.NONE) first = own;
+            }
+            return first;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param telescope the telescope, or null for the days blacked out for every telescope
+     * @return the blacked out days at the start of each day, ascending
+     */
+    public ArrayList<Date> getDates(String telescope) {
+        long[] days;
+        lock.readLock().lock();
+        try {
+            if (telescope == null) {
+                days = allTelescopes.days();
+            } else {
+                TelescopeDays t = byTelescope.get(key(telescope));
+                days = t == null ? new long[0] : t.days.days();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        ArrayList<Date> dates = new ArrayList<>(days.length);
+        for (long day : days) {
+            dates.add(toDate(day));
+        }
+        return dates;
+    }
+
+    /**
+     * @return the epoch days on which the telescope is unavailable, its own and those of every
+     *         telescope, ascending
+     */
+    public long[] getUnavailableDays(String telescope) {
+        DayBitmap union = new DayBitmap();
+        lock.readLock().lock();
+        try {
+            for (long day : allTelescopes.days()) union.set(day);
+            TelescopeDays t = telescope == null ? null : byTelescope.get(key(telescope));
+            if (t != null) {
+                for (long day : t.days.days()) union.set(day);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return union.days();
+    }
+
+    /**
+     * @return the telescopes that have days of their own blacked out
+     */
+    public List<String> getTelescopes() {
+        lock.readLock().lock();
+        try {
+            List<String> telescopes = new ArrayList<>();
+            for (TelescopeDays t : byTelescope.values()) {
+                if (t.days.cardinality() > 0) telescopes.add(t.telescope);
+            }
+            return telescopes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static String key(String telescope) {
+        return telescope.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,181 @@
+package edu.gemini;
+
+import java.util.Arrays;
+
+/**
+ * A sequence of telescope control commands compiled once into one opcode per command, such as
+ * {@code "START; UP x3; FOCUS; TAKE_PHOTO; STOP"}.
+ * <p>
+ * Commands are separated by semicolons or new lines and matched ignoring case; a command may be
+ * followed by a repeat count ({@code UP x3}, {@code UP *3} or {@code UP 3}). Status queries are not
+ * scripted, they do not change the telescope. A script is run by {@link VirtualTelescope#submit(CommandScript)}
+ * as one mailbox entry, so the whole sequence costs one hand-off to the telescope's actor.
+ * <p>
+ * {@link #compile} keeps recent scripts in a small table indexed by the hash of their text, so
+ * repeating a script skips parsing. Scripts are immutable.
+ */
+public final class CommandScript {
+
+    public static final int MAX_COMMANDS = 4096;
+    public static final int MAX_REPEAT = 360;
+
+    private static final VirtualTelescope.Command[] COMMANDS = VirtualTelescope.Command.values();
+
+    // Direct-mapped: a slot holds the last script whose text hashed to it
+    private static final int CACHE_SIZE = 256;
+    private static final CommandScript[] CACHE = new CommandScript[CACHE_SIZE];
+
+    private final String text;
+    private final byte[] opcodes;
+
+    private CommandScript(String text, byte[] opcodes) {
+        this.text = text;
+        this.opcodes = opcodes;
+    }
+
+    /**
+     * Compile a script, or take it from the cache.
+     *
+     * @throws IllegalArgumentException if the script is empty, too long, or has an unknown
+     *         command or invalid repeat count; the message names the offending part
+     */
+    public static CommandScript compile(String text) {
+        if (text == null) {
+            throw new IllegalArgumentException("Script is empty");
+        }
+        int slot = spread(text.hashCode()) & (CACHE_SIZE - 1);
+        CommandScript cached = CACHE[slot];
+        if (cached != null && cached.text.equals(text)) {
+            return cached;
+        }
+        // Final fields make the script safe to publish through the cache without locking
+        CommandScript script = new CommandScript(text, parse(text));
+        CACHE[slot] = script;
+        return script;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public int size() {
+        return opcodes.length;
+    }
+
+    public VirtualTelescope.Command get(int i) {
+        return COMMANDS[opcodes[i]];
+    }
+
+    byte opcode(int i) {
+        return opcodes[i];
+    }
+
+    /**
+     * @return how many times the script runs the command
+     */
+    public int count(VirtualTelescope.Command command) {
+        int n = 0;
+        for (byte op : opcodes) {
+            if (op == command.ordinal()) n++;
+        }
+        return n;
+    }
+
+    // --- Parsing ---
+
+    private static byte[] parse(String text) {
+        byte[] ops = new byte[16];
+        int n = 0;
+        int i = 0;
+        int length = text.length();
+        while (i < length) {
+            int end = i;
+            while (end < length && text.charAt(end) != ';' && text.charAt(end) != '\n') end++;
+            int from = skipSpace(text, i, end);
+            int to = trimEnd(text, from, end);
+            if (from < to) {
+                int nameEnd = from;
+                while (nameEnd < to && isNameChar(text.charAt(nameEnd))) nameEnd++;
+                VirtualTelescope.Command command = lookup(text, from, nameEnd);
+                if (command == null) {
+                    String name = text.substring(from, nameEnd);
+                    throw new IllegalArgumentException(isQuery(name)
+                            ? "Status queries cannot be scripted: " + name
+                            : "Unknown command: " + text.substring(from, to));
+                }
+                int repeat = repeatCount(text, skipSpace(text, nameEnd, to), to);
+                if (repeat < 1 || repeat > MAX_REPEAT) {
+                    throw new IllegalArgumentException("Invalid repeat count in: " + text.substring(from, to));
+                }
+                if (n + repeat > MAX_COMMANDS) {
+                    throw new IllegalArgumentException("Script is longer than " + MAX_COMMANDS + " commands");
+                }
+                if (n + repeat > ops.length) {
+                    ops = Arrays.copyOf(ops, Math.max(ops.length * 2, n + repeat));
+                }
+                Arrays.fill(ops, n, n + repeat, (byte) command.ordinal());
+                n += repeat;
+            }
+            i = end + 1;
+        }
+        if (n == 0) {
+            throw new IllegalArgumentException("Script is empty");
+        }
+        return Arrays.copyOf(ops, n);
+    }
+
+    private static VirtualTelescope.Command lookup(String text, int from, int to) {
+        for (VirtualTelescope.Command c : COMMANDS) {
+            String name = c.name();
+            if (name.length() == to - from && text.regionMatches(true, from, name, 0, name.length())) {
+                return c;
+            }
+        }
+        return null;
+    }
+
+    // "" -> 1, "x3" / "*3" / "3" -> 3, anything else -> -1
+    private static int repeatCount(String text, int from, int to) {
+        if (from == to) return 1;
+        char c = text.charAt(from);
+        if (c == 'x' || c == 'X' || c == '*') {
+            from = skipSpace(text, from + 1, to);
+        }
+        if (from == to) return -1;
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            char d = text.charAt(i);
+            if (d < '0' || d > '9' || count > MAX_REPEAT) return -1;
+            count = count * 10 + (d - '0');
+        }
+        return count;
+    }
+
+    private static boolean isQuery(String name) {
+        return name.equalsIgnoreCase("GetVersion") || name.equalsIgnoreCase("GetStatus") ||
+               name.equalsIgnoreCase("GetState") || name.equalsIgnoreCase("RunTest");
+    }
+
+    private static boolean isNameChar(char c) {
+        return c == '_' || c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z';
+    }
+
+    private static int skipSpace(String text, int from, int to) {
+        while (from < to && Character.isWhitespace(text.charAt(from))) from++;
+        return from;
+    }
+
+    private static int trimEnd(String text, int from, int to) {
+        while (to > from && Character.isWhitespace(text.charAt(to - 1))) to--;
+        return to;
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,111 @@
+package edu.gemini;
+
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Per-telescope interval index over the date ranges of scheduled science plans.
+ * Each telescope gets its own {@link PlanIntervalTree}, so a conflict check only
+ * touches the plans booked on the same telescope and runs in O(log n).
+ * <p>
+ * Every telescope lane is guarded by its own lock. OCS holds that lock across the
+ * validate-then-insert sequence of createSciencePlan, so creates on Hawaii and
+ * Chile never wait for each other.
+ */
+class DateConflictIndex {
+
+    private static final class Lane {
+        final ReentrantLock lock = new ReentrantLock();
+        final PlanIntervalTree tree = new PlanIntervalTree();
+    }
+
+    private final ConcurrentHashMap<String, Lane> lanes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Lane> laneOfPlan = new ConcurrentHashMap<>();
+
+    /**
+     * @return the lock guarding the given telescope's lane
+     */
+    public ReentrantLock lockFor(String telescope) {
+        return lane(telescope).lock;
+    }
+
+    public void add(SciencePlan sp) {
+        remove(sp.getPlanNo());
+        if (sp.getTelescope() == null || sp.getStartDate() == null || sp.getEndDate() == null) {
+            return;
+        }
+        Lane lane = lane(sp.getTelescope());
+        lane.lock.lock();
+        try {
+            lane.tree.insert(sp.getPlanNo(), sp.getStartDate().getTime(), sp.getEndDate().getTime());
+            laneOfPlan.put(sp.getPlanNo(), lane);
+        } finally {
+            lane.lock.unlock();
+        }
+    }
+
+    public boolean remove(int planNo) {
+        Lane lane = laneOfPlan.remove(planNo);
+        if (lane == null) return false;
+        lane.lock.lock();
+        try {
+            return lane.tree.remove(planNo);
+        } finally {
+            lane.lock.unlock();
+        }
+    }
+
+    public boolean contains(int planNo) {
+        return laneOfPlan.containsKey(planNo);
+    }
+
+    public void clear() {
+        for (Lane lane : lanes.values()) {
+            lane.lock.lock();
+            try {
+                lane.tree.clear();
+            } finally {
+                lane.lock.unlock();
+            }
+        }
+        laneOfPlan.clear();
+    }
+
+    /**
+     * @return the number of a plan on the telescope overlapping [start, end], or -1 if none
+     */
+    public int findConflict(String telescope, Date start, Date end) {
+        Lane lane = lanes.get(key(telescope));
+        if (lane == null) return -1;
+        lane.lock.lock();
+        try {
+            return lane.tree.findAnyOverlap(start.getTime(), end.getTime());
+        } finally {
+            lane.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the numbers of all plans on the telescope overlapping [start, end]
+     */
+    public int[] findConflicts(String telescope, Date start, Date end) {
+        Lane lane = lanes.get(key(telescope));
+        if (lane == null) return new int[0];
+        lane.lock.lock();
+        try {
+            return lane.tree.findOverlaps(start.getTime(), end.getTime());
+        } finally {
+            lane.lock.unlock();
+        }
+    }
+
+    private Lane lane(String telescope) {
+        return lanes.computeIfAbsent(key(telescope), k -> new Lane());
+    }
+
+    static String key(String telescope) {
+        return telescope.toLowerCase(Locale.ROOT);
+    }
+}
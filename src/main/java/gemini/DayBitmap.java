@@ -0,0 +1,126 @@
+package edu.gemini;
+
+import java.util.Arrays;
+
+/**
+ * Set of days stored as a bitmap over epoch days, one bit per day and 64 days per word.
+ * Membership tests are O(1), and asking for the first set day in a range scans whole
+ * words at a time, so a year-long range is answered in about six word reads.
+ * <p>
+ * The bitmap grows in either direction as days are added. Not thread-safe.
+ */
+final class DayBitmap {
+
+    /** Returned by {@link #firstSetDay} when no day in the range is set. */
+    static final long NONE = Long.MIN_VALUE;
+
+    private long[] words = new long[0];
+    private long firstWord;     // word index of words[0]
+    private int cardinality;
+
+    /**
+     * @return true if the day was not set before
+     */
+    public boolean set(long day) {
+        int i = ensure(day >> 6);
+        long bit = 1L << (day & 63);
+        if ((words[i] & bit) != 0) return false;
+        words[i] |= bit;
+        cardinality++;
+        return true;
+    }
+
+    /**
+     * @return true if the day was set before
+     */
+    public boolean clear(long day) {
+        long w = (day >> 6) - firstWord;
+        if (w < 0 || w >= words.length) return false;
+        long bit = 1L << (day & 63);
+        if ((words[(int) w] & bit) == 0) return false;
+        words[(int) w] &= ~bit;
+        cardinality--;
+        return true;
+    }
+
+    public boolean get(long day) {
+        long w = (day >> 6) - firstWord;
+        return w >= 0 && w < words.length && (words[(int) w] & (1L << (day & 63))) != 0;
+    }
+
+    /**
+     * @return the first set day in [from, to], or {@link #NONE}
+     */
+    public long firstSetDay(long from, long to) {
+        if (from > to || cardinality == 0) return NONE;
+        long lastWord = firstWord + words.length - 1;
+        long fromWord = from >> 6;
+        long toWord = to >> 6;
+        if (toWord < firstWord || fromWord > lastWord) return NONE;
+
+        long w = Math.max(fromWord, firstWord);
+        long end = Math.min(toWord, lastWord);
+        for (; w <= end; w++) {
+            long bits = words[(int) (w - firstWord)];
+            if (w == fromWord) bits &= -1L << (from & 63);
+            if (w == toWord) bits &= -1L >>> (63 - (to & 63));
+            if (bits != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(bits);
+            }
+        }
+        return NONE;
+    }
+
+    public boolean intersects(long from, long to) {
+        return firstSetDay(from, to) != NONE;
+    }
+
+    public int cardinality() {
+        return cardinality;
+    }
+
+    /**
+     * @return every set day, ascending
+     */
+    public long[] days() {
+        long[] days = new long[cardinality];
+        int n = 0;
+        for (int i = 0; i < words.length; i++) {
+            long bits = words[i];
+            while (bits != 0) {
+                days[n++] = ((firstWord + i) << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+            }
+        }
+        return days;
+    }
+
+    public void clear() {
+        words = new long[0];
+        firstWord = 0;
+        cardinality = 0;
+    }
+
+    // Grow the word array to cover the given word index and return its position in the array
+    private int ensure(long wordIndex) {
+        if (words.length == 0) {
+            words = new long[4];
+            firstWord = wordIndex;
+            return 0;
+        }
+        long lastWord = firstWord + words.length - 1;
+        if (wordIndex < firstWord) {
+            long needed = lastWord - wordIndex + 1;
+            int size = (int) Math.max(needed, (long) words.length * 2);
+            long[] grown = new long[size];
+            int shift = size - words.length;
+            System.arraycopy(words, 0, grown, shift, words.length);
+            words = grown;
+            firstWord -= shift;
+        } else if (wordIndex > lastWord) {
+            long needed = wordIndex - firstWord + 1;
+            words = Arrays.copyOf(words, (int) Math.max(needed, (long) words.length * 2));
+        }
+        return (int) (wordIndex - firstWord);
+    }
+}
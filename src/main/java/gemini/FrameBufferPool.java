@@ -0,0 +1,87 @@
+package edu.gemini;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of direct byte buffers for image frames.
+ * <p>
+ * Frames of one format all need the same number of bytes, so buffers are pooled by exact
+ * capacity. Released buffers are kept up to a total of {@code maxPooledBytes}; beyond that
+ * they are left to the garbage collector. Direct buffers are slow to allocate and their
+ * memory is only returned when a buffer is collected, so reusing them keeps a night of
+ * exposures from churning native memory or the heap.
+ * <p>
+ * Safe to use from any thread.
+ */
+public final class FrameBufferPool {
+
+    private static final FrameBufferPool DEFAULT = new FrameBufferPool(512L << 20);
+
+    private final long maxPooledBytes;
+    private final ConcurrentHashMap<Integer, ConcurrentLinkedDeque<ByteBuffer>> free = new ConcurrentHashMap<>();
+    private final AtomicLong pooledBytes = new AtomicLong();
+    private final AtomicLong allocated = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+
+    public FrameBufferPool(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+    }
+
+    public static FrameBufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return a direct buffer of exactly the given capacity, position 0 and limit at capacity;
+     *         its contents are undefined
+     */
+    public ByteBuffer acquire(int capacity) {
+        ConcurrentLinkedDeque<ByteBuffer> buffers = free.get(capacity);
+        ByteBuffer buffer = buffers == null ? null : buffers.pollFirst();
+        if (buffer != null) {
+            pooledBytes.addAndGet(-capacity);
+            reused.incrementAndGet();
+            buffer.clear();
+            return buffer;
+        }
+        allocated.incrementAndGet();
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * Return a buffer for reuse. The caller must not use it afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) return;
+        int capacity = buffer.capacity();
+        if (pooledBytes.addAndGet(capacity) > maxPooledBytes) {
+            pooledBytes.addAndGet(-capacity);
+            return;
+        }
+        free.computeIfAbsent(capacity, k -> new ConcurrentLinkedDeque<>()).offerFirst(buffer);
+    }
+
+    /**
+     * @return the number of bytes held for reuse
+     */
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    /**
+     * @return the number of buffers allocated because none of the size was free
+     */
+    public long getAllocatedCount() {
+        return allocated.get();
+    }
+
+    /**
+     * @return the number of acquisitions served from the pool
+     */
+    public long getReusedCount() {
+        return reused.get();
+    }
+}
@@ -0,0 +1,368 @@
+package edu.gemini;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import edu.gemini.model.AbstractAstronomicalData;
+import edu.gemini.model.StarSystem;
+
+/**
+ * Binary container for exporting astronomical data with its frames, laid out like a FITS file:
+ * fixed-size header blocks followed by pixel blocks, everything aligned to {@link #BLOCK_SIZE}.
+ * <pre>
+ *     [file header block]
+ *     [frame header block][pixel blocks] ...    one per frame
+ *     [index: long offset of each frame header]
+ * </pre>
+ * The file header holds the frame count and the offset of the index; a frame header holds the
+ * plan number, telescope, target, pointing, format, the ten adjustments and the file type,
+ * quality, colour type, name and description as fixed-width fields. Pixels are stored as in
+ * {@link SkyFrame}, unsigned and big-endian, so a reader maps them and uses them as they are.
+ * <p>
+ * {@link Writer} streams frames to the file one at a time and writes the index on close.
+ * {@link Reader} maps the file in windows of at most 1 GB, on demand, so opening a file of any
+ * size only reads the header and the index, and reading a frame touches only its own blocks.
+ * A file whose writer did not close has no index; the reader then walks the frame headers.
+ */
+public final class FrameFile {
+
+    public static final int BLOCK_SIZE = 4096;
+    public static final String SUFFIX = ".gfr";
+
+    private static final long MAGIC = 0x47454D4652414D45L; // "GEMFRAME"
+    private static final int FRAME_MAGIC = 0x46524D31;    // "FRM1"
+    private static final int VERSION = 1;
+
+    // File header
+    private static final int FILE_FRAME_COUNT = 16;
+    private static final int FILE_INDEX_OFFSET = 24;
+
+    // Frame header fields
+    private static final int PLAN_NO = 4;
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 12;
+    private static final int BIT_DEPTH = 16;
+    private static final int SITE = 17;
+    private static final int TARGET = 18;
+    private static final int AZIMUTH = 20;
+    private static final int ALTITUDE = 24;
+    private static final int FOCUSED = 28;
+    private static final int TAKEN_AT = 32;
+    private static final int PIXEL_BYTES = 40;
+    private static final int ADJUSTMENTS = 48;
+    private static final int FILE_TYPE = 128;
+    private static final int FILE_QUALITY = 144;
+    private static final int COLOR_TYPE = 160;
+    private static final int FILE_NAME = 176;
+    private static final int DESCRIPTION = 432;
+    private static final int DESCRIPTION_END = 944;
+
+    // A frame and its header always fit in one window
+    private static final long WINDOW_SIZE = 1L << 30;
+    private static final long MAX_RECORD = BLOCK_SIZE + (256L << 20);
+    private static final long WINDOW_STRIDE = WINDOW_SIZE - MAX_RECORD;
+
+    private static final TelescopeSite[] SITES = TelescopeSite.values();
+    private static final StarSystem.CONSTELLATIONS[] CONSTELLATIONS = StarSystem.CONSTELLATIONS.values();
+
+    private FrameFile() {
+    }
+
+    private static long align(long n) {
+        return (n + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+    }
+
+    /**
+     * Writes frames to a new file, one after the other. Not safe for concurrent use.
+     */
+    public static final class Writer implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer header = ByteBuffer.allocate(BLOCK_SIZE);
+        private final ByteBuffer padding = ByteBuffer.allocate(BLOCK_SIZE);
+        private long[] offsets = new long[64];
+        private int count;
+        private long position = BLOCK_SIZE;
+        private boolean closed;
+
+        /**
+         * Create the file, replacing any file at the path.
+         */
+        public Writer(Path path) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            writeFileHeader(0, 0);
+        }
+
+        /**
+         * Append a frame with the data's adjustments and names.
+         *
+         * @throws IllegalArgumentException if the data has no frame
+         */
+        public void write(int planNo, AstronomicalData data) throws IOException {
+            SkyFrame frame = data.getFrame();
+            if (frame == null) {
+                throw new IllegalArgumentException("No frame in " + data.getFileName());
+            }
+            write(planNo, data, frame, data.getFileName(), data.getDescription());
+        }
+
+        /**
+         * Append a frame with the given adjustments and names.
+         */
+        public void write(int planNo, AbstractAstronomicalData data, SkyFrame frame, String fileName,
+                          String description) throws IOException {
+            if (closed) {
+                throw new IOException("Frame file is closed");
+            }
+            int pixelBytes = frame.getFormat().getByteSize();
+            header.clear();
+            Arrays.fill(header.array(), (byte) 0);
+            header.putInt(0, FRAME_MAGIC);
+            header.putInt(PLAN_NO, planNo);
+            header.putInt(WIDTH, frame.getWidth());
+            header.putInt(HEIGHT, frame.getHeight());
+            header.put(BIT_DEPTH, (byte) frame.getBitDepth());
+            header.put(SITE, (byte) frame.getSite().ordinal());
+            header.putShort(TARGET, (short) (frame.getTarget() == null ? -1 : frame.getTarget().ordinal()));
+            header.putInt(AZIMUTH, frame.getAzimuth());
+            header.putInt(ALTITUDE, frame.getAltitude());
+            header.put(FOCUSED, (byte) (frame.isFocused() ? 1 : 0));
+            header.putLong(TAKEN_AT, frame.getTakenAt());
+            header.putInt(PIXEL_BYTES, pixelBytes);
+            double[] adjustments = {
+                    data.getContrast(), data.getBrightness(), data.getSaturation(), data.getHighlights(),
+                    data.getExposure(), data.getShadows(), data.getWhites(), data.getBlacks(),
+                    data.getLuminance(), data.getHue()
+            };
+            for (int i = 0; i < adjustments.length; i++) {
+                header.putDouble(ADJUSTMENTS + i * 8, adjustments[i]);
+            }
+            putString(header, FILE_TYPE, FILE_QUALITY, data.getFileType());
+            putString(header, FILE_QUALITY, COLOR_TYPE, data.getFileQuality());
+            putString(header, COLOR_TYPE, FILE_NAME, data.getColorType());
+            putString(header, FILE_NAME, DESCRIPTION, fileName);
+            putString(header, DESCRIPTION, DESCRIPTION_END, description);
+
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count++] = position;
+            writeFully(header, position);
+            writeFully(frame.getPixels(), position + BLOCK_SIZE);
+            long end = position + BLOCK_SIZE + pixelBytes;
+            long aligned = align(end);
+            if (aligned > end) {
+                padding.clear().limit((int) (aligned - end));
+                writeFully(padding, end);
+            }
+            position = aligned;
+        }
+
+        public int getFrameCount() {
+            return count;
+        }
+
+        /**
+         * Write the index and the frame count, and sync the file.
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                ByteBuffer index = ByteBuffer.allocate(count * 8);
+                for (int i = 0; i < count; i++) {
+                    index.putLong(offsets[i]);
+                }
+                index.flip();
+                writeFully(index, position);
+                writeFileHeader(count, position);
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        }
+
+        private void writeFileHeader(long frameCount, long indexOffset) throws IOException {
+            ByteBuffer h = ByteBuffer.allocate(BLOCK_SIZE);
+            h.putLong(0, MAGIC);
+            h.putInt(8, VERSION);
+            h.putInt(12, BLOCK_SIZE);
+            h.putLong(FILE_FRAME_COUNT, frameCount);
+            h.putLong(FILE_INDEX_OFFSET, indexOffset);
+            writeFully(h, 0);
+        }
+
+        private void writeFully(ByteBuffer buffer, long at) throws IOException {
+            while (buffer.hasRemaining()) {
+                at += channel.write(buffer, at);
+            }
+        }
+
+        private static void putString(ByteBuffer header, int from, int to, String s) {
+            if (s == null) return;
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            // Cut to the field, leaving room for the terminating zero
+            int n = Math.min(b.length, to - from - 1);
+            header.put(from, b, 0, n);
+        }
+    }
+
+    /**
+     * Random access to the frames of a file. Frames read from it are read-only views of the file
+     * and stay valid after the reader is closed. Safe to use from any thread.
+     */
+    public static final class Reader implements Closeable {
+        private final FileChannel channel;
+        private final long size;
+        private final long[] offsets;
+        private final MappedByteBuffer[] windows;
+
+        /**
+         * Open a file, reading its header and index.
+         *
+         * @throws IOException if the file is not a frame file
+         */
+        public Reader(Path path) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                this.size = channel.size();
+                this.windows = new MappedByteBuffer[(int) (size / WINDOW_STRIDE) + 1];
+                ByteBuffer h = ByteBuffer.allocate(BLOCK_SIZE);
+                if (size < BLOCK_SIZE || channel.read(h, 0) < BLOCK_SIZE || h.getLong(0) != MAGIC) {
+                    throw new IOException("Not a frame file: " + path);
+                }
+                if (h.getInt(8) != VERSION || h.getInt(12) != BLOCK_SIZE) {
+                    throw new IOException("Unsupported frame file version " + h.getInt(8) + ": " + path);
+                }
+                long count = h.getLong(FILE_FRAME_COUNT);
+                long indexOffset = h.getLong(FILE_INDEX_OFFSET);
+                this.offsets = indexOffset > 0 ? readIndex(count, indexOffset) : scan();
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        public int getFrameCount() {
+            return offsets.length;
+        }
+
+        public int getPlanNo(int index) throws IOException {
+            return header(index).getInt(PLAN_NO);
+        }
+
+        /**
+         * @return the index-th frame of the file with its adjustments and names; the frame reads the
+         *         mapped file directly
+         * @throws IndexOutOfBoundsException if there is no such frame
+         */
+        public AstronomicalData read(int index) throws IOException {
+            ByteBuffer h = header(index);
+            AstronomicalData data = new AstronomicalData(
+                    getString(h, FILE_TYPE, FILE_QUALITY), getString(h, FILE_QUALITY, COLOR_TYPE),
+                    getString(h, COLOR_TYPE, FILE_NAME),
+                    h.getDouble(ADJUSTMENTS), h.getDouble(ADJUSTMENTS + 8), h.getDouble(ADJUSTMENTS + 16),
+                    h.getDouble(ADJUSTMENTS + 24), h.getDouble(ADJUSTMENTS + 32), h.getDouble(ADJUSTMENTS + 40),
+                    h.getDouble(ADJUSTMENTS + 48), h.getDouble(ADJUSTMENTS + 56), h.getDouble(ADJUSTMENTS + 64),
+                    h.getDouble(ADJUSTMENTS + 72),
+                    getString(h, FILE_NAME, DESCRIPTION), getString(h, DESCRIPTION, DESCRIPTION_END));
+            SkyFrame.Format format;
+            try {
+                format = new SkyFrame.Format(h.getInt(WIDTH), h.getInt(HEIGHT), h.get(BIT_DEPTH));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Frame " + index + " is corrupt: " + e.getMessage());
+            }
+            int target = h.getShort(TARGET);
+            long at = offsets[index] + BLOCK_SIZE;
+            MappedByteBuffer window = window(offsets[index]);
+            long windowStart = offsets[index] / WINDOW_STRIDE * WINDOW_STRIDE;
+            ByteBuffer pixels = window.slice((int) (at - windowStart), format.getByteSize()).asReadOnlyBuffer();
+            data.setFrame(new SkyFrame(format, pixels, null, SITES[h.get(SITE)],
+                    target < 0 ? null : CONSTELLATIONS[target], h.getInt(AZIMUTH), h.getInt(ALTITUDE),
+                    h.get(FOCUSED) != 0, h.getLong(TAKEN_AT)));
+            return data;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        // The header block of a frame, as a view of its window
+        private ByteBuffer header(int index) throws IOException {
+            if (index < 0 || index >= offsets.length) {
+                throw new IndexOutOfBoundsException("Frame " + index + " of " + offsets.length);
+            }
+            long offset = offsets[index];
+            long windowStart = offset / WINDOW_STRIDE * WINDOW_STRIDE;
+            return window(offset).slice((int) (offset - windowStart), BLOCK_SIZE);
+        }
+
+        // The window holding the record that starts at an offset, mapped on first use
+        private MappedByteBuffer window(long offset) throws IOException {
+            int w = (int) (offset / WINDOW_STRIDE);
+            synchronized (windows) {
+                if (windows[w] == null) {
+                    long start = (long) w * WINDOW_STRIDE;
+                    windows[w] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, size - start));
+                }
+                return windows[w];
+            }
+        }
+
+        private long[] readIndex(long count, long indexOffset) throws IOException {
+            if (count < 0 || count > Integer.MAX_VALUE / 8 || indexOffset + count * 8 > size) {
+                throw new IOException("Frame file index is corrupt");
+            }
+            ByteBuffer index = ByteBuffer.allocate((int) count * 8);
+            while (index.hasRemaining()) {
+                if (channel.read(index, indexOffset + index.position()) < 0) {
+                    throw new IOException("Frame file index is truncated");
+                }
+            }
+            index.flip();
+            long[] result = new long[(int) count];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = index.getLong();
+            }
+            return result;
+        }
+
+        // Find the complete frames of a file that was not closed
+        private long[] scan() throws IOException {
+            long[] found = new long[64];
+            int n = 0;
+            ByteBuffer h = ByteBuffer.allocate(PIXEL_BYTES + 4);
+            long at = BLOCK_SIZE;
+            while (at + BLOCK_SIZE <= size) {
+                h.clear();
+                channel.read(h, at);
+                int pixelBytes = h.getInt(PIXEL_BYTES);
+                if (h.getInt(0) != FRAME_MAGIC || pixelBytes < 0) break;
+                long end = align(at + BLOCK_SIZE + pixelBytes);
+                if (end > size) break;
+                if (n == found.length) found = Arrays.copyOf(found, n * 2);
+                found[n++] = at;
+                at = end;
+            }
+            return Arrays.copyOf(found, n);
+        }
+
+        private static String getString(ByteBuffer header, int from, int to) {
+            int end = from;
+            while (end < to && header.get(end) != 0) end++;
+            if (end == from) return null;
+            byte[] b = new byte[end - from];
+            header.get(from, b);
+            return new String(b, StandardCharsets.UTF_8);
+        }
+    }
+}
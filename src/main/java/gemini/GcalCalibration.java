@@ -0,0 +1,404 @@
+package edu.gemini;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import edu.gemini.model.AbstractObservingProgramConfigs.CalibrationUnit;
+
+/**
+ * Wavelength calibration with the GCAL arc lamps.
+ * <p>
+ * An arc spectrum is a row of {@link #PIXELS} counts from the spectrograph with a lamp in the
+ * beam. {@link #calibrate(CalibrationUnit, double[])} finds the emission peaks, matches them to
+ * the lamp's known lines and fits a polynomial giving the wavelength of every pixel:
+ * <ol>
+ *     <li>Peaks are local maxima well above the background, located to a fraction of a pixel
+ *     with a parabola through the top three pixels.</li>
+ *     <li>The spectrograph's nominal dispersion, shifted by the offset that lines up the most
+ *     peaks with lines, gives a first guess. The nearest line to a peak is found by binary search
+ *     in the lamp's sorted line list.</li>
+ *     <li>Matching and least-squares fitting alternate with a shrinking tolerance, then matches
+ *     more than three RMS off are dropped and the fit is repeated.</li>
+ * </ol>
+ * Everything runs on primitive arrays. {@link #simulate} produces arc spectra with the flexure
+ * of a real instrument, a small random shift, stretch and curvature of the dispersion.
+ */
+public final class GcalCalibration {
+
+    public static final int PIXELS = 2048;
+    // Nominal dispersion: linear from 350 nm, 0.33 nm per pixel
+    public static final double NOMINAL_START_NM = 350;
+    public static final double NOMINAL_DISPERSION_NM = 0.33;
+    public static final int DEGREE = 3;
+
+    // Flexure searched for, and matching tolerances from the first guess to the final fit
+    private static final double MAX_SHIFT_NM = 2.0;
+    private static final double SHIFT_STEP_NM = 0.05;
+    private static final double[] TOLERANCES_NM = { 0.6, 0.3, 0.15, 0.08 };
+    private static final double PEAK_THRESHOLD_SIGMA = 8;
+    private static final double LINE_SIGMA_PX = 1.2;
+
+    // Wavelengths in air, nm
+    private static final Map<CalibrationUnit, double[]> LINES = new EnumMap<>(CalibrationUnit.class);
+
+    static {
+        LINES.put(CalibrationUnit.Argon, sorted(
+                696.543, 706.722, 714.704, 727.294, 738.398, 750.387, 751.465, 763.511, 772.376, 794.818,
+                800.616, 801.479, 810.369, 811.531, 826.452, 840.821, 842.465, 852.144, 866.794, 912.297,
+                922.450, 965.779));
+        LINES.put(CalibrationUnit.Xenon, sorted(
+                450.098, 462.427, 467.123, 473.415, 480.702, 492.315, 764.202, 820.634, 823.163, 826.652,
+                828.012, 834.682, 840.919, 881.941, 895.225, 904.545, 916.265, 979.970, 992.319));
+        LINES.put(CalibrationUnit.ThAr, sorted(
+                434.806, 442.600, 458.990, 476.487, 487.986, 501.716, 516.229, 549.587, 560.387, 573.952,
+                603.213, 617.017, 641.631, 667.728, 696.543, 706.722, 738.398, 763.511, 811.531, 852.144,
+                912.297));
+        LINES.put(CalibrationUnit.CuAr, sorted(
+                510.554, 515.324, 521.820, 570.024, 578.213, 696.543, 706.722, 750.387, 763.511, 811.531,
+                842.465, 912.297, 965.779));
+    }
+
+    /**
+     * A fitted wavelength solution. Immutable.
+     */
+    public static final class Solution {
+        private final CalibrationUnit lamp;
+        // Coefficients of the polynomial in t = 2 * pixel / (PIXELS - 1) - 1, lowest order first
+        private final double[] coefficients;
+        private final int matchedLines;
+        private final double rmsNm;
+
+        Solution(CalibrationUnit lamp, double[] coefficients, int matchedLines, double rmsNm) {
+            this.lamp = lamp;
+            this.coefficients = coefficients;
+            this.matchedLines = matchedLines;
+            this.rmsNm = rmsNm;
+        }
+
+        public CalibrationUnit getLamp() {
+            return lamp;
+        }
+
+        /**
+         * @return the wavelength at a pixel position, in nm; beyond the lamp's first and last
+         *         lines this is an extrapolation
+         */
+        public double wavelength(double pixel) {
+            return evaluate(coefficients, normalize(pixel));
+        }
+
+        public int getDegree() {
+            return coefficients.length - 1;
+        }
+
+        /**
+         * @return the polynomial coefficients, lowest order first
+         */
+        double[] getCoefficients() {
+            return coefficients.clone();
+        }
+
+        public int getMatchedLines() {
+            return matchedLines;
+        }
+
+        /**
+         * @return the RMS of the fitted lines' residuals, in nm
+         */
+        public double getRmsNm() {
+            return rmsNm;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %.2f-%.2f nm, %d lines, RMS %.4f nm", lamp, wavelength(0),
+                    wavelength(PIXELS - 1), matchedLines, rmsNm);
+        }
+    }
+
+    private GcalCalibration() {
+    }
+
+    /**
+     * @return the lamp's lines in nm, ascending
+     */
+    public static double[] getLines(CalibrationUnit lamp) {
+        return LINES.get(lamp).clone();
+    }
+
+    // --- Simulation ---
+
+    /**
+     * Simulate an arc spectrum of a lamp. The seed picks the flexure and the noise.
+     */
+    public static double[] simulate(CalibrationUnit lamp, long seed) {
+        Random random = new Random(seed);
+        double mid = NOMINAL_START_NM + NOMINAL_DISPERSION_NM * (PIXELS - 1) / 2;
+        double half = NOMINAL_DISPERSION_NM * (PIXELS - 1) / 2;
+        double[] truth = {
+                mid + (random.nextDouble() * 2 - 1) * 1.5,
+                half * (1 + (random.nextDouble() * 2 - 1) * 0.001),
+                (random.nextDouble() * 2 - 1) * 0.2
+        };
+        double[] spectrum = new double[PIXELS];
+        Arrays.fill(spectrum, 100);
+        for (double line : LINES.get(lamp)) {
+            double center = pixelOf(truth, line);
+            if (center < -5 || center > PIXELS + 5) continue;
+            // Relative strength fixed per line
+            double peak = 2000 + 8000 * ((Double.hashCode(line) & 0xFFFF) / 65535.0);
+            int from = Math.max(0, (int) (center - 5 * LINE_SIGMA_PX));
+            int to = Math.min(PIXELS - 1, (int) (center + 5 * LINE_SIGMA_PX) + 1);
+            for (int x = from; x <= to; x++) {
+                double d = (x - center) / LINE_SIGMA_PX;
+                spectrum[x] += peak * Math.exp(-0.5 * d * d);
+            }
+        }
+        for (int x = 0; x < PIXELS; x++) {
+            spectrum[x] += random.nextGaussian() * Math.sqrt(spectrum[x]);
+        }
+        return spectrum;
+    }
+
+    // Pixel where a polynomial solution reaches a wavelength, by Newton's method from the linear guess
+    private static double pixelOf(double[] coefficients, double wavelength) {
+        double t = (wavelength - coefficients[0]) / coefficients[1];
+        for (int i = 0; i < 20; i++) {
+            double slope = 0;
+            for (int k = coefficients.length - 1; k >= 1; k--) {
+                slope = slope * t + k * coefficients[k];
+            }
+            double step = (evaluate(coefficients, t) - wavelength) / slope;
+            t -= step;
+            if (Math.abs(step) < 1e-9) break;
+        }
+        return (t + 1) * (PIXELS - 1) / 2;
+    }
+
+    // --- Calibration ---
+
+    /**
+     * Calibrate several arc spectra of a lamp in parallel.
+     *
+     * @return a solution per spectrum, null where calibration failed
+     */
+    public static Solution[] calibrate(CalibrationUnit lamp, List<double[]> spectra) {
+        Solution[] solutions = new Solution[spectra.size()];
+        IntStream.range(0, solutions.length).parallel().forEach(i -> solutions[i] = calibrate(lamp, spectra.get(i)));
+        return solutions;
+    }
+
+    /**
+     * Fit the wavelength solution of an arc spectrum of {@link #PIXELS} pixels.
+     *
+     * @return the solution, or null if too few lines could be matched
+     */
+    public static Solution calibrate(CalibrationUnit lamp, double[] spectrum) {
+        double[] lines = LINES.get(lamp);
+        double[] peaks = findPeaks(spectrum);
+        int minLines = DEGREE + 3;
+        if (peaks.length < minLines) return null;
+
+        double[] solution = { NOMINAL_START_NM + NOMINAL_DISPERSION_NM * (PIXELS - 1) / 2
+                + bestShift(lines, peaks), NOMINAL_DISPERSION_NM * (PIXELS - 1) / 2 };
+        double[] t = new double[peaks.length];
+        for (int i = 0; i < peaks.length; i++) {
+            t[i] = normalize(peaks[i]);
+        }
+        double[] x = new double[peaks.length];
+        double[] y = new double[peaks.length];
+        int n = 0;
+        for (double tolerance : TOLERANCES_NM) {
+            n = match(lines, t, solution, tolerance, x, y);
+            if (n < minLines) return null;
+            solution = fit(x, y, n, Math.min(DEGREE, n - 3));
+        }
+        // Drop outliers and refit
+        double rms = rms(solution, x, y, n);
+        int kept = 0;
+        for (int i = 0; i < n; i++) {
+            if (Math.abs(evaluate(solution, x[i]) - y[i]) <= 3 * rms) {
+                x[kept] = x[i];
+                y[kept++] = y[i];
+            }
+        }
+        if (kept < minLines) return null;
+        if (kept < n) {
+            solution = fit(x, y, kept, Math.min(DEGREE, kept - 3));
+            rms = rms(solution, x, y, kept);
+        }
+        return new Solution(lamp, solution, kept, rms);
+    }
+
+    /**
+     * @return the sub-pixel positions of the emission peaks, ascending
+     */
+    static double[] findPeaks(double[] spectrum) {
+        double[] sorted = spectrum.clone();
+        Arrays.sort(sorted);
+        double median = sorted[sorted.length / 2];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = Math.abs(spectrum[i] - median);
+        }
+        Arrays.sort(sorted);
+        // Median absolute deviation, scaled to a standard deviation
+        double sigma = Math.max(1, 1.4826 * sorted[sorted.length / 2]);
+        double threshold = median + PEAK_THRESHOLD_SIGMA * sigma;
+
+        double[] peaks = new double[64];
+        int n = 0;
+        for (int i = 1; i < spectrum.length - 1; i++) {
+            double s = spectrum[i];
+            if (s > threshold && s > spectrum[i - 1] && s >= spectrum[i + 1]) {
+                double curvature = spectrum[i - 1] - 2 * s + spectrum[i + 1];
+                double offset = curvature < 0 ? 0.5 * (spectrum[i - 1] - spectrum[i + 1]) / curvature : 0;
+                if (n == peaks.length) peaks = Arrays.copyOf(peaks, n * 2);
+                peaks[n++] = i + offset;
+            }
+        }
+        return Arrays.copyOf(peaks, n);
+    }
+
+    /**
+     * @return the index of the line nearest to a wavelength; lines must be ascending
+     */
+    static int nearestLine(double[] lines, double wavelength) {
+        int i = Arrays.binarySearch(lines, wavelength);
+        if (i >= 0) return i;
+        int above = -i - 1;
+        if (above == 0) return 0;
+        if (above == lines.length) return lines.length - 1;
+        return wavelength - lines[above - 1] <= lines[above] - wavelength ? above - 1 : above;
+    }
+
+    // The flexure of the nominal solution that lines up the most peaks with lines
+    private static double bestShift(double[] lines, double[] peaks) {
+        double best = 0;
+        int bestVotes = -1;
+        int steps = (int) Math.round(MAX_SHIFT_NM / SHIFT_STEP_NM);
+        for (int s = -steps; s <= steps; s++) {
+            double shift = s * SHIFT_STEP_NM;
+            int votes = 0;
+            for (double peak : peaks) {
+                double w = NOMINAL_START_NM + NOMINAL_DISPERSION_NM * peak + shift;
+                if (Math.abs(lines[nearestLine(lines, w)] - w) < TOLERANCES_NM[0]) votes++;
+            }
+            // Ties go to the smaller shift
+            if (votes > bestVotes || votes == bestVotes && Math.abs(shift) < Math.abs(best)) {
+                best = shift;
+                bestVotes = votes;
+            }
+        }
+        return best;
+    }
+
+    // Pair peaks with their nearest line within the tolerance, each line with its closest peak only;
+    // fills x with the peaks' t and y with the lines' wavelengths and returns how many
+    private static int match(double[] lines, double[] t, double[] solution, double tolerance, double[] x, double[] y) {
+        int[] peakOfLine = new int[lines.length];
+        double[] distance = new double[lines.length];
+        Arrays.fill(peakOfLine, -1);
+        for (int i = 0; i < t.length; i++) {
+            double w = evaluate(solution, t[i]);
+            int line = nearestLine(lines, w);
+            double d = Math.abs(lines[line] - w);
+            if (d < tolerance && (peakOfLine[line] < 0 || d < distance[line])) {
+                peakOfLine[line] = i;
+                distance[line] = d;
+            }
+        }
+        int n = 0;
+        for (int line = 0; line < lines.length; line++) {
+            if (peakOfLine[line] >= 0) {
+                x[n] = t[peakOfLine[line]];
+                y[n++] = lines[line];
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Least-squares polynomial through the first n points, by the normal equations.
+     *
+     * @return the coefficients, lowest order first
+     */
+    static double[] fit(double[] x, double[] y, int n, int degree) {
+        int m = degree + 1;
+        // Augmented normal matrix [A^T A | A^T y], row by row
+        double[] a = new double[m * (m + 1)];
+        double[] powers = new double[2 * m - 1];
+        for (int i = 0; i < n; i++) {
+            double p = 1;
+            for (int k = 0; k < powers.length; k++) {
+                powers[k] = p;
+                p *= x[i];
+            }
+            for (int r = 0; r < m; r++) {
+                for (int c = 0; c < m; c++) {
+                    a[r * (m + 1) + c] += powers[r + c];
+                }
+                a[r * (m + 1) + m] += powers[r] * y[i];
+            }
+        }
+        // Gaussian elimination with partial pivoting
+        for (int col = 0; col < m; col++) {
+            int pivot = col;
+            for (int r = col + 1; r < m; r++) {
+                if (Math.abs(a[r * (m + 1) + col]) > Math.abs(a[pivot * (m + 1) + col])) pivot = r;
+            }
+            if (pivot != col) {
+                for (int c = 0; c <= m; c++) {
+                    double tmp = a[col * (m + 1) + c];
+                    a[col * (m + 1) + c] = a[pivot * (m + 1) + c];
+                    a[pivot * (m + 1) + c] = tmp;
+                }
+            }
+            double d = a[col * (m + 1) + col];
+            for (int r = col + 1; r < m; r++) {
+                double f = a[r * (m + 1) + col] / d;
+                for (int c = col; c <= m; c++) {
+                    a[r * (m + 1) + c] -= f * a[col * (m + 1) + c];
+                }
+            }
+        }
+        double[] coefficients = new double[m];
+        for (int r = m - 1; r >= 0; r--) {
+            double s = a[r * (m + 1) + m];
+            for (int c = r + 1; c < m; c++) {
+                s -= a[r * (m + 1) + c] * coefficients[c];
+            }
+            coefficients[r] = s / a[r * (m + 1) + r];
+        }
+        return coefficients;
+    }
+
+    private static double rms(double[] coefficients, double[] x, double[] y, int n) {
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            double r = evaluate(coefficients, x[i]) - y[i];
+            sum += r * r;
+        }
+        return Math.sqrt(sum / n);
+    }
+
+    private static double evaluate(double[] coefficients, double t) {
+        double v = 0;
+        for (int k = coefficients.length - 1; k >= 0; k--) {
+            v = v * t + coefficients[k];
+        }
+        return v;
+    }
+
+    private static double normalize(double pixel) {
+        return 2 * pixel / (PIXELS - 1) - 1;
+    }
+
+    private static double[] sorted(double... lines) {
+        Arrays.sort(lines);
+        return lines;
+    }
+}
@@ -1,10 +1,14 @@
 package edu.gemini;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.stream.Collectors;
 
 import edu.gemini.model.AbstractSciencePlan;
 import edu.gemini.model.AbstractTelePositionPair;
@@ -15,8 +19,10 @@ public class Main {
     private static final SimpleDateFormat DATE_FMT = new SimpleDateFormat("yyyy-MM-dd");
     private static final Scanner sc = new Scanner(System.in);
 
-    public static void main(String[] args) {
-        OCS ocs = new OCS();
+    public static void main(String[] args) throws IOException {
+        // Optional data directory: keeps plans, programs and configurations across restarts
+        OcsPersistence persistence = args.length > 0 ? OcsPersistence.open(Paths.get(args[0])) : null;
+        OCS ocs = persistence != null ? persistence.getOcs() : new OCS();
 
         Astronomer astronomer = new Astronomer();
         astronomer.setId(1);
@@ -65,6 +71,9 @@ public class Main {
                     listSciencePlans(ocs);
                     break;
                 case "0":
+                    if (persistence != null) {
+                        persistence.close();
+                    }
                     System.out.println("Bye.");
                     return;
                 default:
@@ -149,25 +158,23 @@ public class Main {
                 continue;
             }
             
-            // Check if the input matches any constellation name
-            boolean found = false;
-            String matchedName = null;
+            // Latin or English name, e.g. "Aquarius" or "Water Bearer"
+            StarSystem.CONSTELLATIONS constellation = StarCatalogue.getDefault().find(input);
             
-            for (StarSystem.CONSTELLATIONS constellation : StarSystem.CONSTELLATIONS.values()) {
-                if (constellation.name().equalsIgnoreCase(input)) {
-                    found = true;
-                    matchedName = constellation.name();
-                    break;
-                }
-            }
-            
-            if (found) {
-                System.out.println("Valid constellation: " + matchedName);
-                return matchedName;
+            if (constellation != null) {
+                System.out.println("Valid constellation: " + constellation.name());
+                return constellation.name();
             } else {
                 System.out.println("It's not a valid constellation");
-                System.out.println("Please enter a valid constellation name from the star catalogue.");
-                System.out.println("Examples: Andromeda, Orion, Leo, Aquarius, etc.");
+                List<StarSystem.CONSTELLATIONS> suggestions = StarCatalogue.getDefault().complete(input, 5);
+                if (!suggestions.isEmpty()) {
+                    System.out.println("Did you mean: " + suggestions.stream()
+                            .map(c -> c.name() + " (" + c.engName + ")")
+                            .collect(Collectors.joining(", ")) + "?");
+                } else {
+                    System.out.println("Please enter a valid constellation name from the star catalogue.");
+                    System.out.println("Examples: Andromeda, Orion, Leo, Aquarius, etc.");
+                }
             }
         }
     }
@@ -183,9 +190,7 @@ public class Main {
             return;
         }
 
-        List<SciencePlan> createdPlans = plans.stream()
-                .filter(sp -> sp.getStatus() == AbstractSciencePlan.STATUS.CREATED)
-                .toList();
+        List<SciencePlan> createdPlans = ocs.getSciencePlansByStatus(AbstractSciencePlan.STATUS.CREATED);
 
         if (createdPlans.isEmpty()) {
             System.out.println("No science plans in CREATED status available for testing.");
@@ -318,17 +323,15 @@ public class Main {
     private static void validateSciencePlanUI(OCS ocs, ScienceObserver observer) {
         System.out.println("\n--- Validate Science Plan ---");
 
-        List<SciencePlan> plans = ocs.getAllSciencePlans();
-        if (plans.isEmpty()) {
-            System.out.println("No science plans found.");
-            return;
-        }
-
-        List<SciencePlan> submittedPlans = plans.stream()
-                .filter(sp -> sp.getStatus() == AbstractSciencePlan.STATUS.SUBMITTED)
-                .toList();
+        List<SciencePlan> submittedPlans = ocs.getSciencePlansByStatus(AbstractSciencePlan.STATUS.SUBMITTED);
 
         if (submittedPlans.isEmpty()) {
+            // Only list everything when there is nothing to validate
+            List<SciencePlan> plans = ocs.getAllSciencePlans();
+            if (plans.isEmpty()) {
+                System.out.println("No science plans found.");
+                return;
+            }
             System.out.println("No submitted science plans available for validation.");
             System.out.println("\nAll science plans:");
             printSciencePlans(plans);
@@ -380,17 +383,13 @@ public class Main {
     private static void createObservingProgramUI(OCS ocs, ScienceObserver observer) {
         System.out.println("\n--- Create an Observing Program ---");
     
-        List<SciencePlan> all = ocs.getAllSciencePlans();
-    
-        List<SciencePlan> validatedPlans = all.stream()
-                .filter(sp -> sp.getStatus() == AbstractSciencePlan.STATUS.VALIDATED)
-                .toList();
+        List<SciencePlan> validatedPlans = ocs.getSciencePlansByStatus(AbstractSciencePlan.STATUS.VALIDATED);
     
         if (validatedPlans.isEmpty()) {
             System.out.println("No validated science plans available.");
             System.out.println("Science plans must be VALIDATED before creating an observing program.");
             System.out.println("\nCurrent science plans:");
-            printSciencePlans(all);
+            printSciencePlans(ocs.getAllSciencePlans());
             return;
         }
     
@@ -482,12 +481,13 @@ public class Main {
             printSciencePlans(plans);
             
             System.out.println("\n--- Status Summary ---");
-            long created = plans.stream().filter(sp -> sp.getStatus() == AbstractSciencePlan.STATUS.CREATED).count();
-            long tested = plans.stream().filter(sp -> sp.getStatus() == AbstractSciencePlan.STATUS.TESTED).count();
-            long submitted = plans.stream().filter(sp -> sp.getStatus() == AbstractSciencePlan.STATUS.SUBMITTED).count();
-            long validated = plans.stream().filter(sp -> sp.getStatus() == AbstractSciencePlan.STATUS.VALIDATED).count();
-            long running = plans.stream().filter(sp -> sp.getStatus() == AbstractSciencePlan.STATUS.RUNNING).count();
-            long complete = plans.stream().filter(sp -> sp.getStatus() == AbstractSciencePlan.STATUS.COMPLETE).count();
+            Map<AbstractSciencePlan.STATUS, Integer> counts = ocs.getStatusCounts();
+            int created = counts.get(AbstractSciencePlan.STATUS.CREATED);
+            int tested = counts.get(AbstractSciencePlan.STATUS.TESTED);
+            int submitted = counts.get(AbstractSciencePlan.STATUS.SUBMITTED);
+            int validated = counts.get(AbstractSciencePlan.STATUS.VALIDATED);
+            int running = counts.get(AbstractSciencePlan.STATUS.RUNNING);
+            int complete = counts.get(AbstractSciencePlan.STATUS.COMPLETE);
             
             System.out.println("CREATED: " + created);
             System.out.println("TESTED: " + tested);
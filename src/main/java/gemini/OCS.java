@@ -2,12 +2,18 @@ package edu.gemini;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.EnumMap;
 import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.IntStream;
 
 import edu.gemini.model.AbstractObservingProgram;
 import edu.gemini.model.AbstractObservingProgramConfigs;
@@ -15,20 +21,68 @@ import edu.gemini.model.AbstractSciencePlan;
 import edu.gemini.model.AbstractTelePositionPair;
 import edu.gemini.model.StarSystem;
 
-public class OCS implements GeminiAPI<SciencePlan, ObservingProgram, ObservingProgramConfigs,
+/**
+ * The Gemini observatory control system. All operations are safe to call from
+ * multiple threads: plan and program ids are allocated atomically, lookups are
+ * lock-free, and the validate-then-insert sequence of createSciencePlan only
+ * locks the telescope the plan is booked on.
+ */
+public final class OCS implements GeminiAPI<SciencePlan, ObservingProgram, ObservingProgramConfigs,
         AstronomicalData, Astronomer, ScienceObserver> {
 
-    private final ArrayList<SciencePlan> sciencePlans = new ArrayList<>();
-    private final ArrayList<SciencePlan> draftSciencePlans = new ArrayList<>();
-    private int nextPlanNo = 1;
+    private final SciencePlanRepository sciencePlans = new SciencePlanRepository();
+    private final DateConflictIndex dateConflictIndex = new DateConflictIndex();
+    private final PlanNameIndex planNameIndex = new PlanNameIndex(Validation.EXPECTED_PLAN_NAMES);
+    private final PlanStatusIndex planStatusIndex = new PlanStatusIndex();
+    private final SciencePlan.StatusListener statusListener = this::onStatusChanged;
+    private final AtomicInteger nextPlanNo = new AtomicInteger(1);
     
-    private final ArrayList<ObservingProgram> observingPrograms = new ArrayList<>();
-    private int nextObservingProgramId = 1;
+    private final ObservingProgramRepository observingPrograms = new ObservingProgramRepository();
+    private final AtomicInteger nextObservingProgramId = new AtomicInteger(1);
+    // Arcs taken with the calibration lamp when a program starts
+    static final int CALIBRATION_ARCS = 8;
     
-    private final ArrayList<Date> unavailableDates = new ArrayList<>();
+    private final BlackoutCalendar blackouts = new BlackoutCalendar(ZoneId.systemDefault());
     private final ArrayList<String> configurations = new ArrayList<>();
+    private final EnumMap<TelescopeSite, VirtualTelescope> telescopes = new EnumMap<>(TelescopeSite.class);
     
-    private boolean simulateNetworkError = false;
+    private volatile boolean simulateNetworkError = false;
+    private volatile ChangeLog changeLog = ChangeLog.NONE;
+    // The last proposed schedule, kept for incremental updates
+    private volatile TelescopeScheduler scheduler;
+    // Where photos are filed when the OCS has a data directory; otherwise they stay on the plans
+    private volatile AstronomicalDataStore dataStore;
+
+    /**
+     * Receives every change made to the OCS state, after it has been applied.
+     * Used to journal the state so it survives a restart.
+     */
+    interface ChangeLog {
+        ChangeLog NONE = new ChangeLog() { };
+
+        default void planStored(SciencePlan sp, boolean draft) { }
+
+        default void planStatusChanged(int planNo, AbstractSciencePlan.STATUS status) { }
+
+        default void planDeleted(int planNo) { }
+
+        default void plansCleared() { }
+
+        default void programStored(ObservingProgram op) { }
+
+        default void programDeleted(int id) { }
+
+        default void unavailableDateAdded(String telescope, Date date) { }
+
+        default void unavailableDateDeleted(String telescope, Date date) { }
+
+        default void configurationsChanged(List<String> configurations) { }
+
+        /**
+         * Block until the changes made so far by the calling thread are durable.
+         */
+        default void awaitDurable() { }
+    }
 
     // Inner class for validation constants (Facade pattern)
     private static class Validation {
@@ -74,255 +128,479 @@ public class OCS implements GeminiAPI<SciencePlan, ObservingProgram, ObservingPr
         public static final double HUE_MIN = -180.0;
         public static final double HUE_MAX = 180.0;
         
+        // Sizing of the Bloom filter in front of the plan name index
+        public static final int EXPECTED_PLAN_NAMES = 1 << 16;
+        
         // Star catalogue
-        public static final Set<String> VALID_TARGETS = Arrays.stream(StarSystem.CONSTELLATIONS.values())
-                .map(Enum::name)
-                .collect(Collectors.toSet());
+        public static final StarCatalogue CATALOGUE = StarCatalogue.getDefault();
+        public static final ObservabilityMatrix OBSERVABILITY = ObservabilityMatrix.getDefault();
         
         // Validation methods
         public static boolean isValidTarget(String target) {
-            if (target == null || target.trim().isEmpty()) {
-                return false;
-            }
-            return VALID_TARGETS.contains(target.trim());
+            // Latin or English name, ignoring case and spacing
+            return CATALOGUE.contains(target);
         }
         
-        public static boolean isInRange(Double value, double min, double max) {
-            if (value == null) return false;
-            return value >= min && value <= max;
+        public static boolean isObservable(String target, String telescope, Date start, Date end) {
+            StarSystem.CONSTELLATIONS c = CATALOGUE.find(target);
+            TelescopeSite site = TelescopeSite.of(telescope);
+            // Only the two Gemini sites are modelled
+            return c == null || site == null || OBSERVABILITY.isObservable(c, site, start, end);
         }
         
-        public static String getRangeString(double min, double max) {
-            return String.format("%.1f to %.1f", min, max);
-        }
+        // Science plan checks, compiled once
+        public static final ValidationRules SCIENCE_PLAN_RULES = ValidationRules.builder()
+                .target(Validation::isValidTarget)
+                .observability(Validation::isObservable)
+                .range(ValidationRules.CONTRAST_RANGE, ValidationRules.CONTRAST, "Contrast",
+                        CONTRAST_MIN, CONTRAST_MAX)
+                .range(ValidationRules.BRIGHTNESS_RANGE, ValidationRules.BRIGHTNESS, "Brightness",
+                        BRIGHTNESS_MIN, BRIGHTNESS_MAX)
+                .range(ValidationRules.SATURATION_RANGE, ValidationRules.SATURATION, "Saturation",
+                        SATURATION_MIN, SATURATION_MAX)
+                .range(ValidationRules.EXPOSURE_RANGE, ValidationRules.EXPOSURE, "Exposure",
+                        EXPOSURE_MIN, EXPOSURE_MAX)
+                .compile();
     }
 
     public OCS() {
+        for (TelescopeSite site : TelescopeSite.values()) {
+            telescopes.put(site, new VirtualTelescope(site, VirtualTelescope.DEFAULT_MAILBOX_CAPACITY,
+                    FrameBufferPool.getDefault(), this::attachFrame));
+        }
     }
 
     @Override
     public ArrayList<SciencePlan> getAllSciencePlans() {
-        return sciencePlans;
+        return sciencePlans.getCompletePlans();
     }
     
     public ArrayList<SciencePlan> getAllDraftSciencePlans() {
-        return draftSciencePlans;
+        return sciencePlans.getDraftPlans();
     }
 
     @Override
     public SciencePlan getSciencePlanByNo(int planNo) {
-        for (SciencePlan sp : sciencePlans) {
-            if (sp.getPlanNo() == planNo) {
-                return sp;
+        return sciencePlans.get(planNo);
+    }
+
+    /**
+     * Get the complete science plans in the given status, in plan number order.
+     * Runs in time proportional to the number of plans returned.
+     *
+     * @param status the status to look up
+     * @return the matching plans, empty if there are none
+     */
+    public ArrayList<SciencePlan> getSciencePlansByStatus(AbstractSciencePlan.STATUS status) {
+        ArrayList<SciencePlan> result = new ArrayList<>();
+        if (status == null) return result;
+        for (int planNo : planStatusIndex.planNos(status)) {
+            SciencePlan sp = sciencePlans.get(planNo);
+            // The plan may have been deleted or moved on since the number was read
+            if (sp != null && sp.getStatus() == status) {
+                result.add(sp);
             }
         }
-        for (SciencePlan sp : draftSciencePlans) {
-            if (sp.getPlanNo() == planNo) {
-                return sp;
+        return result;
+    }
+
+    /**
+     * @return the number of complete science plans in each status, including statuses with none
+     */
+    public Map<AbstractSciencePlan.STATUS, Integer> getStatusCounts() {
+        return planStatusIndex.counts();
+    }
+
+    /**
+     * Get one page of the complete science plans in plan number order, without copying the
+     * whole list. Pass the number of the last plan of a page to get the next one.
+     *
+     * @param status only plans in this status, or null for every status
+     * @param afterPlanNo return plans numbered above this, 0 for the first page
+     * @param limit the maximum number of plans
+     * @return the plans, fewer than limit on the last page
+     */
+    public List<SciencePlan> getSciencePlans(AbstractSciencePlan.STATUS status, int afterPlanNo, int limit) {
+        List<SciencePlan> result = new ArrayList<>();
+        if (limit <= 0) return result;
+        // Take up to limit numbers from each status and keep the lowest; a plan changing
+        // status meanwhile may be seen in both sets, so the set also removes duplicates
+        TreeSet<Integer> planNos = new TreeSet<>();
+        for (AbstractSciencePlan.STATUS st : status == null ? AbstractSciencePlan.STATUS.values()
+                : new AbstractSciencePlan.STATUS[] { status }) {
+            int taken = 0;
+            for (int planNo : planStatusIndex.planNos(st).tailSet(afterPlanNo, false)) {
+                if (taken++ >= limit) break;
+                planNos.add(planNo);
             }
         }
-        return null;
+        for (int planNo : planNos) {
+            if (result.size() >= limit) break;
+            SciencePlan sp = sciencePlans.get(planNo);
+            if (sp != null && !sciencePlans.isDraft(planNo) && (status == null || sp.getStatus() == status)) {
+                result.add(sp);
+            }
+        }
+        return result;
     }
 
     @Override
     public String createSciencePlan(SciencePlan sciencePlan, Astronomer an) {
         if (simulateNetworkError) {
-            return "Unable to save the science plan due to network or system error. Please try again later.";
+            return SciencePlanOutcome.SYSTEM_ERROR.getMessage();
         }
 
-        sciencePlan.setPlanNo(nextPlanNo++);
+        sciencePlan.setPlanNo(nextPlanNo.getAndIncrement());
         sciencePlan.setCreator(an);
 
-        // Check for incomplete required fields - save as draft
-        if (isBlank(sciencePlan.getName()) ||
-            isBlank(sciencePlan.getObjective()) ||
-            sciencePlan.getStartDate() == null ||
-            sciencePlan.getEndDate() == null ||
-            isBlank(sciencePlan.getTelescope()) ||
-            isBlank(sciencePlan.getTarget())) {
-            
-            draftSciencePlans.add(sciencePlan);
-            sciencePlan.setStatus(AbstractSciencePlan.STATUS.CREATED);
-            return "Please complete all required fields before saving the science plan. Draft saved as #" + sciencePlan.getPlanNo();
+        SciencePlanOutcome outcome = commit(sciencePlan, precheck(sciencePlan));
+        changeLog.awaitDurable();
+        if (outcome.isAccepted()) {
+            return "Science plan #" + sciencePlan.getPlanNo() + " '" + 
+                    sciencePlan.getName() + "' created successfully.";
         }
 
-        // Validation 1: Start date vs End date
-        if (sciencePlan.getStartDate().after(sciencePlan.getEndDate())) {
-            draftSciencePlans.add(sciencePlan);
-            sciencePlan.setStatus(AbstractSciencePlan.STATUS.CREATED);
-            return "Start date cannot be after the end date. Draft saved as #" + sciencePlan.getPlanNo();
+        // Only the range failures need the plan again, to list every field out of range
+        String reason = outcome == SciencePlanOutcome.DATA_PROCESSING_OUT_OF_RANGE
+                ? Validation.SCIENCE_PLAN_RULES.message(Validation.SCIENCE_PLAN_RULES.check(sciencePlan))
+                : outcome.getMessage();
+        return reason + " Draft saved as #" + sciencePlan.getPlanNo();
+    }
+
+    /**
+     * Create a batch of science plans, e.g. a whole semester of proposals. The checks that only look at
+     * a plan itself run in parallel on the fork-join pool; duplicate names and date conflicts are then
+     * resolved in one pass in list order, so plans later in the batch also conflict with earlier ones.
+     * Plan numbers are assigned in list order.
+     *
+     * @param plans the science plans to create
+     * @param an the astronomer creating the plans
+     * @return the outcome for each plan, at the same index as the plan
+     */
+    public SciencePlanOutcome[] createSciencePlans(List<SciencePlan> plans, Astronomer an) {
+        int n = plans.size();
+        SciencePlanOutcome[] outcomes = new SciencePlanOutcome[n];
+        if (simulateNetworkError) {
+            Arrays.fill(outcomes, SciencePlanOutcome.SYSTEM_ERROR);
+            return outcomes;
         }
 
-        // Validation 2: Funding
-        if (sciencePlan.getFunding() <= 0) {
-            draftSciencePlans.add(sciencePlan);
-            sciencePlan.setStatus(AbstractSciencePlan.STATUS.CREATED);
-            return "Funding amount must be a positive numerical value. Draft saved as #" + sciencePlan.getPlanNo();
+        int firstPlanNo = nextPlanNo.getAndAdd(n);
+        for (int i = 0; i < n; i++) {
+            SciencePlan sp = plans.get(i);
+            sp.setPlanNo(firstPlanNo + i);
+            sp.setCreator(an);
+        }
+
+        IntStream.range(0, n).parallel().forEach(i -> outcomes[i] = precheck(plans.get(i)));
+
+        for (int i = 0; i < n; i++) {
+            outcomes[i] = commit(plans.get(i), outcomes[i]);
         }
+        changeLog.awaitDurable();
+        return outcomes;
+    }
+
+    /**
+     * Run every check that only looks at the plan itself, in validation order.
+     *
+     * @return the first failing check, or ACCEPTED if all of them pass
+     */
+    private SciencePlanOutcome precheck(SciencePlan sciencePlan) {
+        return ValidationRules.outcome(Validation.SCIENCE_PLAN_RULES.check(sciencePlan));
+    }
 
-        // Validation 3: Duplicate name
-        for (SciencePlan existing : sciencePlans) {
-            if (existing.getName().equalsIgnoreCase(sciencePlan.getName())) {
-                draftSciencePlans.add(sciencePlan);
-                sciencePlan.setStatus(AbstractSciencePlan.STATUS.CREATED);
-                return "A science plan with this name already exists. Please use a different plan name. Draft saved as #" + sciencePlan.getPlanNo();
+    /**
+     * Run the checks against stored plans and save the plan, either as a complete plan or as a draft.
+     * Holds the lock of the plan's telescope for the check-then-insert sequence.
+     *
+     * @param precheck the result of {@link #precheck(SciencePlan)} for this plan
+     * @return the final outcome
+     */
+    private SciencePlanOutcome commit(SciencePlan sciencePlan, SciencePlanOutcome precheck) {
+        SciencePlanOutcome outcome = precheck;
+        if (precheck != SciencePlanOutcome.INCOMPLETE &&
+            precheck != SciencePlanOutcome.INVALID_DATE_RANGE &&
+            precheck != SciencePlanOutcome.INVALID_FUNDING) {
+
+            ReentrantLock lock = dateConflictIndex.lockFor(sciencePlan.getTelescope());
+            lock.lock();
+            try {
+                // Validation 3: Duplicate name (claimed atomically, released again if a later check fails)
+                if (!planNameIndex.add(sciencePlan.getName())) {
+                    outcome = SciencePlanOutcome.DUPLICATE_NAME;
+                } else {
+                    // Validation 5: Date range conflicts, checked after the target (validation 4)
+                    if (precheck != SciencePlanOutcome.UNKNOWN_TARGET &&
+                        precheck != SciencePlanOutcome.TARGET_NOT_OBSERVABLE) {
+                        if (hasDateConflict(sciencePlan)) {
+                            outcome = SciencePlanOutcome.DATE_CONFLICT;
+                        } else if (blackouts.firstBlackout(sciencePlan.getTelescope(),
+                                sciencePlan.getStartDate(), sciencePlan.getEndDate()) != DayBitmap.NONE) {
+                            outcome = SciencePlanOutcome.TELESCOPE_UNAVAILABLE;
+                        }
+                    }
+
+                    if (!outcome.isAccepted()) {
+                        planNameIndex.remove(sciencePlan.getName());
+                    } else {
+                        // All validations passed - save as complete plan
+                        sciencePlan.setStatus(AbstractSciencePlan.STATUS.CREATED);
+                        store(sciencePlan, false);
+                    }
+                }
+            } finally {
+                lock.unlock();
             }
         }
 
-        // Validation 4: Target in star catalogue
-        if (!Validation.isValidTarget(sciencePlan.getTarget())) {
-            draftSciencePlans.add(sciencePlan);
+        if (!outcome.isAccepted()) {
+            store(sciencePlan, true);
             sciencePlan.setStatus(AbstractSciencePlan.STATUS.CREATED);
-            return "Selected target not found in the star catalogue. Please choose a valid target. Draft saved as #" + sciencePlan.getPlanNo();
         }
+        return outcome;
+    }
 
-        // Validation 5: Date range conflicts
-        String conflictError = checkDateConflict(sciencePlan);
-        if (conflictError != null) {
-            draftSciencePlans.add(sciencePlan);
-            sciencePlan.setStatus(AbstractSciencePlan.STATUS.CREATED);
-            return conflictError + " Draft saved as #" + sciencePlan.getPlanNo();
+    private boolean hasDateConflict(SciencePlan newPlan) {
+        return dateConflictIndex.findConflict(
+                newPlan.getTelescope(), newPlan.getStartDate(), newPlan.getEndDate()) >= 0;
+    }
+
+    /**
+     * Get the numbers of all scheduled science plans on a telescope whose date range overlaps [start, end].
+     *
+     * @param telescope the telescope (Hawaii or Chile)
+     * @param start the start of the range
+     * @param end the end of the range
+     * @return the conflicting plan numbers, empty if there are none
+     */
+    public int[] getConflictingPlanNos(String telescope, Date start, Date end) {
+        if (telescope == null || start == null || end == null) {
+            return new int[0];
         }
+        return dateConflictIndex.findConflicts(telescope, start, end);
+    }
 
-        // Validation 6: Data processing ranges
-        String rangeError = validateDataProcessingRanges(sciencePlan);
-        if (rangeError != null) {
-            draftSciencePlans.add(sciencePlan);
-            sciencePlan.setStatus(AbstractSciencePlan.STATUS.CREATED);
-            return rangeError + " Draft saved as #" + sciencePlan.getPlanNo();
-        }
-
-        // Validation 7: Color mode requirements
-        if (sciencePlan.getColorType() != null) {
-            if (sciencePlan.getColorType() == SciencePlan.ColorType.COLOR) {
-                if (sciencePlan.getBrightness() == null || 
-                    sciencePlan.getSaturation() == null || 
-                    sciencePlan.getExposure() == null) {
-                    draftSciencePlans.add(sciencePlan);
-                    sciencePlan.setStatus(AbstractSciencePlan.STATUS.CREATED);
-                    return "Please complete all required fields for the selected data processing mode. Draft saved as #" + sciencePlan.getPlanNo();
-                }
-            }
+    /**
+     * Check whether a name can be used for a new science plan. Names are compared ignoring case.
+     *
+     * @param name the plan name to check
+     * @return true if the name is not blank and no complete science plan uses it yet
+     */
+    public boolean isPlanNameAvailable(String name) {
+        return !isBlank(name) && !planNameIndex.contains(name);
+    }
+
+    /**
+     * Get the star systems a telescope can observe in a month, e.g. everything Chile can observe in March.
+     *
+     * @param telescope the telescope (Hawaii or Chile)
+     * @param month the month, 1 to 12
+     * @return the observable star systems in catalogue order, empty for an unknown telescope or month
+     */
+    public List<StarSystem.CONSTELLATIONS> getObservableTargets(String telescope, int month) {
+        TelescopeSite site = TelescopeSite.of(telescope);
+        if (site == null) return new ArrayList<>();
+        return Validation.OBSERVABILITY.getObservableTargets(site, month);
+    }
+
+    /**
+     * Check whether a target can be observed from a telescope in every month of a date range.
+     *
+     * @param target the star system, by Latin or English name
+     * @param telescope the telescope (Hawaii or Chile)
+     * @param start the start of the range
+     * @param end the end of the range
+     * @return false if the target is unknown, in the other site's quadrants, or out of season for
+     *         part of the range
+     */
+    public boolean isTargetObservable(String target, String telescope, Date start, Date end) {
+        if (start == null || end == null || !Validation.isValidTarget(target)) return false;
+        return Validation.isObservable(target, telescope, start, end);
+    }
+
+    /**
+     * Propose a schedule for the submitted and validated science plans over the given days.
+     * Each plan keeps its length and its telescope, in a window where the target is in season,
+     * avoiding unavailable dates and running plans. A plan whose target is in the other
+     * telescope's quadrants is reported as unscheduled.
+     * The schedule maximizes the total funding of the plans it fits; plans are not changed.
+     *
+     * @param horizonStart the first day to schedule
+     * @param horizonDays the number of days to schedule
+     * @return the schedule, or null if the arguments are invalid
+     */
+    public TelescopeScheduler.Schedule scheduleSciencePlans(Date horizonStart, int horizonDays) {
+        if (horizonStart == null || horizonDays <= 0) return null;
+        long firstDay = blackouts.toEpochDay(horizonStart);
+        TelescopeSite[] sites = TelescopeSite.values();
+        long[][] blocked = new long[sites.length][];
+        for (TelescopeSite site : sites) {
+            blocked[site.ordinal()] = blockedDays(site, firstDay, horizonDays);
         }
 
-        // Validation 8: Contrast required
-        if (sciencePlan.getContrast() == null) {
-            draftSciencePlans.add(sciencePlan);
-            sciencePlan.setStatus(AbstractSciencePlan.STATUS.CREATED);
-            return "Please complete all required fields for the selected data processing mode. Draft saved as #" + sciencePlan.getPlanNo();
+        List<TelescopeScheduler.Request> requests = new ArrayList<>();
+        for (AbstractSciencePlan.STATUS status : SCHEDULED_STATUSES) {
+            for (SciencePlan sp : getSciencePlansByStatus(status)) {
+                TelescopeScheduler.Request r = toScheduleRequest(sp);
+                if (r != null) requests.add(r);
+            }
         }
+        TelescopeScheduler solver = new TelescopeScheduler(ZoneId.systemDefault(), firstDay, horizonDays, blocked);
+        TelescopeScheduler.Schedule schedule = solver.solve(requests);
+        scheduler = solver;
+        return schedule;
+    }
 
-        // Validation 9: Legacy system compatibility
-        String legacyError = checkLegacyCompatibility(sciencePlan);
-        if (legacyError != null) {
-            draftSciencePlans.add(sciencePlan);
-            sciencePlan.setStatus(AbstractSciencePlan.STATUS.CREATED);
-            return legacyError + " Draft saved as #" + sciencePlan.getPlanNo();
+    /**
+     * Update the last proposed schedule after a single plan changed, moving as few other plans
+     * as possible. A plan that is no longer submitted or validated is taken off the schedule.
+     *
+     * @return the updated schedule, or null if no schedule has been proposed yet
+     */
+    public TelescopeScheduler.Schedule rescheduleSciencePlan(int planNo) {
+        TelescopeScheduler solver = scheduler;
+        if (solver == null) return null;
+        SciencePlan sp = sciencePlans.isDraft(planNo) ? null : sciencePlans.get(planNo);
+        TelescopeScheduler.Request r = sp == null ? null : toScheduleRequest(sp);
+        if (r == null || !Arrays.asList(SCHEDULED_STATUSES).contains(sp.getStatus())) {
+            return solver.remove(planNo);
         }
+        return solver.update(r);
+    }
 
-        // All validations passed - save as complete plan
-        sciencePlan.setStatus(AbstractSciencePlan.STATUS.CREATED);
-        sciencePlans.add(sciencePlan);
-        
-        return "Science plan #" + sciencePlan.getPlanNo() + " '" + 
-                sciencePlan.getName() + "' created successfully.";
+    private static final AbstractSciencePlan.STATUS[] SCHEDULED_STATUSES = {
+            AbstractSciencePlan.STATUS.SUBMITTED, AbstractSciencePlan.STATUS.VALIDATED };
+
+    // Null for plans the scheduler cannot place: unknown target or telescope, or missing dates. A target
+    // in the other site's quadrants has no observable months, so the schedule reports it unscheduled
+    private static TelescopeScheduler.Request toScheduleRequest(SciencePlan sp) {
+        StarSystem.CONSTELLATIONS c = Validation.CATALOGUE.find(sp.getTarget());
+        TelescopeSite site = TelescopeSite.of(sp.getTelescope());
+        Date start = sp.getStartDate();
+        Date end = sp.getEndDate();
+        if (c == null || site == null || start == null || end == null || end.before(start)) return null;
+        return new TelescopeScheduler.Request(sp.getPlanNo(), sp.getFunding(), end.getTime() - start.getTime(),
+                site, Validation.OBSERVABILITY.getObservableMonths(c, site), c.month);
     }
 
-    private String checkDateConflict(SciencePlan newPlan) {
-        for (SciencePlan existing : sciencePlans) {
-            if (!existing.getTelescope().equalsIgnoreCase(newPlan.getTelescope())) {
+    // Unavailable dates of the site plus the days of plans running on it
+    private long[] blockedDays(TelescopeSite site, long firstDay, int horizonDays) {
+        DayBitmap days = new DayBitmap();
+        for (long day : blackouts.getUnavailableDays(site.getDisplayName())) {
+            days.set(day);
+        }
+        for (SciencePlan sp : getSciencePlansByStatus(AbstractSciencePlan.STATUS.RUNNING)) {
+            if (site != TelescopeSite.of(sp.getTelescope()) || sp.getStartDate() == null || sp.getEndDate() == null) {
                 continue;
             }
-            
-            Date existingStart = existing.getStartDate();
-            Date existingEnd = existing.getEndDate();
-            Date newStart = newPlan.getStartDate();
-            Date newEnd = newPlan.getEndDate();
-            
-            boolean overlap = !(newEnd.before(existingStart) || newStart.after(existingEnd));
-            
-            if (overlap) {
-                return "Selected date range conflicts with another scheduled plan for this telescope.";
+            long from = Math.max(blackouts.toEpochDay(sp.getStartDate()), firstDay);
+            long to = Math.min(blackouts.toEpochDay(sp.getEndDate()), firstDay + horizonDays - 1);
+            for (long day = from; day <= to; day++) {
+                days.set(day);
             }
         }
-        return null;
+        return days.days();
     }
 
-    private String validateDataProcessingRanges(SciencePlan sp) {
-        List<String> errors = new ArrayList<>();
-        
-        if (sp.getContrast() != null && !Validation.isInRange(sp.getContrast(), 
-                Validation.CONTRAST_MIN, Validation.CONTRAST_MAX)) {
-            errors.add("Contrast must be between " + Validation.getRangeString(
-                    Validation.CONTRAST_MIN, Validation.CONTRAST_MAX));
+    private void store(SciencePlan sp, boolean draft) {
+        sciencePlans.add(sp, draft);
+        // Under the plan's status monitor, so no transition slips in between reading the status and indexing it
+        synchronized (sp) {
+            sp.setStatusListener(statusListener);
+            if (!draft) {
+                planStatusIndex.add(sp.getPlanNo(), sp.getStatus());
+            }
         }
-        
-        if (sp.getBrightness() != null && !Validation.isInRange(sp.getBrightness(), 
-                Validation.BRIGHTNESS_MIN, Validation.BRIGHTNESS_MAX)) {
-            errors.add("Brightness must be between " + Validation.getRangeString(
-                    Validation.BRIGHTNESS_MIN, Validation.BRIGHTNESS_MAX));
+        if (!draft) {
+            planNameIndex.add(sp.getName());
+            if (occupiesTelescope(sp.getStatus())) {
+                dateConflictIndex.add(sp);
+            }
         }
-        
-        if (sp.getSaturation() != null && !Validation.isInRange(sp.getSaturation(), 
-                Validation.SATURATION_MIN, Validation.SATURATION_MAX)) {
-            errors.add("Saturation must be between " + Validation.getRangeString(
-                    Validation.SATURATION_MIN, Validation.SATURATION_MAX));
+        changeLog.planStored(sp, draft);
+    }
+
+    // Keeps the secondary indexes in sync with status transitions of stored plans
+    private void onStatusChanged(SciencePlan sp, AbstractSciencePlan.STATUS oldStatus,
+                                 AbstractSciencePlan.STATUS newStatus) {
+        int planNo = sp.getPlanNo();
+        if (sciencePlans.get(planNo) != sp) {
+            return;
         }
-        
-        if (sp.getExposure() != null && !Validation.isInRange(sp.getExposure(), 
-                Validation.EXPOSURE_MIN, Validation.EXPOSURE_MAX)) {
-            errors.add("Exposure must be between " + Validation.getRangeString(
-                    Validation.EXPOSURE_MIN, Validation.EXPOSURE_MAX));
+        changeLog.planStatusChanged(planNo, newStatus);
+        if (sciencePlans.isDraft(planNo)) {
+            return;
         }
-        
-        if (!errors.isEmpty()) {
-            return "Invalid input value. Please enter valid decimal numbers within the allowed range. " + 
-                   String.join(". ", errors) + ".";
+        planStatusIndex.move(planNo, oldStatus, newStatus);
+        if (occupiesTelescope(newStatus)) {
+            if (!dateConflictIndex.contains(planNo)) {
+                dateConflictIndex.add(sp);
+            }
+        } else {
+            dateConflictIndex.remove(planNo);
         }
-        
-        return null;
     }
 
-    private String checkLegacyCompatibility(SciencePlan sp) {
-        if (sp.getFileType() == SciencePlan.FileType.RAW && 
-            sp.getFileQuality() == SciencePlan.FileQuality.FINE) {
-            return "Input data is not compatible with the legacy OCS system.";
-        }
-        return null;
+    // Cancelled and rejected plans release their date range on the telescope
+    private static boolean occupiesTelescope(AbstractSciencePlan.STATUS status) {
+        return status != AbstractSciencePlan.STATUS.CANCELLED &&
+               status != AbstractSciencePlan.STATUS.INVALIDATED;
     }
 
     @Override
     public String submitSciencePlan(SciencePlan sciencePlan, Astronomer an) {
+        SciencePlanStepOutcome outcome = trySubmitSciencePlan(sciencePlan, an);
+        SciencePlan stored = getSciencePlanByNo(sciencePlan.getPlanNo());
+        AbstractSciencePlan.STATUS st = stored == null ? null : stored.getStatus();
+        switch (outcome) {
+            case SUBMITTED:
+                return "Science plan #" + sciencePlan.getPlanNo() + " submitted successfully. It now awaits validation by a Science Observer.";
+            case CLOSED:
+                return st == null ? outcome.getMessage()
+                        : "This science plan cannot be submitted because it is " + st + ".";
+            case NOT_TESTED:
+                return st == null || st == AbstractSciencePlan.STATUS.CREATED ? outcome.getMessage()
+                        : "This science plan must be tested before submission. Current status: " + st;
+            default:
+                return outcome.getMessage();
+        }
+    }
+
+    /**
+     * Move a TESTED science plan to SUBMITTED.
+     *
+     * @return SUBMITTED, or why the plan was not submitted
+     */
+    public SciencePlanStepOutcome trySubmitSciencePlan(SciencePlan sciencePlan, Astronomer an) {
         SciencePlan stored = getSciencePlanByNo(sciencePlan.getPlanNo());
         if (stored == null) {
-            return "Science plan not found.";
+            return SciencePlanStepOutcome.NOT_FOUND;
         }
 
         AbstractSciencePlan.STATUS st = stored.getStatus();
-        
-        if (st == AbstractSciencePlan.STATUS.CREATED) {
-            return "This science plan is created but not tested. Please test it before submission.";
-        }
 
         if (st == AbstractSciencePlan.STATUS.SUBMITTED ||
             st == AbstractSciencePlan.STATUS.VALIDATED ||
             st == AbstractSciencePlan.STATUS.RUNNING ||
             st == AbstractSciencePlan.STATUS.COMPLETE) {
-            return "This science plan has already been submitted or executed.";
+            return SciencePlanStepOutcome.ALREADY_SUBMITTED;
         }
 
         if (st == AbstractSciencePlan.STATUS.INVALIDATED ||
             st == AbstractSciencePlan.STATUS.CANCELLED) {
-            return "This science plan cannot be submitted because it is " + st + ".";
+            return SciencePlanStepOutcome.CLOSED;
         }
 
         if (st != AbstractSciencePlan.STATUS.TESTED) {
-            return "This science plan must be tested before submission. Current status: " + st;
+            return SciencePlanStepOutcome.NOT_TESTED;
         }
 
-        stored.setStatus(AbstractSciencePlan.STATUS.SUBMITTED);
-        
-        return "Science plan #" + stored.getPlanNo() + " submitted successfully. It now awaits validation by a Science Observer.";
+        if (!stored.compareAndSetStatus(AbstractSciencePlan.STATUS.TESTED, AbstractSciencePlan.STATUS.SUBMITTED)) {
+            return SciencePlanStepOutcome.ALREADY_SUBMITTED;
+        }
+        changeLog.awaitDurable();
+        return SciencePlanStepOutcome.SUBMITTED;
     }
 
     @Override
@@ -330,6 +608,7 @@ public class OCS implements GeminiAPI<SciencePlan, ObservingProgram, ObservingPr
         SciencePlan sp = getSciencePlanByNo(planno);
         if (sp == null) return false;
         sp.setStatus(stssp);
+        changeLog.awaitDurable();
         return true;
     }
 
@@ -341,48 +620,120 @@ public class OCS implements GeminiAPI<SciencePlan, ObservingProgram, ObservingPr
 
     // New overloaded method with option to control status update
     public String testSciencePlan(SciencePlan sciencePlan, boolean markAsTested) {
+        SciencePlanStepOutcome outcome = tryTestSciencePlan(sciencePlan, markAsTested);
+        switch (outcome) {
+            case TESTED:
+                return "Science plan #" + sciencePlan.getPlanNo() + " passed the test. Status updated to TESTED.";
+            case PASSED:
+                return "Science plan #" + sciencePlan.getPlanNo() + " passed the test. Status remains CREATED.";
+            case NOT_CREATED:
+                SciencePlan stored = getSciencePlanByNo(sciencePlan.getPlanNo());
+                return stored == null ? outcome.getMessage()
+                        : outcome.getMessage() + " Current status: " + stored.getStatus();
+            default:
+                return outcome.getMessage();
+        }
+    }
+
+    /**
+     * Check that a CREATED science plan is complete enough to submit.
+     *
+     * @param markAsTested whether a passing plan moves to TESTED
+     * @return TESTED or PASSED, or the check the plan failed
+     */
+    public SciencePlanStepOutcome tryTestSciencePlan(SciencePlan sciencePlan, boolean markAsTested) {
         SciencePlan stored = getSciencePlanByNo(sciencePlan.getPlanNo());
         if (stored == null) {
-            return "Science plan not found.";
+            return SciencePlanStepOutcome.NOT_FOUND;
         }
 
         if (stored.getStatus() != AbstractSciencePlan.STATUS.CREATED) {
-            return "TEST FAILED: Science plan must be in CREATED status. Current status: " + stored.getStatus();
+            return SciencePlanStepOutcome.NOT_CREATED;
         }
 
         if (stored.getFunding() <= 0) {
-            return "TEST FAILED: Invalid funding amount.";
+            return SciencePlanStepOutcome.INVALID_FUNDING;
         }
-        
+
         if (isBlank(stored.getObjective())) {
-            return "TEST FAILED: Missing objective.";
+            return SciencePlanStepOutcome.MISSING_OBJECTIVE;
         }
-        
+
         if (isBlank(stored.getTarget())) {
-            return "TEST FAILED: Missing target.";
+            return SciencePlanStepOutcome.MISSING_TARGET;
         }
 
         // Only update status if markAsTested is true
-        if (markAsTested) {
-            stored.setStatus(AbstractSciencePlan.STATUS.TESTED);
-            return "Science plan #" + stored.getPlanNo() + " passed the test. Status updated to TESTED.";
-        } else {
-            return "Science plan #" + stored.getPlanNo() + " passed the test. Status remains CREATED.";
+        if (!markAsTested) {
+            return SciencePlanStepOutcome.PASSED;
+        }
+        if (!stored.compareAndSetStatus(AbstractSciencePlan.STATUS.CREATED, AbstractSciencePlan.STATUS.TESTED)) {
+            return SciencePlanStepOutcome.NOT_CREATED;
         }
+        changeLog.awaitDurable();
+        return SciencePlanStepOutcome.TESTED;
     }
 
     @Override
     public void deleteAllSciencePlans() {
+        List<SciencePlan> complete = sciencePlans.getCompletePlans();
+        List<SciencePlan> drafts = sciencePlans.getDraftPlans();
         sciencePlans.clear();
-        draftSciencePlans.clear();
-        nextPlanNo = 1;
+        // After the clear, so a photo being filed either lands before its plan's frames are released or is dropped
+        for (SciencePlan sp : complete) {
+            synchronized (sp) {
+                sp.setStatusListener(null);
+            }
+            releaseFrames(sp);
+        }
+        for (SciencePlan sp : drafts) {
+            sp.setStatusListener(null);
+        }
+        // Plan numbers start over, so data left from plans lost in an earlier crash must go too
+        AstronomicalDataStore store = dataStore;
+        if (store != null) {
+            try {
+                store.clear();
+            } catch (IOException e) {
+                System.err.println("Error: Cannot clear the astronomical data: " + e.getMessage());
+            }
+        }
+        dateConflictIndex.clear();
+        planNameIndex.clear();
+        planStatusIndex.clear();
+        observingPrograms.clear();
+        nextPlanNo.set(1);
+        changeLog.plansCleared();
+        changeLog.awaitDurable();
     }
 
     @Override
     public boolean deleteSciencePlanByNo(int planNo) {
-        SciencePlan sp = getSciencePlanByNo(planNo);
+        if (!removeSciencePlan(planNo)) return false;
+        // The plan's observing programs go with it; replaying PLAN_DELETED cascades the same way
+        observingPrograms.removeByPlanNo(planNo);
+        changeLog.planDeleted(planNo);
+        changeLog.awaitDurable();
+        return true;
+    }
+
+    // Remove a plan and its index entries, leaving its observing programs alone
+    private boolean removeSciencePlan(int planNo) {
+        boolean draft = sciencePlans.isDraft(planNo);
+        SciencePlan sp = sciencePlans.remove(planNo);
         if (sp == null) return false;
-        return sciencePlans.remove(sp) || draftSciencePlans.remove(sp);
+        synchronized (sp) {
+            sp.setStatusListener(null);
+            if (!draft) {
+                planStatusIndex.remove(planNo, sp.getStatus());
+            }
+        }
+        releaseFrames(sp);
+        dateConflictIndex.remove(planNo);
+        if (!draft) {
+            planNameIndex.remove(sp.getName());
+        }
+        return true;
     }
 
     @Override
@@ -393,8 +744,8 @@ public class OCS implements GeminiAPI<SciencePlan, ObservingProgram, ObservingPr
             return null;
         }
 
-        if (sciencePlan.getStatus() == AbstractSciencePlan.STATUS.SUBMITTED) {
-            sciencePlan.setStatus(AbstractSciencePlan.STATUS.VALIDATED);
+        if (sciencePlan.compareAndSetStatus(AbstractSciencePlan.STATUS.SUBMITTED, AbstractSciencePlan.STATUS.VALIDATED)) {
+            changeLog.awaitDurable();
             return sciencePlan;
         }
 
@@ -476,6 +827,23 @@ public class OCS implements GeminiAPI<SciencePlan, ObservingProgram, ObservingPr
             return null;
         }
 
+        // Calibrate before claiming the plan, so a failure leaves it VALIDATED for another try
+        GcalCalibration.Solution[] calibration = null;
+        if (calibrationUnit != null) {
+            try {
+                calibration = calibrate(sciencePlan.getPlanNo(), calibrationUnit);
+            } catch (RuntimeException e) {
+                System.err.println("Error: " + calibrationUnit + " calibration failed: " + e.getMessage());
+                return null;
+            }
+        }
+
+        // Only one observing program may claim a validated plan
+        if (!sciencePlan.compareAndSetStatus(AbstractSciencePlan.STATUS.VALIDATED, AbstractSciencePlan.STATUS.RUNNING)) {
+            System.err.println("Error: Science plan must be VALIDATED. Current status: " + sciencePlan.getStatus());
+            return null;
+        }
+
         ObservingProgramConfigs conf = new ObservingProgramConfigs(
                 opticsPrimary,
                 fStop,
@@ -489,7 +857,7 @@ public class OCS implements GeminiAPI<SciencePlan, ObservingProgram, ObservingPr
         );
 
         ObservingProgram op = new ObservingProgram();
-        op.setId(nextObservingProgramId++);
+        op.setId(nextObservingProgramId.getAndIncrement());
         op.setSciencePlan(sciencePlan);
         op.setConfigs(conf);
         op.setObserver(so);
@@ -502,22 +870,57 @@ public class OCS implements GeminiAPI<SciencePlan, ObservingProgram, ObservingPr
         op.setOpticsSecondaryRMS(opticsSecondaryRMS);
         op.setScienceFoldMirrorDegree(scienceFoldMirrorDegree);
         op.setModuleContent(moduleContent);
+        op.setCalibration(calibration);
 
-        observingPrograms.add(op);
-        sciencePlan.setStatus(AbstractSciencePlan.STATUS.RUNNING);
+        observingPrograms.put(op);
+        changeLog.programStored(op);
+        changeLog.awaitDurable();
+
+        observe(sciencePlan, op);
 
         System.out.println("ObservingProgram created successfully with ID: " + op.getId());
         
         return op;
     }
 
+    // Take the arcs of a plan's program with the GCAL lamp and fit their wavelength solutions; also
+    // used to restore the calibration of programs journaled before calibrations were stored
+    static GcalCalibration.Solution[] calibrate(int planNo, AbstractObservingProgramConfigs.CalibrationUnit lamp) {
+        List<double[]> arcs = new ArrayList<>(CALIBRATION_ARCS);
+        for (int i = 0; i < CALIBRATION_ARCS; i++) {
+            arcs.add(GcalCalibration.simulate(lamp, ((long) planNo << 16) + i));
+        }
+        GcalCalibration.Solution[] solutions = GcalCalibration.calibrate(lamp, arcs);
+
+        int calibrated = 0;
+        double rms = 0;
+        for (GcalCalibration.Solution solution : solutions) {
+            if (solution != null) {
+                calibrated++;
+                rms = Math.max(rms, solution.getRmsNm());
+            }
+        }
+        if (calibrated < solutions.length) {
+            System.err.println("Warning: " + (solutions.length - calibrated) + " of " + solutions.length +
+                    " " + lamp + " arcs failed to calibrate for science plan #" + planNo);
+        }
+        if (calibrated > 0) {
+            System.out.printf("Calibrated %d %s arcs, worst RMS %.4f nm%n", calibrated, lamp, rms);
+        }
+        return solutions;
+    }
+
     @Override
     public boolean saveObservingProgram(AbstractObservingProgram op) {
         ObservingProgram observingProgram = (ObservingProgram) op;
         if (observingProgram != null) {
-            if (!observingPrograms.contains(observingProgram)) {
-                observingPrograms.add(observingProgram);
+            // Programs built outside createObservingProgram get an id here; saving again updates in place
+            if (observingProgram.getId() <= 0) {
+                observingProgram.setId(nextObservingProgramId.getAndIncrement());
             }
+            observingPrograms.put(observingProgram);
+            changeLog.programStored(observingProgram);
+            changeLog.awaitDurable();
             return true;
         }
         return false;
@@ -525,62 +928,190 @@ public class OCS implements GeminiAPI<SciencePlan, ObservingProgram, ObservingPr
 
     @Override
     public ObservingProgram getObservingProgramBySciencePlan(AbstractSciencePlan sp) {
-        SciencePlan sciencePlan = (SciencePlan) sp;
-        for (ObservingProgram op : observingPrograms) {
-            if (op.getSciencePlan() != null && op.getSciencePlan().getPlanNo() == sciencePlan.getPlanNo()) {
-                return op;
-            }
+        if (sp == null) return null;
+        return observingPrograms.getFirstByPlanNo(sp.getPlanNo());
+    }
+
+    public ObservingProgram getObservingProgramById(int id) {
+        return observingPrograms.get(id);
+    }
+
+    public boolean deleteObservingProgram(int id) {
+        ObservingProgram op = observingPrograms.remove(id);
+        if (op == null) return false;
+        // The plan stays, but its telescope no longer takes photos for it
+        SciencePlan sp = op.getSciencePlan();
+        TelescopeSite site = sp == null ? null : TelescopeSite.of(sp.getTelescope());
+        if (site != null) {
+            telescopes.get(site).endObservation(sp.getPlanNo());
         }
-        return null;
+        changeLog.programDeleted(id);
+        changeLog.awaitDurable();
+        return true;
     }
 
     public ArrayList<ObservingProgram> getAllObservingPrograms() {
-        return observingPrograms;
+        return observingPrograms.getAll();
+    }
+
+    /**
+     * Get one page of the observing programs in id order, without copying the whole list.
+     *
+     * @param afterId return programs with ids above this, 0 for the first page
+     * @param limit the maximum number of programs
+     */
+    public List<ObservingProgram> getObservingPrograms(int afterId, int limit) {
+        if (limit <= 0) return new ArrayList<>();
+        return observingPrograms.getPage(afterId, limit);
     }
 
     @Override
     public String addUnavailableDate(Date datevalue) {
-        if (!unavailableDates.contains(datevalue)) {
-            unavailableDates.add(datevalue);
-            return "Added unavailable date: " + datevalue;
+        return addUnavailableDate(null, datevalue);
+    }
+
+    /**
+     * Mark a day as unavailable for one telescope. New science plans on that telescope
+     * whose date range includes the day are saved as drafts.
+     *
+     * @param telescope the telescope, or null for every telescope
+     * @param datevalue any time on the unavailable day
+     * @return a message describing the result
+     */
+    public String addUnavailableDate(String telescope, Date datevalue) {
+        UnavailableDateOutcome outcome = tryAddUnavailableDate(telescope, datevalue);
+        return outcome.isSuccess() ? "Added unavailable date: " + datevalue : outcome.getMessage();
+    }
+
+    /**
+     * @param telescope the telescope, or null for every telescope
+     * @param datevalue any time on the unavailable day
+     * @return ADDED, or why the day was not added
+     */
+    public UnavailableDateOutcome tryAddUnavailableDate(String telescope, Date datevalue) {
+        if (datevalue == null) {
+            return UnavailableDateOutcome.DATE_REQUIRED;
+        }
+        // Journaled under the calendar's monitor so add and delete records keep their order
+        synchronized (blackouts) {
+            if (!blackouts.add(telescope, datevalue)) {
+                return UnavailableDateOutcome.ALREADY_EXISTS;
+            }
+            changeLog.unavailableDateAdded(telescope, datevalue);
         }
-        return "Date already exists.";
+        changeLog.awaitDurable();
+        return UnavailableDateOutcome.ADDED;
     }
 
     @Override
     public String deleteUnavailableDate(Date datevalue) {
-        if (unavailableDates.remove(datevalue)) {
-            return "Removed unavailable date: " + datevalue;
+        return deleteUnavailableDate(null, datevalue);
+    }
+
+    /**
+     * @param telescope the telescope, or null for a day unavailable for every telescope
+     * @param datevalue any time on the unavailable day
+     * @return a message describing the result
+     */
+    public String deleteUnavailableDate(String telescope, Date datevalue) {
+        UnavailableDateOutcome outcome = tryDeleteUnavailableDate(telescope, datevalue);
+        return outcome.isSuccess() ? "Removed unavailable date: " + datevalue : outcome.getMessage();
+    }
+
+    /**
+     * @param telescope the telescope, or null for a day unavailable for every telescope
+     * @param datevalue any time on the unavailable day
+     * @return REMOVED, or NOT_FOUND if the day was not unavailable
+     */
+    public UnavailableDateOutcome tryDeleteUnavailableDate(String telescope, Date datevalue) {
+        if (datevalue == null) {
+            return UnavailableDateOutcome.NOT_FOUND;
         }
-        return "Date not found.";
+        synchronized (blackouts) {
+            if (!blackouts.remove(telescope, datevalue)) {
+                return UnavailableDateOutcome.NOT_FOUND;
+            }
+            changeLog.unavailableDateDeleted(telescope, datevalue);
+        }
+        changeLog.awaitDurable();
+        return UnavailableDateOutcome.REMOVED;
     }
 
+    /**
+     * @return the days unavailable for every telescope, at the start of each day, ascending
+     */
     @Override
     public ArrayList<Date> getAllObservationSchedule() {
-        return unavailableDates;
+        return blackouts.getDates(null);
+    }
+
+    /**
+     * @param telescope the telescope
+     * @return the days unavailable for this telescope only, at the start of each day, ascending
+     */
+    public ArrayList<Date> getUnavailableDates(String telescope) {
+        if (telescope == null) return new ArrayList<>();
+        return blackouts.getDates(telescope);
+    }
+
+    /**
+     * Find the first day in [start, end] on which the telescope cannot observe.
+     *
+     * @param telescope the telescope (Hawaii or Chile)
+     * @param start the start of the range
+     * @param end the end of the range
+     * @return the start of that day, or null if the telescope is available for the whole range
+     */
+    public Date getFirstUnavailableDate(String telescope, Date start, Date end) {
+        if (start == null || end == null) return null;
+        long day = blackouts.firstBlackout(telescope, start, end);
+        return day == DayBitmap.NONE ? null : blackouts.toDate(day);
+    }
+
+    List<String> getTelescopesWithUnavailableDates() {
+        return blackouts.getTelescopes();
     }
 
     @Override
     public String getConfigurations() {
-        if (configurations.isEmpty()) {
-            return "No configurations installed.";
+        synchronized (configurations) {
+            if (configurations.isEmpty()) {
+                return "No configurations installed.";
+            }
+            return String.join(",", configurations);
+        }
+    }
+
+    /**
+     * @return the configuration file paths, in the order they were added
+     */
+    public List<String> getConfigurationList() {
+        synchronized (configurations) {
+            return new ArrayList<>(configurations);
         }
-        return String.join(",", configurations);
     }
 
     @Override
     public boolean addConfiguration(String confFilePath) {
-        if (!configurations.contains(confFilePath)) {
+        synchronized (configurations) {
+            if (configurations.contains(confFilePath)) {
+                return false;
+            }
             configurations.add(confFilePath);
-            return true;
+            changeLog.configurationsChanged(configurations);
         }
-        return false;
+        changeLog.awaitDurable();
+        return true;
     }
 
     @Override
     public boolean removeConfiguration(int confNo) {
-        if (confNo < 0 || confNo >= configurations.size()) return false;
-        configurations.remove(confNo);
+        synchronized (configurations) {
+            if (confNo < 0 || confNo >= configurations.size()) return false;
+            configurations.remove(confNo);
+            changeLog.configurationsChanged(configurations);
+        }
+        changeLog.awaitDurable();
         return true;
     }
 
@@ -619,19 +1150,299 @@ public class OCS implements GeminiAPI<SciencePlan, ObservingProgram, ObservingPr
         return "http://localhost:8080/telescope-live";
     }
 
+    /**
+     * Run a command on Gemini North (Hawaii). See {@link #executeCommand(String, String)}.
+     */
     @Override
     public String executeCommand(String command) {
-        return "Executed command: " + command.toUpperCase();
+        return executeCommand(TelescopeSite.HAWAII.getDisplayName(), command);
     }
 
+    /**
+     * Run a control command or status query on a telescope's simulator. Control commands
+     * of one telescope run one at a time in arrival order; status queries answer at once.
+     *
+     * @param telescope the telescope (Hawaii or Chile)
+     * @param command the command, in any case
+     * @return the result, or a message naming the unknown telescope or command
+     */
+    public String executeCommand(String telescope, String command) {
+        TelescopeSite site = TelescopeSite.of(telescope);
+        if (site == null) {
+            return "Unknown telescope: " + telescope;
+        }
+        return telescopes.get(site).execute(command);
+    }
+
+    /**
+     * Run a command script, e.g. "START; UP x3; FOCUS; TAKE_PHOTO; STOP", on a telescope as one
+     * batch. The script is compiled once and cached; it stops at the first command refused.
+     *
+     * @param telescope the telescope (Hawaii or Chile)
+     * @param script commands separated by semicolons or new lines, each with an optional repeat count
+     * @return a summary of the run, or why the script or telescope is invalid
+     */
+    public String executeScript(String telescope, String script) {
+        TelescopeSite site = TelescopeSite.of(telescope);
+        if (site == null) {
+            return "Unknown telescope: " + telescope;
+        }
+        CommandScript compiled;
+        try {
+            compiled = CommandScript.compile(script);
+        } catch (IllegalArgumentException e) {
+            return "Invalid script: " + e.getMessage();
+        }
+        return telescopes.get(site).execute(compiled).toString();
+    }
+
+    /**
+     * @return the telescope's current position and status, or null for an unknown telescope
+     */
+    public VirtualTelescope.Snapshot getTelescopeSnapshot(String telescope) {
+        TelescopeSite site = TelescopeSite.of(telescope);
+        return site == null ? null : telescopes.get(site).getSnapshot();
+    }
+
+    /**
+     * @return the number of the plan the telescope's photos go to, or -1 if none or for an unknown telescope
+     */
+    public int getObservingPlanNo(String telescope) {
+        TelescopeSite site = TelescopeSite.of(telescope);
+        return site == null ? -1 : telescopes.get(site).getObservingPlanNo();
+    }
+
+    /**
+     * Set the resolution and bit depth of a telescope's following photos.
+     *
+     * @return a confirmation, or why the telescope or format is invalid
+     */
+    public String setFrameFormat(String telescope, int width, int height, int bitDepth) {
+        TelescopeSite site = TelescopeSite.of(telescope);
+        if (site == null) {
+            return "Unknown telescope: " + telescope;
+        }
+        SkyFrame.Format format;
+        try {
+            format = new SkyFrame.Format(width, height, bitDepth);
+        } catch (IllegalArgumentException e) {
+            return "Invalid frame format: " + e.getMessage();
+        }
+        telescopes.get(site).setFrameFormat(format);
+        return site.getDisplayName() + " frames are now " + format + ".";
+    }
+
+    // Frame sink of the telescopes: process a photo and file it under the plan being observed
+    private void attachFrame(int planNo, SkyFrame frame) {
+        SciencePlan sp = sciencePlans.get(planNo);
+        if (sp == null) {
+            frame.release();
+            return;
+        }
+        AstronomicalData data = new AstronomicalData(
+                sp.getFileType() == null ? null : sp.getFileType().name(),
+                sp.getFileQuality() == null ? null : sp.getFileQuality().name(),
+                sp.getColorType() == null ? null : sp.getColorType().name(),
+                sp.getContrastValue(), sp.getBrightnessValue(), sp.getSaturationValue(),
+                0, sp.getExposureValue(), 0, 0, 0, 0, 0,
+                "plan" + planNo + "-" + (countAstronomicalData(sp) + 1), frame.toString());
+        // Apply the plan's processing; the raw frame is not kept
+        ToneCurve curve = ToneCurve.of(data, frame.getBitDepth());
+        if (curve.isIdentity()) {
+            data.setFrame(frame);
+        } else {
+            data.setFrame(curve.apply(frame));
+            frame.release();
+        }
+        // Under the plan's monitor, which removal takes after unlisting the plan and before releasing its
+        // frames: a plan removed in the meantime gets nothing
+        AstronomicalDataStore store = dataStore;
+        synchronized (sp) {
+            if (sciencePlans.get(planNo) != sp) {
+                data.releaseFrame();
+                return;
+            }
+            if (store == null) {
+                sp.addAstronomicalData(data);
+                return;
+            }
+            try {
+                store.append(planNo, data);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error: Cannot store " + data.getFileName() + ": " + e.getMessage());
+            }
+        }
+        data.releaseFrame();
+    }
+
+    // Photos the plan's telescope takes from now on go to the plan, through the program's optics
+    private void observe(SciencePlan sp, ObservingProgram op) {
+        TelescopeSite site = TelescopeSite.of(sp.getTelescope());
+        if (site != null) {
+            telescopes.get(site).observe(sp.getPlanNo(), Validation.CATALOGUE.find(sp.getTarget()),
+                    OpticsPsf.of(op.getOpticsPrimary(), op.getFStop(), op.getOpticsSecondaryRMS()));
+        }
+    }
+
+    // Stop observing a removed plan and hand its frames back to the pool
+    private void releaseFrames(SciencePlan sp) {
+        for (VirtualTelescope t : telescopes.values()) {
+            t.endObservation(sp.getPlanNo());
+        }
+        sp.getAstronomicalData().releaseFrames();
+        AstronomicalDataStore store = dataStore;
+        if (store != null) {
+            try {
+                store.removePlan(sp.getPlanNo());
+            } catch (IOException e) {
+                System.err.println("Error: Cannot remove the data of plan #" + sp.getPlanNo() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return the number of data taken for the plan
+     */
+    public int countAstronomicalData(SciencePlan sciencePlan) {
+        AstronomicalDataStore store = dataStore;
+        return store != null ? store.count(sciencePlan.getPlanNo()) : sciencePlan.getAstronomicalData().size();
+    }
+
+    /**
+     * @return the index-th data taken for the plan, oldest first, or null if there is none
+     */
+    public AstronomicalData getAstronomicalData(SciencePlan sciencePlan, int index) {
+        if (sciencePlan == null) return null;
+        AstronomicalDataStore store = dataStore;
+        if (store != null) {
+            return store.get(sciencePlan.getPlanNo(), index);
+        }
+        AstronomicalDataTable data = sciencePlan.getAstronomicalData();
+        synchronized (data) {
+            return index < 0 || index >= data.size() ? null : data.get(index);
+        }
+    }
+
+    /**
+     * @return the latest data taken for the plan, or null if none has been taken
+     */
     @Override
     public AstronomicalData getAstronomicalData(SciencePlan sciencePlan) throws IOException {
-        return null;
+        if (sciencePlan == null) return null;
+        AstronomicalDataStore store = dataStore;
+        if (store != null) {
+            return store.getLatest(sciencePlan.getPlanNo());
+        }
+        AstronomicalDataTable data = sciencePlan.getAstronomicalData();
+        synchronized (data) {
+            return data.isEmpty() ? null : data.get(data.size() - 1);
+        }
     }
 
+    /**
+     * Remove the index-th data taken for the plan, oldest first. A stored record is only marked
+     * removed; its space is reclaimed in the background.
+     *
+     * @return the data removed, or null if there is none; the caller owns its frame
+     */
     @Override
     public AstronomicalData removeAstronomicalData(SciencePlan sciencePlan, int index) throws IOException {
-        return null;
+        if (sciencePlan == null) return null;
+        AstronomicalDataStore store = dataStore;
+        if (store != null) {
+            return store.remove(sciencePlan.getPlanNo(), index);
+        }
+        AstronomicalDataTable data = sciencePlan.getAstronomicalData();
+        synchronized (data) {
+            return index < 0 || index >= data.size() ? null : data.remove(index);
+        }
+    }
+
+    /**
+     * Export the plan's data that has frames to a {@link FrameFile}.
+     *
+     * @return how many frames were written, or why the export failed
+     */
+    public String exportAstronomicalData(SciencePlan sciencePlan, String path) {
+        if (sciencePlan == null) {
+            return "Error: No science plan to export.";
+        }
+        int written = 0;
+        try (FrameFile.Writer writer = new FrameFile.Writer(Path.of(path))) {
+            int n = countAstronomicalData(sciencePlan);
+            for (int i = 0; i < n; i++) {
+                AstronomicalData data = getAstronomicalData(sciencePlan, i);
+                if (data != null && data.getFrame() != null) {
+                    writer.write(sciencePlan.getPlanNo(), data);
+                    written++;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            return "Error: Cannot export science plan #" + sciencePlan.getPlanNo() + ": " + e.getMessage();
+        }
+        return "Exported " + written + " frame(s) of science plan #" + sciencePlan.getPlanNo() + " to " + path + ".";
+    }
+
+    void setAstronomicalDataStore(AstronomicalDataStore dataStore) {
+        this.dataStore = dataStore;
+    }
+
+    void setChangeLog(ChangeLog changeLog) {
+        this.changeLog = changeLog == null ? ChangeLog.NONE : changeLog;
+    }
+
+    // --- State access for snapshots and recovery ---
+
+    int getNextPlanNo() {
+        return nextPlanNo.get();
+    }
+
+    int getNextObservingProgramId() {
+        return nextObservingProgramId.get();
+    }
+
+    void restoreIdCounters(int planNo, int observingProgramId) {
+        nextPlanNo.set(planNo);
+        nextObservingProgramId.set(observingProgramId);
+    }
+
+    void restoreSciencePlan(SciencePlan sp, boolean draft) {
+        removeSciencePlan(sp.getPlanNo());
+        store(sp, draft);
+        // Programs already restored for this plan refer to the object it replaces
+        for (ObservingProgram op : observingPrograms.getByPlanNo(sp.getPlanNo())) {
+            op.setSciencePlan(sp);
+        }
+    }
+
+    boolean isDraftSciencePlan(int planNo) {
+        return sciencePlans.isDraft(planNo);
+    }
+
+    void restoreObservingProgram(ObservingProgram op) {
+        observingPrograms.put(op);
+    }
+
+    // Point the telescopes back at the RUNNING plans with a program, as createObservingProgram left them
+    void resumeObservations() {
+        for (SciencePlan sp : getSciencePlansByStatus(AbstractSciencePlan.STATUS.RUNNING)) {
+            ObservingProgram op = observingPrograms.getFirstByPlanNo(sp.getPlanNo());
+            if (op == null) continue;
+            try {
+                observe(sp, op);
+            } catch (IllegalArgumentException e) {
+                // A program saved without createObservingProgram's checks
+                System.err.println("Error: Cannot resume observing science plan #" + sp.getPlanNo() + ": " +
+                        e.getMessage());
+            }
+        }
+    }
+
+    void restoreConfigurations(List<String> confFilePaths) {
+        synchronized (configurations) {
+            configurations.clear();
+            configurations.addAll(confFilePaths);
+        }
     }
 
     private boolean isBlank(String s) {
@@ -0,0 +1,137 @@
+package edu.gemini;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import edu.gemini.model.StarSystem;
+
+/**
+ * Precomputed answer to "can this telescope observe this constellation in this month?".
+ * <p>
+ * A constellation is observable from a site when its quadrant belongs to the site (see
+ * {@link TelescopeSite#forQuadrant}), the site's latitude lies within the constellation's
+ * visible band (from {@code startingLatitude} north to {@code endingLatitude} south) and the
+ * month is within {@link #SEASON_HALF_WIDTH} months of the constellation's best month. For
+ * each site the matrix keeps a 12-bit month mask per constellation, and for each site and
+ * month a bitset of constellation ordinals, so both directions of the query are a few bit
+ * operations. Months are calendar months in UTC, numbered 1 to 12.
+ */
+public final class ObservabilityMatrix {
+
+    /** How many months before and after its best month a constellation can be observed. */
+    public static final int SEASON_HALF_WIDTH = 2;
+
+    private static final int ALL_MONTHS = (1 << 12) - 1;
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    private static final ObservabilityMatrix DEFAULT = new ObservabilityMatrix(StarSystem.CONSTELLATIONS.values());
+
+    private final StarSystem.CONSTELLATIONS[] constellations;
+    // [site][constellation ordinal] -> bit (month - 1) set when observable
+    private final int[][] monthMasks;
+    // [site][month - 1] -> bitset over constellation ordinals
+    private final long[][][] targetsByMonth;
+
+    ObservabilityMatrix(StarSystem.CONSTELLATIONS[] constellations) {
+        this.constellations = constellations.clone();
+        TelescopeSite[] sites = TelescopeSite.values();
+        int words = (constellations.length + 63) >>> 6;
+        this.monthMasks = new int[sites.length][constellations.length];
+        this.targetsByMonth = new long[sites.length][12][words];
+
+        for (TelescopeSite site : sites) {
+            for (StarSystem.CONSTELLATIONS c : constellations) {
+                int mask = TelescopeSite.forQuadrant(c.quadrant) == site && visibleFrom(c, site.getLatitude())
+                        ? seasonMask(c.month) : 0;
+                monthMasks[site.ordinal()][c.ordinal()] = mask;
+                for (int m = 0; m < 12; m++) {
+                    if ((mask & (1 << m)) != 0) {
+                        targetsByMonth[site.ordinal()][m][c.ordinal() >>> 6] |= 1L << c.ordinal();
+                    }
+                }
+            }
+        }
+    }
+
+    public static ObservabilityMatrix getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return the months the constellation can be observed from the site, bit (month - 1) set for each
+     */
+    public int getObservableMonths(StarSystem.CONSTELLATIONS c, TelescopeSite site) {
+        return monthMasks[site.ordinal()][c.ordinal()];
+    }
+
+    public boolean isObservable(StarSystem.CONSTELLATIONS c, TelescopeSite site, int month) {
+        return month >= 1 && month <= 12 && (monthMasks[site.ordinal()][c.ordinal()] & (1 << (month - 1))) != 0;
+    }
+
+    /**
+     * @return true if the constellation can be observed from the site in every month the range touches
+     */
+    public boolean isObservable(StarSystem.CONSTELLATIONS c, TelescopeSite site, Date start, Date end) {
+        int needed = monthsMask(start.getTime(), end.getTime());
+        return (needed & ~monthMasks[site.ordinal()][c.ordinal()]) == 0;
+    }
+
+    /**
+     * @param month 1 to 12
+     * @return the constellations observable from the site in that month, in catalogue order
+     */
+    public List<StarSystem.CONSTELLATIONS> getObservableTargets(TelescopeSite site, int month) {
+        List<StarSystem.CONSTELLATIONS> result = new ArrayList<>();
+        if (month < 1 || month > 12) return result;
+        long[] bits = targetsByMonth[site.ordinal()][month - 1];
+        for (int w = 0; w < bits.length; w++) {
+            for (long word = bits[w]; word != 0; word &= word - 1) {
+                result.add(constellations[(w << 6) + Long.numberOfTrailingZeros(word)]);
+            }
+        }
+        return result;
+    }
+
+    // The visible band runs from startingLatitude north to endingLatitude south
+    private static boolean visibleFrom(StarSystem.CONSTELLATIONS c, double latitude) {
+        return latitude <= c.startingLatitude && latitude >= -c.endingLatitude;
+    }
+
+    // The best month and SEASON_HALF_WIDTH months either side, wrapping around the year
+    private static int seasonMask(int bestMonth) {
+        if (bestMonth < 1 || bestMonth > 12) return ALL_MONTHS;
+        int mask = 0;
+        for (int d = -SEASON_HALF_WIDTH; d <= SEASON_HALF_WIDTH; d++) {
+            mask |= 1 << Math.floorMod(bestMonth - 1 + d, 12);
+        }
+        return mask;
+    }
+
+    /**
+     * @return the months touched by [start, end], bit (month - 1) set for each
+     */
+    static int monthsMask(long startMs, long endMs) {
+        long first = monthIndex(startMs);
+        long last = monthIndex(endMs);
+        if (last < first) return 0;
+        long span = last - first + 1;
+        if (span >= 12) return ALL_MONTHS;
+        int bits = (1 << span) - 1;
+        int shift = Math.floorMod(first, 12);
+        return ((bits << shift) | (bits >>> (12 - shift))) & ALL_MONTHS;
+    }
+
+    // Months since year 0 of the UTC date, from the days-to-civil algorithm; no allocation
+    static long monthIndex(long epochMs) {
+        long z = Math.floorDiv(epochMs, DAY_MS) + 719_468;
+        long era = Math.floorDiv(z, 146_097);
+        long doe = z - era * 146_097;
+        long yoe = (doe - doe / 1_460 + doe / 36_524 - doe / 146_096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        long month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+        return year * 12 + month - 1;
+    }
+}
@@ -7,6 +7,8 @@ public class ObservingProgram extends AbstractObservingProgram {
     private SciencePlan sciencePlan;
     private ObservingProgramConfigs configs;
     private ScienceObserver observer;
+    // Wavelength solutions from the arcs taken at program start; not persisted
+    private volatile GcalCalibration.Solution[] calibration;
 
     public ObservingProgram() {
         super();
@@ -50,6 +52,18 @@ public class ObservingProgram extends AbstractObservingProgram {
         this.observer = observer;
     }
 
+    /**
+     * @return a solution per arc taken at program start, null where an arc failed to calibrate;
+     *         null if the program was not started with a calibration lamp
+     */
+    public GcalCalibration.Solution[] getCalibration() {
+        return calibration;
+    }
+
+    public void setCalibration(GcalCalibration.Solution[] calibration) {
+        this.calibration = calibration;
+    }
+
     @Override
     public String toString() {
         return "ObservingProgram{" +
@@ -0,0 +1,152 @@
+package edu.gemini;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Store for observing programs, keyed by program id and indexed by the number of
+ * the science plan each program runs. Lookup, insert and removal by id are O(1);
+ * finding or removing the programs of one plan costs O(programs of that plan),
+ * so cascading a plan delete never scans the other programs.
+ * <p>
+ * Reads never take a lock. Writes are serialized on the repository so the two
+ * maps always change together.
+ */
+class ObservingProgramRepository {
+
+    private static final Comparator<ObservingProgram> BY_ID = Comparator.comparingInt(ObservingProgram::getId);
+
+    // Programs without a science plan are indexed under this number
+    private static final int NO_PLAN = -1;
+
+    private final ConcurrentHashMap<Integer, ObservingProgram> programs = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, ConcurrentSkipListSet<Integer>> idsByPlanNo = new ConcurrentHashMap<>();
+    // Every id in order, for paging through the programs
+    private final ConcurrentSkipListSet<Integer> allIds = new ConcurrentSkipListSet<>();
+
+    public ObservingProgram get(int id) {
+        return programs.get(id);
+    }
+
+    public boolean contains(int id) {
+        return programs.containsKey(id);
+    }
+
+    /**
+     * Insert a program, replacing any stored program with the same id.
+     *
+     * @return the replaced program, or null
+     */
+    public synchronized ObservingProgram put(ObservingProgram op) {
+        ObservingProgram old = programs.put(op.getId(), op);
+        if (old != null) {
+            unindex(old.getId(), planNoOf(old));
+        }
+        idsByPlanNo.computeIfAbsent(planNoOf(op), k -> new ConcurrentSkipListSet<>()).add(op.getId());
+        allIds.add(op.getId());
+        return old;
+    }
+
+    public synchronized ObservingProgram remove(int id) {
+        ObservingProgram op = programs.remove(id);
+        if (op != null) {
+            unindex(id, planNoOf(op));
+            allIds.remove(id);
+        }
+        return op;
+    }
+
+    /**
+     * @return the program with the lowest id running the given plan, or null
+     */
+    public ObservingProgram getFirstByPlanNo(int planNo) {
+        ConcurrentSkipListSet<Integer> ids = idsByPlanNo.get(planNo);
+        if (ids == null) return null;
+        for (int id : ids) {
+            ObservingProgram op = programs.get(id);
+            if (op != null) return op;
+        }
+        return null;
+    }
+
+    /**
+     * @return the programs running the given plan, in id order
+     */
+    public List<ObservingProgram> getByPlanNo(int planNo) {
+        List<ObservingProgram> result = new ArrayList<>();
+        ConcurrentSkipListSet<Integer> ids = idsByPlanNo.get(planNo);
+        if (ids != null) {
+            for (int id : ids) {
+                ObservingProgram op = programs.get(id);
+                if (op != null) result.add(op);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Remove every program running the given plan.
+     *
+     * @return the removed programs, in id order
+     */
+    public synchronized List<ObservingProgram> removeByPlanNo(int planNo) {
+        List<ObservingProgram> removed = new ArrayList<>();
+        ConcurrentSkipListSet<Integer> ids = idsByPlanNo.remove(planNo);
+        if (ids != null) {
+            for (int id : ids) {
+                ObservingProgram op = programs.remove(id);
+                allIds.remove(id);
+                if (op != null) removed.add(op);
+            }
+        }
+        return removed;
+    }
+
+    public synchronized void clear() {
+        programs.clear();
+        idsByPlanNo.clear();
+        allIds.clear();
+    }
+
+    public int size() {
+        return programs.size();
+    }
+
+    // Snapshot of all programs, in id (creation) order
+    public ArrayList<ObservingProgram> getAll() {
+        ArrayList<ObservingProgram> result = new ArrayList<>(programs.values());
+        result.sort(BY_ID);
+        return result;
+    }
+
+    /**
+     * @return up to limit programs with ids above afterId, in id order
+     */
+    public List<ObservingProgram> getPage(int afterId, int limit) {
+        List<ObservingProgram> result = new ArrayList<>();
+        for (int id : allIds.tailSet(afterId, false)) {
+            if (result.size() >= limit) break;
+            ObservingProgram op = programs.get(id);
+            // Removed since the id was read
+            if (op != null) result.add(op);
+        }
+        return result;
+    }
+
+    private void unindex(int id, int planNo) {
+        ConcurrentSkipListSet<Integer> ids = idsByPlanNo.get(planNo);
+        if (ids != null) {
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                idsByPlanNo.remove(planNo, ids);
+            }
+        }
+    }
+
+    private static int planNoOf(ObservingProgram op) {
+        return op.getSciencePlan() == null ? NO_PLAN : op.getSciencePlan().getPlanNo();
+    }
+}
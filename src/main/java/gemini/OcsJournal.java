@@ -0,0 +1,609 @@
+package edu.gemini;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import edu.gemini.model.AbstractSciencePlan;
+
+/**
+ * Append-only, checksummed binary journal of the changes made to an OCS.
+ * <p>
+ * Each record is framed as {@code [int length][long seq][byte type][payload][int crc32]},
+ * where the CRC covers the sequence number, type and payload. Records are appended to an
+ * in-memory buffer and a single writer thread flushes whole batches followed by one fsync
+ * (group commit), so concurrent writers share the cost of a sync instead of paying one each.
+ * <p>
+ * The journal is split into segment files named after the sequence number of their first
+ * record. {@link #rotate()} starts a new segment so that everything up to a snapshot can be
+ * deleted once the snapshot is on disk.
+ */
+final class OcsJournal implements OCS.ChangeLog, Closeable {
+
+    static final byte PLAN_STORED = 1;
+    static final byte PLAN_STATUS_CHANGED = 2;
+    static final byte PLAN_DELETED = 3;
+    static final byte PLANS_CLEARED = 4;
+    static final byte PROGRAM_STORED = 5;
+    static final byte UNAVAILABLE_DATE_ADDED = 6;
+    static final byte UNAVAILABLE_DATE_DELETED = 7;
+    static final byte CONFIGURATIONS_CHANGED = 8;
+    static final byte PROGRAM_DELETED = 9;
+    static final byte TELESCOPE_DATE_ADDED = 10;
+    static final byte TELESCOPE_DATE_DELETED = 11;
+    // Replaces PROGRAM_STORED, whose records lack the program's calibration
+    static final byte CALIBRATED_PROGRAM_STORED = 12;
+
+    static final String SEGMENT_PREFIX = "journal-";
+    static final String SEGMENT_SUFFIX = ".log";
+
+    // Sanity bound used to detect a garbage length when reading a torn tail
+    private static final int MAX_RECORD_LENGTH = 64 * 1024 * 1024;
+    private static final int HEADER_LENGTH = 4 + 8 + 1;
+    private static final int TRAILER_LENGTH = 4;
+
+    private interface Payload {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private final Path directory;
+    private final boolean waitForSync;
+    // A ReentrantLock rather than a monitor: callers of awaitDurable may be virtual threads, which a
+    // monitor wait would pin to their carrier for the whole fsync
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition pendingWork = lock.newCondition();
+    private final Condition synced = lock.newCondition();
+    private final Condition rotated = lock.newCondition();
+    private final CRC32 crc = new CRC32();
+    private final Thread writer;
+    // Sequence number of the last record appended by each thread, for awaitDurable
+    private final ThreadLocal<long[]> threadLastSeq = ThreadLocal.withInitial(() -> new long[1]);
+
+    // Guarded by lock
+    private FileChannel channel;
+    private byte[] pending = new byte[64 * 1024];
+    private byte[] spare = new byte[64 * 1024];
+    private int pendingSize;
+    private long lastSeq;
+    private long syncedSeq;
+    private boolean rotating;
+    private boolean closed;
+    private IOException failure;
+
+    /**
+     * Open a new journal segment starting after the given sequence number.
+     *
+     * @param directory the directory holding the journal segments
+     * @param lastSeq the sequence number of the last record already in the journal
+     * @param waitForSync true to make {@link #awaitDurable()} wait until the caller's records are on disk
+     */
+    OcsJournal(Path directory, long lastSeq, boolean waitForSync) throws IOException {
+        this.directory = directory;
+        this.waitForSync = waitForSync;
+        this.lastSeq = lastSeq;
+        this.syncedSeq = lastSeq;
+        this.channel = openSegment(lastSeq + 1);
+        this.writer = new Thread(this::writeLoop, "ocs-journal-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // --- OCS.ChangeLog ---
+
+    @Override
+    public void planStored(SciencePlan sp, boolean draft) {
+        append(PLAN_STORED, out -> {
+            out.writeBoolean(draft);
+            StateCodec.writePlan(out, sp);
+        });
+    }
+
+    @Override
+    public void planStatusChanged(int planNo, AbstractSciencePlan.STATUS status) {
+        append(PLAN_STATUS_CHANGED, out -> {
+            out.writeInt(planNo);
+            StateCodec.writeStatus(out, status);
+        });
+    }
+
+    @Override
+    public void planDeleted(int planNo) {
+        append(PLAN_DELETED, out -> out.writeInt(planNo));
+    }
+
+    @Override
+    public void plansCleared() {
+        append(PLANS_CLEARED, out -> { });
+    }
+
+    @Override
+    public void programStored(ObservingProgram op) {
+        append(CALIBRATED_PROGRAM_STORED, out -> StateCodec.writeProgram(out, op));
+    }
+
+    @Override
+    public void programDeleted(int id) {
+        append(PROGRAM_DELETED, out -> out.writeInt(id));
+    }
+
+    @Override
+    public void unavailableDateAdded(String telescope, Date date) {
+        if (telescope == null) {
+            append(UNAVAILABLE_DATE_ADDED, out -> StateCodec.writeDate(out, date));
+        } else {
+            append(TELESCOPE_DATE_ADDED, out -> {
+                StateCodec.writeString(out, telescope);
+                StateCodec.writeDate(out, date);
+            });
+        }
+    }
+
+    @Override
+    public void unavailableDateDeleted(String telescope, Date date) {
+        if (telescope == null) {
+            append(UNAVAILABLE_DATE_DELETED, out -> StateCodec.writeDate(out, date));
+        } else {
+            append(TELESCOPE_DATE_DELETED, out -> {
+                StateCodec.writeString(out, telescope);
+                StateCodec.writeDate(out, date);
+            });
+        }
+    }
+
+    @Override
+    public void configurationsChanged(List<String> configurations) {
+        append(CONFIGURATIONS_CHANGED, out -> {
+            out.writeInt(configurations.size());
+            for (String conf : configurations) {
+                StateCodec.writeString(out, conf);
+            }
+        });
+    }
+
+    // --- Writing ---
+
+    private void append(byte type, Payload payload) {
+        byte[] body;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            payload.write(new DataOutputStream(bytes));
+            body = bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        long seq;
+        lock.lock();
+        try {
+            while (rotating) {
+                awaitUninterruptibly(rotated);
+            }
+            checkUsable();
+            seq = ++lastSeq;
+
+            ensureCapacity(HEADER_LENGTH + body.length + TRAILER_LENGTH);
+            ByteBuffer frame = ByteBuffer.wrap(pending, pendingSize, HEADER_LENGTH + body.length + TRAILER_LENGTH);
+            frame.putInt(body.length);
+            frame.putLong(seq);
+            frame.put(type);
+            frame.put(body);
+            crc.reset();
+            crc.update(pending, pendingSize + 4, 8 + 1 + body.length);
+            frame.putInt((int) crc.getValue());
+            pendingSize = frame.position();
+            pendingWork.signal();
+        } finally {
+            lock.unlock();
+        }
+        threadLastSeq.get()[0] = seq;
+    }
+
+    /**
+     * Block until the records appended by the calling thread are on disk. OCS calls this at the end of
+     * every mutating operation, after it has released its locks, so a slow sync never holds up other
+     * writers and one fsync covers every record appended in the meantime.
+     */
+    @Override
+    public void awaitDurable() {
+        if (waitForSync) {
+            awaitSynced(threadLastSeq.get()[0]);
+        }
+    }
+
+    /**
+     * Block until every record appended so far is on disk.
+     */
+    public void sync() {
+        long seq;
+        lock.lock();
+        try {
+            seq = lastSeq;
+        } finally {
+            lock.unlock();
+        }
+        awaitSynced(seq);
+    }
+
+    private void awaitSynced(long seq) {
+        lock.lock();
+        try {
+            while (syncedSeq < seq) {
+                checkUsable();
+                awaitUninterruptibly(synced);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Make every record appended so far durable and continue in a new segment.
+     *
+     * @return the sequence number of the last record in the closed segment
+     */
+    public long rotate() throws IOException {
+        lock.lock();
+        try {
+            while (rotating) {
+                awaitUninterruptibly(rotated);
+            }
+            rotating = true;
+            try {
+                while (syncedSeq < lastSeq) {
+                    checkUsable();
+                    awaitUninterruptibly(synced);
+                }
+                // The writer is idle now: nothing is pending and new appends wait for rotating
+                channel.force(true);
+                channel.close();
+                channel = openSegment(lastSeq + 1);
+                return lastSeq;
+            } finally {
+                rotating = false;
+                rotated.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getLastSeq() {
+        lock.lock();
+        try {
+            return lastSeq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) return;
+            closed = true;
+            signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.lock();
+        try {
+            channel.close();
+            if (failure != null) throw failure;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            byte[] batch;
+            int size;
+            long batchSeq;
+            FileChannel target;
+            lock.lock();
+            try {
+                while (pendingSize == 0 && !closed) {
+                    awaitUninterruptibly(pendingWork);
+                }
+                if (pendingSize == 0) {
+                    return;
+                }
+                batch = pending;
+                size = pendingSize;
+                batchSeq = lastSeq;
+                target = channel;
+                pending = spare;
+                pendingSize = 0;
+            } finally {
+                lock.unlock();
+            }
+
+            IOException error = null;
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(batch, 0, size);
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+                target.force(false);
+            } catch (IOException e) {
+                error = e;
+            }
+
+            lock.lock();
+            try {
+                spare = batch;
+                if (error != null) {
+                    failure = error;
+                    closed = true;
+                    signalAll();
+                    return;
+                }
+                syncedSeq = batchSeq;
+                synced.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (pendingSize + extra <= pending.length) return;
+        int capacity = pending.length;
+        while (capacity < pendingSize + extra) capacity *= 2;
+        byte[] grown = new byte[capacity];
+        System.arraycopy(pending, 0, grown, 0, pendingSize);
+        pending = grown;
+    }
+
+    private void checkUsable() {
+        if (failure != null) {
+            throw new UncheckedIOException("OCS journal failed", failure);
+        }
+        if (closed) {
+            throw new IllegalStateException("OCS journal is closed");
+        }
+    }
+
+    // Wake every waiter, e.g. to see that the journal closed; lock held
+    private void signalAll() {
+        pendingWork.signalAll();
+        synced.signalAll();
+        rotated.signalAll();
+    }
+
+    private void awaitUninterruptibly(Condition condition) {
+        try {
+            condition.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the OCS journal", e);
+        }
+    }
+
+    private FileChannel openSegment(long firstSeq) throws IOException {
+        return FileChannel.open(segmentPath(directory, firstSeq),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    // --- Segments and replay ---
+
+    static Path segmentPath(Path directory, long firstSeq) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSeq, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * @return the first sequence number of every journal segment in the directory, in ascending order
+     */
+    static List<Long> listSegments(Path directory) throws IOException {
+        List<Long> segments = new ArrayList<>();
+        try (var files = Files.list(directory)) {
+            files.map(p -> p.getFileName().toString())
+                    .filter(n -> n.startsWith(SEGMENT_PREFIX) && n.endsWith(SEGMENT_SUFFIX))
+                    .forEach(n -> segments.add(Long.parseLong(
+                            n.substring(SEGMENT_PREFIX.length(), n.length() - SEGMENT_SUFFIX.length()))));
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    /**
+     * Apply every record with a sequence number greater than {@code afterSeq} to the OCS, segment by
+     * segment. A torn or corrupt tail of the last segment, left by a crash in the middle of a write, is
+     * cut off. Damage anywhere else, or a gap in the sequence numbers, fails the replay: the records
+     * after it cannot be applied, and a new journal would reuse their sequence numbers.
+     *
+     * @return the state reached after the replay
+     * @throws IOException if a segment cannot be read, or the journal is damaged before its tail
+     */
+    static ReplayState replay(Path directory, long afterSeq, ReplayState state, OCS ocs) throws IOException {
+        List<Long> segments = listSegments(directory);
+        long previousSeq = afterSeq;
+        for (int i = 0; i < segments.size(); i++) {
+            long firstSeq = segments.get(i);
+            // Segments the last snapshot covers may still be around if deleting them was cut short
+            if (i == 0 ? firstSeq > afterSeq + 1 : firstSeq != previousSeq + 1) {
+                throw new IOException("OCS journal is missing records " + (previousSeq + 1) + " to " +
+                        (firstSeq - 1));
+            }
+            Path segment = segmentPath(directory, firstSeq);
+            SegmentEnd end = replaySegment(segment, firstSeq, afterSeq, state, ocs);
+            if (end.length < Files.size(segment)) {
+                if (i < segments.size() - 1) {
+                    throw new IOException("OCS journal segment " + segment.getFileName() +
+                            " is corrupt after seq " + end.lastSeq + ", before later segments");
+                }
+                try (FileChannel ch = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                    ch.truncate(end.length);
+                    ch.force(true);
+                }
+                System.err.println("OCS journal: discarded torn tail of " + segment.getFileName() +
+                        " after seq " + end.lastSeq);
+            }
+            previousSeq = end.lastSeq;
+        }
+        return state;
+    }
+
+    // How far a segment could be read: the length of its valid records and the last one's sequence number
+    private static final class SegmentEnd {
+        final long length;
+        final long lastSeq;
+
+        SegmentEnd(long length, long lastSeq) {
+            this.length = length;
+            this.lastSeq = lastSeq;
+        }
+    }
+
+    private static SegmentEnd replaySegment(Path segment, long firstSeq, long afterSeq, ReplayState state, OCS ocs)
+            throws IOException {
+        long validLength = 0;
+        long expectedSeq = firstSeq;
+        CRC32 checksum = new CRC32();
+        try (InputStream raw = Channels.newInputStream(FileChannel.open(segment, StandardOpenOption.READ));
+             DataInputStream in = new DataInputStream(new BufferedInputStream(raw, 1 << 16))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length < 0 || length > MAX_RECORD_LENGTH) {
+                    break;
+                }
+                byte[] record = new byte[8 + 1 + length];
+                int storedCrc;
+                try {
+                    in.readFully(record);
+                    storedCrc = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                checksum.reset();
+                checksum.update(record, 0, record.length);
+                if ((int) checksum.getValue() != storedCrc) {
+                    break;
+                }
+
+                ByteBuffer header = ByteBuffer.wrap(record, 0, 9);
+                long seq = header.getLong();
+                byte type = header.get();
+                if (seq != expectedSeq) {
+                    throw new IOException("OCS journal segment " + segment.getFileName() + " holds seq " + seq +
+                            " where " + expectedSeq + " was expected");
+                }
+                if (seq > afterSeq) {
+                    DataInputStream body = new DataInputStream(new ByteArrayInputStream(record, 9, length));
+                    apply(type, body, state, ocs);
+                }
+                state.lastSeq = Math.max(state.lastSeq, seq);
+                validLength += HEADER_LENGTH + length + TRAILER_LENGTH;
+                expectedSeq++;
+            }
+        }
+        return new SegmentEnd(validLength, expectedSeq - 1);
+    }
+
+    private static void apply(byte type, DataInputStream in, ReplayState state, OCS ocs) throws IOException {
+        switch (type) {
+            case PLAN_STORED: {
+                boolean draft = in.readBoolean();
+                SciencePlan sp = StateCodec.readPlan(in);
+                ocs.restoreSciencePlan(sp, draft);
+                state.nextPlanNo = Math.max(state.nextPlanNo, sp.getPlanNo() + 1);
+                break;
+            }
+            case PLAN_STATUS_CHANGED: {
+                SciencePlan sp = ocs.getSciencePlanByNo(in.readInt());
+                AbstractSciencePlan.STATUS status = StateCodec.readStatus(in);
+                if (sp != null) sp.setStatus(status);
+                break;
+            }
+            case PLAN_DELETED:
+                ocs.deleteSciencePlanByNo(in.readInt());
+                break;
+            case PLANS_CLEARED:
+                ocs.deleteAllSciencePlans();
+                state.nextPlanNo = 1;
+                break;
+            case PROGRAM_STORED:
+            case CALIBRATED_PROGRAM_STORED: {
+                ObservingProgram op = StateCodec.readProgram(in, ocs, type == CALIBRATED_PROGRAM_STORED);
+                ocs.restoreObservingProgram(op);
+                state.nextObservingProgramId = Math.max(state.nextObservingProgramId, op.getId() + 1);
+                break;
+            }
+            case PROGRAM_DELETED:
+                ocs.deleteObservingProgram(in.readInt());
+                break;
+            case UNAVAILABLE_DATE_ADDED:
+                ocs.addUnavailableDate(StateCodec.readDate(in));
+                break;
+            case UNAVAILABLE_DATE_DELETED:
+                ocs.deleteUnavailableDate(StateCodec.readDate(in));
+                break;
+            case TELESCOPE_DATE_ADDED: {
+                String telescope = StateCodec.readString(in);
+                ocs.addUnavailableDate(telescope, StateCodec.readDate(in));
+                break;
+            }
+            case TELESCOPE_DATE_DELETED: {
+                String telescope = StateCodec.readString(in);
+                ocs.deleteUnavailableDate(telescope, StateCodec.readDate(in));
+                break;
+            }
+            case CONFIGURATIONS_CHANGED: {
+                int count = in.readInt();
+                List<String> configurations = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    configurations.add(StateCodec.readString(in));
+                }
+                ocs.restoreConfigurations(configurations);
+                break;
+            }
+            default:
+                throw new IOException("Unknown OCS journal record type " + type);
+        }
+    }
+
+    /**
+     * Progress of a recovery: the last sequence number seen and the id counters to resume from.
+     */
+    static final class ReplayState {
+        long lastSeq;
+        int nextPlanNo;
+        int nextObservingProgramId;
+
+        ReplayState(long lastSeq, int nextPlanNo, int nextObservingProgramId) {
+            this.lastSeq = lastSeq;
+            this.nextPlanNo = nextPlanNo;
+            this.nextObservingProgramId = nextObservingProgramId;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package edu.gemini;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durable OCS: recovers the state from a data directory on start, journals every change and
+ * takes periodic snapshots so recovery only has to replay the journal written since the latest
+ * snapshot.
+ * <pre>
+ *     OcsPersistence persistence = OcsPersistence.open(Path.of("ocs-data"));
+ *     OCS ocs = persistence.getOcs();
+ *     ...
+ *     persistence.close();
+ * </pre>
+ */
+public final class OcsPersistence implements Closeable {
+
+    public static final Duration DEFAULT_SNAPSHOT_INTERVAL = Duration.ofMinutes(5);
+
+    // Subdirectory of the astronomical data store
+    static final String DATA_DIRECTORY = "astronomical-data";
+
+    // Don't bother writing a snapshot for fewer new journal records than this
+    private static final long MIN_RECORDS_PER_SNAPSHOT = 1_000;
+
+    private final Path directory;
+    private final OCS ocs;
+    private final OcsJournal journal;
+    private final AstronomicalDataStore dataStore;
+    private final ScheduledExecutorService scheduler;
+    private long snapshotSeq;
+
+    private OcsPersistence(Path directory, OCS ocs, OcsJournal journal, AstronomicalDataStore dataStore,
+                           long snapshotSeq, Duration snapshotInterval) {
+        this.directory = directory;
+        this.ocs = ocs;
+        this.journal = journal;
+        this.dataStore = dataStore;
+        this.snapshotSeq = snapshotSeq;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ocs-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = snapshotInterval.toMillis();
+        scheduler.scheduleWithFixedDelay(this::periodicSnapshot, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Open the data directory with the default snapshot interval, waiting for the journal to be
+     * synced at the end of every change.
+     */
+    public static OcsPersistence open(Path directory) throws IOException {
+        return open(directory, DEFAULT_SNAPSHOT_INTERVAL, true);
+    }
+
+    /**
+     * Open the data directory, creating it if needed, and recover the OCS state stored in it.
+     *
+     * @param directory the data directory
+     * @param snapshotInterval how often to take a snapshot
+     * @param syncEveryChange true to make every mutating OCS call wait until its journal records are on
+     *                        disk; false to let the journal sync in the background
+     * @return the persistence, holding the recovered OCS
+     * @throws IOException if the newest snapshot or the journal after it cannot be read
+     */
+    public static OcsPersistence open(Path directory, Duration snapshotInterval, boolean syncEveryChange)
+            throws IOException {
+        Files.createDirectories(directory);
+
+        OCS ocs = new OCS();
+        OcsJournal.ReplayState state = new OcsJournal.ReplayState(0, 1, 1);
+        List<Long> snapshots = OcsSnapshot.list(directory);
+        if (!snapshots.isEmpty()) {
+            // The journal it covers is gone, and so are the older snapshots: there is nothing to fall back to
+            long seq = snapshots.get(0);
+            try {
+                state = OcsSnapshot.read(OcsSnapshot.path(directory, seq), ocs);
+            } catch (IOException e) {
+                throw new IOException("Cannot read OCS snapshot " + seq + " in " + directory, e);
+            }
+        }
+        long snapshotSeq = state.lastSeq;
+
+        OcsJournal.replay(directory, snapshotSeq, state, ocs);
+        ocs.restoreIdCounters(
+                Math.max(state.nextPlanNo, ocs.getNextPlanNo()),
+                Math.max(state.nextObservingProgramId, ocs.getNextObservingProgramId()));
+
+        // Data of plans missing from the OCS is kept: it may be all that is left of them. It is reported
+        // so it can be looked at, and goes when the plans are cleared, before plan numbers are reused
+        AstronomicalDataStore dataStore = new AstronomicalDataStore(directory.resolve(DATA_DIRECTORY));
+        List<Integer> orphans = new ArrayList<>();
+        for (int planNo : dataStore.getPlanNos()) {
+            if (ocs.getSciencePlanByNo(planNo) == null) {
+                orphans.add(planNo);
+            }
+        }
+        if (!orphans.isEmpty()) {
+            orphans.sort(null);
+            System.err.println("Astronomical data kept for plans missing from the OCS: " + orphans);
+        }
+        ocs.setAstronomicalDataStore(dataStore);
+        ocs.resumeObservations();
+
+        OcsJournal journal = new OcsJournal(directory, state.lastSeq, syncEveryChange);
+        ocs.setChangeLog(journal);
+        return new OcsPersistence(directory, ocs, journal, dataStore, snapshotSeq, snapshotInterval);
+    }
+
+    public OCS getOcs() {
+        return ocs;
+    }
+
+    /**
+     * Take a snapshot now and delete the snapshots and journal segments it makes obsolete.
+     *
+     * @return the journal sequence number the snapshot was taken at
+     */
+    public synchronized long snapshot() throws IOException {
+        long seq = journal.rotate();
+        dataStore.flush();
+        OcsSnapshot.write(directory, seq, ocs);
+        snapshotSeq = seq;
+
+        for (long older : OcsSnapshot.list(directory)) {
+            if (older < seq) {
+                Files.deleteIfExists(OcsSnapshot.path(directory, older));
+            }
+        }
+        // After the rotation the current segment starts at seq + 1, so every older one is covered
+        List<Long> segments = OcsJournal.listSegments(directory);
+        for (long firstSeq : segments) {
+            if (firstSeq <= seq) {
+                Files.deleteIfExists(OcsJournal.segmentPath(directory, firstSeq));
+            }
+        }
+        return seq;
+    }
+
+    private void periodicSnapshot() {
+        try {
+            long pending;
+            synchronized (this) {
+                pending = journal.getLastSeq() - snapshotSeq;
+            }
+            if (pending >= MIN_RECORDS_PER_SNAPSHOT) {
+                snapshot();
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("OCS snapshot failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stop taking snapshots, flush the journal and the data store and detach them from the OCS.
+     */
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        journal.sync();
+        ocs.setChangeLog(null);
+        journal.close();
+        ocs.setAstronomicalDataStore(null);
+        dataStore.close();
+    }
+}
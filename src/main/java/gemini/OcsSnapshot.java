@@ -0,0 +1,191 @@
+package edu.gemini;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Compact binary snapshot of the full OCS state, tagged with the journal sequence number it
+ * was taken at. Snapshots are taken while the OCS keeps running, so one may already contain
+ * some changes journaled after its sequence number; replaying those records again is harmless
+ * because every journal record sets state rather than modifying it.
+ * <p>
+ * Layout: {@code [long magic][int version][long seq][int nextPlanNo][int nextProgramId]}, then the
+ * plans, observing programs (since version 3 with their calibration), unavailable dates and
+ * configurations, each prefixed with a count, then (since version 2) the unavailable dates of
+ * single telescopes, and finally a CRC32 of everything before it.
+ */
+final class OcsSnapshot {
+
+    static final String FILE_PREFIX = "snapshot-";
+    static final String FILE_SUFFIX = ".bin";
+
+    private static final long MAGIC = 0x4F43_5353_4E41_5031L; // "OCSSNAP1"
+    private static final int VERSION = 3;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private OcsSnapshot() {
+    }
+
+    static Path path(Path directory, long seq) {
+        return directory.resolve(String.format("%s%020d%s", FILE_PREFIX, seq, FILE_SUFFIX));
+    }
+
+    /**
+     * @return the sequence numbers of every snapshot in the directory, newest first
+     */
+    static List<Long> list(Path directory) throws IOException {
+        List<Long> snapshots = new ArrayList<>();
+        try (var files = Files.list(directory)) {
+            files.map(p -> p.getFileName().toString())
+                    .filter(n -> n.startsWith(FILE_PREFIX) && n.endsWith(FILE_SUFFIX))
+                    .forEach(n -> snapshots.add(Long.parseLong(
+                            n.substring(FILE_PREFIX.length(), n.length() - FILE_SUFFIX.length()))));
+        }
+        snapshots.sort((a, b) -> Long.compare(b, a));
+        return snapshots;
+    }
+
+    /**
+     * Write a snapshot of the OCS to a temporary file, sync it and move it into place.
+     */
+    static void write(Path directory, long seq, OCS ocs) throws IOException {
+        Path target = path(directory, seq);
+        Path tmp = directory.resolve(target.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream raw = Channels.newOutputStream(channel);
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new CheckedOutputStream(raw, crc), BUFFER_SIZE));
+            out.writeLong(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(seq);
+            out.writeInt(ocs.getNextPlanNo());
+            out.writeInt(ocs.getNextObservingProgramId());
+
+            List<SciencePlan> plans = ocs.getAllSciencePlans();
+            List<SciencePlan> drafts = ocs.getAllDraftSciencePlans();
+            out.writeInt(plans.size() + drafts.size());
+            for (SciencePlan sp : plans) {
+                out.writeBoolean(false);
+                StateCodec.writePlan(out, sp);
+            }
+            for (SciencePlan sp : drafts) {
+                out.writeBoolean(true);
+                StateCodec.writePlan(out, sp);
+            }
+
+            List<ObservingProgram> programs = ocs.getAllObservingPrograms();
+            out.writeInt(programs.size());
+            for (ObservingProgram op : programs) {
+                StateCodec.writeProgram(out, op);
+            }
+
+            List<Date> dates = ocs.getAllObservationSchedule();
+            out.writeInt(dates.size());
+            for (Date d : dates) {
+                StateCodec.writeDate(out, d);
+            }
+
+            List<String> configurations = ocs.getConfigurationList();
+            out.writeInt(configurations.size());
+            for (String conf : configurations) {
+                StateCodec.writeString(out, conf);
+            }
+
+            List<String> telescopes = ocs.getTelescopesWithUnavailableDates();
+            out.writeInt(telescopes.size());
+            for (String telescope : telescopes) {
+                List<Date> telescopeDates = ocs.getUnavailableDates(telescope);
+                StateCodec.writeString(out, telescope);
+                out.writeInt(telescopeDates.size());
+                for (Date d : telescopeDates) {
+                    StateCodec.writeDate(out, d);
+                }
+            }
+
+            out.flush();
+            // The checksum itself is written past the checked stream
+            new DataOutputStream(raw).writeInt((int) crc.getValue());
+            channel.force(true);
+        }
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Load a snapshot into an empty OCS.
+     *
+     * @return the replay state to continue recovery from
+     * @throws IOException if the snapshot cannot be read or its checksum does not match
+     */
+    static OcsJournal.ReplayState read(Path file, OCS ocs) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream raw = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE)) {
+            DataInputStream in = new DataInputStream(new CheckedInputStream(raw, crc));
+            if (in.readLong() != MAGIC) {
+                throw new IOException("Not an OCS snapshot: " + file);
+            }
+            int version = in.readInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unsupported OCS snapshot version " + version + ": " + file);
+            }
+            long seq = in.readLong();
+            int nextPlanNo = in.readInt();
+            int nextProgramId = in.readInt();
+
+            int planCount = in.readInt();
+            for (int i = 0; i < planCount; i++) {
+                boolean draft = in.readBoolean();
+                ocs.restoreSciencePlan(StateCodec.readPlan(in), draft);
+            }
+            int programCount = in.readInt();
+            for (int i = 0; i < programCount; i++) {
+                ocs.restoreObservingProgram(StateCodec.readProgram(in, ocs, version >= 3));
+            }
+            int dateCount = in.readInt();
+            for (int i = 0; i < dateCount; i++) {
+                ocs.addUnavailableDate(StateCodec.readDate(in));
+            }
+            int configurationCount = in.readInt();
+            List<String> configurations = new ArrayList<>(configurationCount);
+            for (int i = 0; i < configurationCount; i++) {
+                configurations.add(StateCodec.readString(in));
+            }
+            ocs.restoreConfigurations(configurations);
+
+            if (version >= 2) {
+                int telescopeCount = in.readInt();
+                for (int i = 0; i < telescopeCount; i++) {
+                    String telescope = StateCodec.readString(in);
+                    int count = in.readInt();
+                    for (int j = 0; j < count; j++) {
+                        ocs.addUnavailableDate(telescope, StateCodec.readDate(in));
+                    }
+                }
+            }
+
+            int expected = (int) crc.getValue();
+            if (new DataInputStream(raw).readInt() != expected) {
+                throw new IOException("Checksum mismatch in OCS snapshot " + file);
+            }
+            return new OcsJournal.ReplayState(seq, nextPlanNo, nextProgramId);
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package edu.gemini;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * Point-spread function of a telescope's optics, applied to frames by FFT convolution.
+ * <p>
+ * The PSF is the diffraction pattern of an 8.1 m primary with the secondary's central
+ * obstruction, whose size in pixels grows with the f-stop, plus a wider halo of light scattered
+ * by the secondary's surface error. The share of light in the halo follows the Maréchal
+ * approximation of the Strehl ratio for the given RMS error. Each pixel of the kernel averages
+ * the pattern over a 4x4 grid, so fast f-stops whose pattern is under a pixel still give a
+ * correct kernel.
+ * <p>
+ * Kernels are expensive to compute and few configurations are in use, so {@link #of} keeps the
+ * most recently used {@link #CACHE_SIZE} in a cache keyed by the primary and the f-stop and RMS
+ * rounded to {@link #FSTOP_STEP} and {@link #RMS_STEP}. A PSF also holds the spectrum of its
+ * kernel at the tile size used by {@link #apply}, so repeated exposures only transform the frame.
+ * Immutable.
+ */
+public final class OpticsPsf {
+
+    public static final int CACHE_SIZE = 64;
+    public static final double FSTOP_STEP = 0.1;
+    public static final double RMS_STEP = 0.5;
+
+    // Detector pixel pitch and the wavelength the PSF is computed at
+    private static final double PIXEL_PITCH_NM = 2700;
+    private static final double WAVELENGTH_NM = 550;
+    // Diameter of the secondary's shadow over that of the primary
+    private static final double OBSTRUCTION = 0.12;
+    private static final int SUPERSAMPLE = 4;
+    private static final int MAX_RADIUS = 32;
+
+    // Convolution tiles: 256x256 FFTs, each giving (256 - 2 * radius)^2 output pixels
+    private static final int TILE = 256;
+    private static final int LOG_TILE = 8;
+    private static final double[] COS = new double[TILE / 2];
+    private static final double[] SIN = new double[TILE / 2];
+    private static final int[] REVERSED = new int[TILE];
+    private static final ThreadLocal<double[][]> SCRATCH =
+            ThreadLocal.withInitial(() -> new double[][] { new double[TILE * TILE], new double[TILE * TILE] });
+
+    static {
+        for (int k = 0; k < TILE / 2; k++) {
+            COS[k] = Math.cos(2 * Math.PI * k / TILE);
+            SIN[k] = Math.sin(2 * Math.PI * k / TILE);
+        }
+        for (int i = 0; i < TILE; i++) {
+            REVERSED[i] = Integer.reverse(i) >>> (32 - LOG_TILE);
+        }
+    }
+
+    private static final Map<Long, OpticsPsf> CACHE = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, OpticsPsf> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    private static final AtomicLong computed = new AtomicLong();
+
+    private final String opticsPrimary;
+    private final double fStop;
+    private final double rms;
+    private final double strehlRatio;
+    private final int radius;
+    private final float[] kernel;
+    // Real, as the kernel is point-symmetric; laid out as fft2 leaves it
+    private final double[] spectrum;
+
+    private OpticsPsf(String opticsPrimary, double fStop, double rms) {
+        this.opticsPrimary = opticsPrimary;
+        this.fStop = fStop;
+        this.rms = rms;
+        double phase = 2 * Math.PI * rms / WAVELENGTH_NM;
+        this.strehlRatio = Math.exp(-phase * phase);
+
+        // Radius of the first dark ring, and of the halo
+        double firstZero = 1.22 * WAVELENGTH_NM * fStop / PIXEL_PITCH_NM;
+        double haloSigma = 1 + 2 * firstZero;
+        this.radius = Math.max(2, Math.min(MAX_RADIUS, (int) Math.ceil(Math.max(4 * firstZero, 3 * haloSigma))));
+        this.kernel = computeKernel(fStop, haloSigma);
+        this.spectrum = computeSpectrum();
+        computed.incrementAndGet();
+    }
+
+    /**
+     * @return the PSF of a configuration, from the cache if it was computed recently
+     * @throws IllegalArgumentException if the primary is not GNZ or GSZ, or the f-stop or RMS is
+     *         not positive
+     */
+    public static OpticsPsf of(String opticsPrimary, double fStop, double opticsSecondaryRMS) {
+        int primary;
+        if ("GNZ".equalsIgnoreCase(opticsPrimary)) {
+            primary = 0;
+        } else if ("GSZ".equalsIgnoreCase(opticsPrimary)) {
+            primary = 1;
+        } else {
+            throw new IllegalArgumentException("Optics primary must be GNZ or GSZ: " + opticsPrimary);
+        }
+        if (!(fStop > 0) || !(opticsSecondaryRMS > 0)) {
+            throw new IllegalArgumentException("F-stop and RMS must be positive: " + fStop + ", " + opticsSecondaryRMS);
+        }
+        long f = Math.round(fStop / FSTOP_STEP);
+        long r = Math.round(opticsSecondaryRMS / RMS_STEP);
+        long key = (long) primary << 62 | f << 31 | r;
+        synchronized (CACHE) {
+            OpticsPsf psf = CACHE.get(key);
+            if (psf != null) return psf;
+        }
+        // Computed outside the lock; two threads may both compute a new key, one result is kept
+        OpticsPsf psf = new OpticsPsf(primary == 0 ? "GNZ" : "GSZ", f * FSTOP_STEP, r * RMS_STEP);
+        synchronized (CACHE) {
+            OpticsPsf raced = CACHE.putIfAbsent(key, psf);
+            return raced != null ? raced : psf;
+        }
+    }
+
+    // Number of kernels computed so far, cache misses included
+    static long getComputedCount() {
+        return computed.get();
+    }
+
+    public String getOpticsPrimary() {
+        return opticsPrimary;
+    }
+
+    public double getFStop() {
+        return fStop;
+    }
+
+    public double getOpticsSecondaryRMS() {
+        return rms;
+    }
+
+    /**
+     * @return the share of light in the diffraction core, 1 for perfect optics
+     */
+    public double getStrehlRatio() {
+        return strehlRatio;
+    }
+
+    public int getRadius() {
+        return radius;
+    }
+
+    /**
+     * @return the kernel weight at an offset from the centre, both within the radius
+     */
+    public double getWeight(int dx, int dy) {
+        int size = 2 * radius + 1;
+        return kernel[(dy + radius) * size + dx + radius];
+    }
+
+    /**
+     * Convolve a frame with the PSF into a new frame from the same pool. Outside the frame the
+     * edge pixels are repeated, so the borders are not darkened. The source is left as it is.
+     */
+    public SkyFrame apply(SkyFrame source) {
+        SkyFrame.Format format = source.getFormat();
+        int width = format.getWidth();
+        int height = format.getHeight();
+        int max = format.getMaxValue();
+        boolean wide = format.getBitDepth() == 16;
+        ByteBuffer in = source.buffer();
+        ByteBuffer out = source.pool().acquire(format.getByteSize());
+
+        int valid = TILE - 2 * radius;
+        int tilesX = (width + valid - 1) / valid;
+        int tiles = tilesX * ((height + valid - 1) / valid);
+        // The kernel is real, so two tiles go through one complex FFT, as its real and imaginary parts
+        IntStream.range(0, (tiles + 1) / 2).parallel().forEach(pair -> {
+            double[][] scratch = SCRATCH.get();
+            double[] re = scratch[0];
+            double[] im = scratch[1];
+            int a = 2 * pair;
+            int b = a + 1;
+            load(in, wide, width, height, a % tilesX * valid - radius, a / tilesX * valid - radius, re);
+            if (b < tiles) {
+                load(in, wide, width, height, b % tilesX * valid - radius, b / tilesX * valid - radius, im);
+            } else {
+                Arrays.fill(im, 0);
+            }
+            fft2(re, im, false);
+            for (int i = 0; i < TILE * TILE; i++) {
+                re[i] *= spectrum[i];
+                im[i] *= spectrum[i];
+            }
+            fft2(re, im, true);
+            store(out, wide, max, width, height, a % tilesX * valid, a / tilesX * valid, valid, re);
+            if (b < tiles) {
+                store(out, wide, max, width, height, b % tilesX * valid, b / tilesX * valid, valid, im);
+            }
+        });
+        return source.withPixels(out);
+    }
+
+    // --- Kernel ---
+
+    private float[] computeKernel(double fStop, double haloSigma) {
+        int size = 2 * radius + 1;
+        double[] core = new double[size * size];
+        double[] halo = new double[size * size];
+        double coreSum = 0;
+        double haloSum = 0;
+        // v = pi * r * pitch / (wavelength * fStop), the argument of the Airy pattern
+        double scale = Math.PI * PIXEL_PITCH_NM / (WAVELENGTH_NM * fStop);
+        for (int y = -radius; y <= radius; y++) {
+            for (int x = -radius; x <= radius; x++) {
+                double c = 0;
+                double h = 0;
+                for (int sy = 0; sy < SUPERSAMPLE; sy++) {
+                    for (int sx = 0; sx < SUPERSAMPLE; sx++) {
+                        double px = x + (sx + 0.5) / SUPERSAMPLE - 0.5;
+                        double py = y + (sy + 0.5) / SUPERSAMPLE - 0.5;
+                        double r2 = px * px + py * py;
+                        c += airy(Math.sqrt(r2) * scale);
+                        h += Math.exp(-r2 / (2 * haloSigma * haloSigma));
+                    }
+                }
+                int i = (y + radius) * size + x + radius;
+                core[i] = c;
+                halo[i] = h;
+                coreSum += c;
+                haloSum += h;
+            }
+        }
+        float[] k = new float[size * size];
+        double sum = 0;
+        for (int i = 0; i < k.length; i++) {
+            k[i] = (float) (strehlRatio * core[i] / coreSum + (1 - strehlRatio) * halo[i] / haloSum);
+            sum += k[i];
+        }
+        // Unit sum, so convolution keeps the total light
+        for (int i = 0; i < k.length; i++) {
+            k[i] = (float) (k[i] / sum);
+        }
+        return k;
+    }
+
+    // Intensity of the Airy pattern of an obstructed aperture, 1 at the centre
+    private static double airy(double v) {
+        if (v < 1e-9) return 1;
+        double e = OBSTRUCTION;
+        double amplitude = (2 * j1(v) / v - e * e * 2 * j1(e * v) / (e * v)) / (1 - e * e);
+        return amplitude * amplitude;
+    }
+
+    // Bessel function of the first kind, order 1 (rational approximations, Numerical Recipes)
+    private static double j1(double x) {
+        double ax = Math.abs(x);
+        if (ax < 8.0) {
+            double y = x * x;
+            double p = x * (72362614232.0 + y * (-7895059235.0 + y * (242396853.1 + y * (-2972611.439
+                    + y * (15704.48260 + y * (-30.16036606))))));
+            double q = 144725228442.0 + y * (2300535178.0 + y * (18583304.74 + y * (99447.43394
+                    + y * (376.9991397 + y))));
+            return p / q;
+        }
+        double z = 8.0 / ax;
+        double y = z * z;
+        double xx = ax - 2.356194491;
+        double p = 1.0 + y * (0.183105e-2 + y * (-0.3516396496e-4 + y * (0.2457520174e-5 + y * (-0.240337019e-6))));
+        double q = 0.04687499995 + y * (-0.2002690873e-3 + y * (0.8449199096e-5 + y * (-0.88228987e-6
+                + y * 0.105787412e-6)));
+        double result = Math.sqrt(0.636619772 / ax) * (Math.cos(xx) * p - z * Math.sin(xx) * q);
+        return x < 0 ? -result : result;
+    }
+
+    private double[] computeSpectrum() {
+        double[] re = new double[TILE * TILE];
+        double[] im = new double[TILE * TILE];
+        int size = 2 * radius + 1;
+        // Centre at (0, 0), negative offsets wrapped around
+        for (int y = -radius; y <= radius; y++) {
+            for (int x = -radius; x <= radius; x++) {
+                re[((y + TILE) % TILE) * TILE + (x + TILE) % TILE] = kernel[(y + radius) * size + x + radius];
+            }
+        }
+        fft2(re, im, false);
+        return re;
+    }
+
+    // --- FFT ---
+
+    // 2-D FFT of a TILE x TILE array: rows, transpose, rows. The result is transposed, like the
+    // kernel spectrum, and the inverse transposes it back. The inverse is not scaled.
+    private static void fft2(double[] re, double[] im, boolean inverse) {
+        for (int row = 0; row < TILE; row++) {
+            fft(re, im, row * TILE, inverse);
+        }
+        transpose(re);
+        transpose(im);
+        for (int row = 0; row < TILE; row++) {
+            fft(re, im, row * TILE, inverse);
+        }
+    }
+
+    // In-place radix-2 FFT of one row
+    private static void fft(double[] re, double[] im, int off, boolean inverse) {
+        for (int i = 0; i < TILE; i++) {
+            int j = REVERSED[i];
+            if (i < j) {
+                double t = re[off + i]; re[off + i] = re[off + j]; re[off + j] = t;
+                t = im[off + i]; im[off + i] = im[off + j]; im[off + j] = t;
+            }
+        }
+        for (int length = 2; length <= TILE; length <<= 1) {
+            int half = length >> 1;
+            int step = TILE / length;
+            for (int i = 0; i < TILE; i += length) {
+                for (int k = 0; k < half; k++) {
+                    double wr = COS[k * step];
+                    double wi = inverse ? SIN[k * step] : -SIN[k * step];
+                    int a = off + i + k;
+                    int b = a + half;
+                    double xr = re[b] * wr - im[b] * wi;
+                    double xi = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - xr;
+                    im[b] = im[a] - xi;
+                    re[a] += xr;
+                    im[a] += xi;
+                }
+            }
+        }
+    }
+
+    private static void transpose(double[] m) {
+        for (int y = 0; y < TILE; y++) {
+            for (int x = y + 1; x < TILE; x++) {
+                double t = m[y * TILE + x];
+                m[y * TILE + x] = m[x * TILE + y];
+                m[x * TILE + y] = t;
+            }
+        }
+    }
+
+    // --- Tiles ---
+
+    // Read a TILE x TILE block with its top left corner at (x0, y0), repeating the edges outside the frame
+    private static void load(ByteBuffer in, boolean wide, int width, int height, int x0, int y0, double[] tile) {
+        for (int y = 0; y < TILE; y++) {
+            int row = Math.max(0, Math.min(height - 1, y0 + y)) * width;
+            for (int x = 0; x < TILE; x++) {
+                int i = row + Math.max(0, Math.min(width - 1, x0 + x));
+                tile[y * TILE + x] = wide ? in.getShort(i << 1) & 0xFFFF : in.get(i) & 0xFF;
+            }
+        }
+    }
+
+    // Write the valid part of a convolved tile, whose output starts at (x0, y0) in the frame
+    private void store(ByteBuffer out, boolean wide, int max, int width, int height, int x0, int y0, int valid,
+                       double[] tile) {
+        double scale = 1.0 / (TILE * TILE);
+        int rows = Math.min(valid, height - y0);
+        int cols = Math.min(valid, width - x0);
+        for (int y = 0; y < rows; y++) {
+            int from = (y + radius) * TILE + radius;
+            int to = (y0 + y) * width + x0;
+            for (int x = 0; x < cols; x++) {
+                int v = (int) Math.round(tile[from + x] * scale);
+                v = v < 0 ? 0 : Math.min(v, max);
+                if (wide) {
+                    out.putShort((to + x) << 1, (short) v);
+                } else {
+                    out.put(to + x, (byte) v);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return opticsPrimary + " f/" + fStop + ", " + rms + " nm RMS (Strehl " + String.format("%.3f", strehlRatio) + ")";
+    }
+}
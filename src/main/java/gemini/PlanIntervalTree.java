@@ -0,0 +1,201 @@
+package edu.gemini;
+
+import java.util.HashMap;
+
+/**
+ * Augmented interval tree over the [start, end] epoch-millisecond ranges of
+ * science plans on one telescope. Nodes are ordered by (start, planNo) and
+ * carry the maximum end of their subtree, so an overlap query only descends
+ * into subtrees that can still contain a hit. Balance is kept with treap
+ * rotations, using a hash of the plan number as the heap priority.
+ */
+class PlanIntervalTree {
+
+    private static final class Node {
+        final int planNo;
+        final long start;
+        final long end;
+        final int priority;
+        long maxEnd;
+        Node left;
+        Node right;
+
+        Node(int planNo, long start, long end) {
+            this.planNo = planNo;
+            this.start = start;
+            this.end = end;
+            this.maxEnd = end;
+            this.priority = mix(planNo);
+        }
+    }
+
+    private Node root;
+    private final HashMap<Integer, Node> nodes = new HashMap<>();
+
+    public int size() {
+        return nodes.size();
+    }
+
+    public boolean contains(int planNo) {
+        return nodes.containsKey(planNo);
+    }
+
+    public void insert(int planNo, long start, long end) {
+        remove(planNo);
+        Node n = new Node(planNo, start, end);
+        nodes.put(planNo, n);
+        root = insert(root, n);
+    }
+
+    public boolean remove(int planNo) {
+        Node n = nodes.remove(planNo);
+        if (n == null) return false;
+        root = remove(root, n);
+        return true;
+    }
+
+    public void clear() {
+        root = null;
+        nodes.clear();
+    }
+
+    /**
+     * Find any plan whose range overlaps [start, end] (both ends inclusive).
+     *
+     * @return the plan number of an overlapping plan, or -1 if there is none
+     */
+    public int findAnyOverlap(long start, long end) {
+        Node n = root;
+        while (n != null) {
+            if (n.start <= end && n.end >= start) {
+                return n.planNo;
+            }
+            if (n.left != null && n.left.maxEnd >= start) {
+                n = n.left;
+            } else if (n.start <= end) {
+                n = n.right;
+            } else {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Collect the plan numbers of every plan whose range overlaps [start, end].
+     */
+    public int[] findOverlaps(long start, long end) {
+        IntBuffer out = new IntBuffer();
+        collect(root, start, end, out);
+        return out.toArray();
+    }
+
+    private static void collect(Node n, long start, long end, IntBuffer out) {
+        if (n == null || n.maxEnd < start) return;
+        collect(n.left, start, end, out);
+        if (n.start <= end) {
+            if (n.end >= start) {
+                out.add(n.planNo);
+            }
+            collect(n.right, start, end, out);
+        }
+    }
+
+    private static Node insert(Node t, Node n) {
+        if (t == null) return n;
+        if (less(n, t)) {
+            t.left = insert(t.left, n);
+            if (t.left.priority > t.priority) t = rotateRight(t);
+        } else {
+            t.right = insert(t.right, n);
+            if (t.right.priority > t.priority) t = rotateLeft(t);
+        }
+        update(t);
+        return t;
+    }
+
+    private static Node remove(Node t, Node n) {
+        if (t == null) return null;
+        if (t == n) {
+            return merge(t.left, t.right);
+        }
+        if (less(n, t)) {
+            t.left = remove(t.left, n);
+        } else {
+            t.right = remove(t.right, n);
+        }
+        update(t);
+        return t;
+    }
+
+    private static Node merge(Node a, Node b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            update(a);
+            return a;
+        }
+        b.left = merge(a, b.left);
+        update(b);
+        return b;
+    }
+
+    private static Node rotateRight(Node t) {
+        Node l = t.left;
+        t.left = l.right;
+        l.right = t;
+        update(t);
+        update(l);
+        return l;
+    }
+
+    private static Node rotateLeft(Node t) {
+        Node r = t.right;
+        t.right = r.left;
+        r.left = t;
+        update(t);
+        update(r);
+        return r;
+    }
+
+    private static void update(Node n) {
+        long m = n.end;
+        if (n.left != null && n.left.maxEnd > m) m = n.left.maxEnd;
+        if (n.right != null && n.right.maxEnd > m) m = n.right.maxEnd;
+        n.maxEnd = m;
+    }
+
+    private static boolean less(Node a, Node b) {
+        return a.start < b.start || (a.start == b.start && a.planNo < b.planNo);
+    }
+
+    private static int mix(int x) {
+        x ^= x >>> 16;
+        x *= 0x7feb352d;
+        x ^= x >>> 15;
+        x *= 0x846ca68b;
+        x ^= x >>> 16;
+        return x;
+    }
+
+    private static final class IntBuffer {
+        private int[] data = new int[4];
+        private int size;
+
+        void add(int v) {
+            if (size == data.length) {
+                int[] grown = new int[size * 2];
+                System.arraycopy(data, 0, grown, 0, size);
+                data = grown;
+            }
+            data[size++] = v;
+        }
+
+        int[] toArray() {
+            int[] out = new int[size];
+            System.arraycopy(data, 0, out, 0, size);
+            return out;
+        }
+    }
+}
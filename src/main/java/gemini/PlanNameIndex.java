@@ -0,0 +1,128 @@
+package edu.gemini;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Case-insensitive set of science plan names. Names are case folded the same
+ * way {@link String#equalsIgnoreCase(String)} compares characters, so two names
+ * collide here exactly when the old linear duplicate check would have matched.
+ * <p>
+ * An optional Bloom filter sits in front of the set and answers most "name is
+ * free" queries without touching the hash table. Bits are never cleared on
+ * removal; a stale bit only costs a trip to the set, never a wrong answer.
+ */
+class PlanNameIndex {
+
+    private static final int BLOOM_HASHES = 4;
+    private static final int BLOOM_BITS_PER_NAME = 10;
+
+    private final Set<String> names = ConcurrentHashMap.newKeySet();
+    private final AtomicLongArray bloom;
+    private final int bloomMask;
+
+    /**
+     * Create an index without a Bloom filter.
+     */
+    public PlanNameIndex() {
+        this.bloom = null;
+        this.bloomMask = 0;
+    }
+
+    /**
+     * Create an index with a Bloom filter sized for the given number of names.
+     *
+     * @param expectedNames the number of names the filter is sized for
+     */
+    public PlanNameIndex(int expectedNames) {
+        long bits = Math.max(64L, (long) expectedNames * BLOOM_BITS_PER_NAME);
+        int size = Integer.highestOneBit((int) Math.min(bits, 1L << 30) - 1) << 1;
+        this.bloom = new AtomicLongArray(size >>> 6);
+        this.bloomMask = size - 1;
+    }
+
+    public boolean contains(String name) {
+        if (name == null) return false;
+        String folded = fold(name);
+        if (bloom != null && !mightContain(folded.hashCode())) {
+            return false;
+        }
+        return names.contains(folded);
+    }
+
+    /**
+     * Add a name to the index.
+     *
+     * @return true if the name was added, false if an equal name (ignoring case) already exists
+     */
+    public boolean add(String name) {
+        String folded = fold(name);
+        if (!names.add(folded)) {
+            return false;
+        }
+        if (bloom != null) {
+            setBits(folded.hashCode());
+        }
+        return true;
+    }
+
+    public boolean remove(String name) {
+        return name != null && names.remove(fold(name));
+    }
+
+    public void clear() {
+        names.clear();
+        if (bloom != null) {
+            for (int i = 0; i < bloom.length(); i++) {
+                bloom.set(i, 0L);
+            }
+        }
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    static String fold(String name) {
+        char[] chars = null;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            char f = Character.toLowerCase(Character.toUpperCase(c));
+            if (f != c) {
+                if (chars == null) chars = name.toCharArray();
+                chars[i] = f;
+            }
+        }
+        return chars == null ? name : new String(chars);
+    }
+
+    private boolean mightContain(int hash) {
+        int h2 = spread(hash);
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            int bit = (hash + i * h2) & bloomMask;
+            if ((bloom.get(bit >>> 6) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void setBits(int hash) {
+        int h2 = spread(hash);
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            int bit = (hash + i * h2) & bloomMask;
+            int word = bit >>> 6;
+            long mask = 1L << bit;
+            long current;
+            do {
+                current = bloom.get(word);
+            } while ((current & mask) == 0 && !bloom.compareAndSet(word, current, current | mask));
+        }
+    }
+
+    private static int spread(int h) {
+        h *= 0x9E3779B9;
+        return (h ^ (h >>> 15)) | 1;
+    }
+}
@@ -0,0 +1,82 @@
+package edu.gemini;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.gemini.model.AbstractSciencePlan;
+
+/**
+ * Secondary index from status to the numbers of the complete science plans in that status,
+ * with a live counter per status. Listing the plans in one status is O(result) and reading
+ * a count is O(1), instead of scanning every plan.
+ * <p>
+ * The sets and counters are concurrent, but a single plan's transitions must be applied in
+ * order; OCS does that by updating the index from inside the plan's status monitor.
+ */
+class PlanStatusIndex {
+
+    private static final AbstractSciencePlan.STATUS[] STATUSES = AbstractSciencePlan.STATUS.values();
+
+    private final EnumMap<AbstractSciencePlan.STATUS, ConcurrentSkipListSet<Integer>> plansByStatus =
+            new EnumMap<>(AbstractSciencePlan.STATUS.class);
+    private final EnumMap<AbstractSciencePlan.STATUS, AtomicInteger> counts =
+            new EnumMap<>(AbstractSciencePlan.STATUS.class);
+
+    public PlanStatusIndex() {
+        // Every status gets its entry up front, so the maps are never modified afterwards
+        for (AbstractSciencePlan.STATUS status : STATUSES) {
+            plansByStatus.put(status, new ConcurrentSkipListSet<>());
+            counts.put(status, new AtomicInteger());
+        }
+    }
+
+    public void add(int planNo, AbstractSciencePlan.STATUS status) {
+        if (status != null && plansByStatus.get(status).add(planNo)) {
+            counts.get(status).incrementAndGet();
+        }
+    }
+
+    public void remove(int planNo, AbstractSciencePlan.STATUS status) {
+        if (status != null && plansByStatus.get(status).remove(planNo)) {
+            counts.get(status).decrementAndGet();
+        }
+    }
+
+    public void move(int planNo, AbstractSciencePlan.STATUS oldStatus, AbstractSciencePlan.STATUS newStatus) {
+        if (oldStatus == newStatus) return;
+        remove(planNo, oldStatus);
+        add(planNo, newStatus);
+    }
+
+    public void clear() {
+        for (AbstractSciencePlan.STATUS status : STATUSES) {
+            plansByStatus.get(status).clear();
+            counts.get(status).set(0);
+        }
+    }
+
+    /**
+     * @return a live, ascending view of the plan numbers in the given status
+     */
+    public NavigableSet<Integer> planNos(AbstractSciencePlan.STATUS status) {
+        return plansByStatus.get(status);
+    }
+
+    public int count(AbstractSciencePlan.STATUS status) {
+        return counts.get(status).get();
+    }
+
+    /**
+     * @return the count for every status, including those with no plans
+     */
+    public Map<AbstractSciencePlan.STATUS, Integer> counts() {
+        EnumMap<AbstractSciencePlan.STATUS, Integer> result = new EnumMap<>(AbstractSciencePlan.STATUS.class);
+        for (AbstractSciencePlan.STATUS status : STATUSES) {
+            result.put(status, counts.get(status).get());
+        }
+        return result;
+    }
+}
@@ -1,6 +1,5 @@
 package edu.gemini;
 
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -8,30 +7,44 @@ import edu.gemini.model.AbstractSciencePlan;
 
 public class SciencePlan extends AbstractSciencePlan {
     private Astronomer creator;
-    private List<AstronomicalData> astronomicalDataList;
+    private final AstronomicalDataTable astronomicalData = new AstronomicalDataTable();
+    private volatile StatusListener statusListener;
+
+    /**
+     * Notified whenever the status of a stored plan changes, so the indexes kept by OCS stay in sync.
+     */
+    interface StatusListener {
+        void statusChanged(SciencePlan sp, STATUS oldStatus, STATUS newStatus);
+    }
 
     // Data processing requirements
     public enum FileType { PNG, JPEG, RAW }
     public enum FileQuality { LOW, FINE }
     public enum ColorType { COLOR, BW }
 
-    private FileType fileType;
-    private FileQuality fileQuality;
-    private ColorType colorType;
-    private Double contrast;
-    private Double brightness;
-    private Double saturation;
-    private Double exposure;
+    private static final FileType[] FILE_TYPES = FileType.values();
+    private static final FileQuality[] FILE_QUALITIES = FileQuality.values();
+    private static final ColorType[] COLOR_TYPES = ColorType.values();
+    private static final byte UNSET = -1;
+
+    // Data processing block kept as primitives: enums as ordinals (UNSET when null) and
+    // values as doubles with NaN meaning "not set", so a plan carries no boxed Doubles.
+    // The Double and enum getters below are a view over these fields.
+    private byte fileType = UNSET;
+    private byte fileQuality = UNSET;
+    private byte colorType = UNSET;
+    private double contrast = Double.NaN;
+    private double brightness = Double.NaN;
+    private double saturation = Double.NaN;
+    private double exposure = Double.NaN;
 
     public SciencePlan() {
         super();
-        this.astronomicalDataList = new ArrayList<>();
     }
 
     public SciencePlan(int planNo, String name, String creator, double funding, String objective,
                       Date startDate, Date endDate, String telescope, String target, STATUS status) {
         super(planNo, name, creator, funding, objective, startDate, endDate, telescope, target, status);
-        this.astronomicalDataList = new ArrayList<>();
     }
 
     // --- แก้ไขส่วนนี้ ---
@@ -49,70 +62,172 @@ public class SciencePlan extends AbstractSciencePlan {
     }
     // -------------------
 
+    // The listener runs under the plan's monitor, so it sees the transitions of one plan in order
+    @Override
+    public synchronized void setStatus(STATUS status) {
+        STATUS old = getStatus();
+        super.setStatus(status);
+        notifyStatusChanged(old, status);
+    }
+
+    /**
+     * Atomically move the plan to a new status if it is still in the expected one.
+     *
+     * @param expected the status the plan must currently be in
+     * @param status the new status
+     * @return true if the status was updated, false if the plan was in another status
+     */
+    public synchronized boolean compareAndSetStatus(STATUS expected, STATUS status) {
+        if (getStatus() != expected) {
+            return false;
+        }
+        super.setStatus(status);
+        notifyStatusChanged(expected, status);
+        return true;
+    }
+
+    private void notifyStatusChanged(STATUS old, STATUS status) {
+        StatusListener listener = statusListener;
+        if (listener != null && old != status) {
+            listener.statusChanged(this, old, status);
+        }
+    }
+
+    void setStatusListener(StatusListener statusListener) {
+        this.statusListener = statusListener;
+    }
+
+    /**
+     * @return a copy of the plan's data, in the order it was taken
+     */
     public List<AstronomicalData> getAstronomicalDataList() {
-        return astronomicalDataList;
+        return astronomicalData.toList();
+    }
+
+    /**
+     * @return the plan's data, held column by column
+     */
+    public AstronomicalDataTable getAstronomicalData() {
+        return astronomicalData;
     }
 
     public void addAstronomicalData(AstronomicalData data) {
-        this.astronomicalDataList.add(data);
+        astronomicalData.add(data);
     }
 
     public FileType getFileType() {
-        return fileType;
+        return fileType == UNSET ? null : FILE_TYPES[fileType];
     }
 
     public void setFileType(FileType fileType) {
-        this.fileType = fileType;
+        this.fileType = ordinal(fileType);
     }
 
     public FileQuality getFileQuality() {
-        return fileQuality;
+        return fileQuality == UNSET ? null : FILE_QUALITIES[fileQuality];
     }
 
     public void setFileQuality(FileQuality fileQuality) {
-        this.fileQuality = fileQuality;
+        this.fileQuality = ordinal(fileQuality);
     }
 
     public ColorType getColorType() {
-        return colorType;
+        return colorType == UNSET ? null : COLOR_TYPES[colorType];
     }
 
     public void setColorType(ColorType colorType) {
-        this.colorType = colorType;
+        this.colorType = ordinal(colorType);
     }
 
     public Double getContrast() {
+        return box(contrast);
+    }
+
+    /**
+     * @return the contrast, or NaN if it is not set
+     */
+    public double getContrastValue() {
         return contrast;
     }
 
     public void setContrast(Double contrast) {
+        this.contrast = unbox(contrast);
+    }
+
+    // NaN clears the value
+    public void setContrast(double contrast) {
         this.contrast = contrast;
     }
 
     public Double getBrightness() {
+        return box(brightness);
+    }
+
+    /**
+     * @return the brightness, or NaN if it is not set
+     */
+    public double getBrightnessValue() {
         return brightness;
     }
 
     public void setBrightness(Double brightness) {
+        this.brightness = unbox(brightness);
+    }
+
+    public void setBrightness(double brightness) {
         this.brightness = brightness;
     }
 
     public Double getSaturation() {
+        return box(saturation);
+    }
+
+    /**
+     * @return the saturation, or NaN if it is not set
+     */
+    public double getSaturationValue() {
         return saturation;
     }
 
     public void setSaturation(Double saturation) {
+        this.saturation = unbox(saturation);
+    }
+
+    public void setSaturation(double saturation) {
         this.saturation = saturation;
     }
 
     public Double getExposure() {
+        return box(exposure);
+    }
+
+    /**
+     * @return the exposure, or NaN if it is not set
+     */
+    public double getExposureValue() {
         return exposure;
     }
 
     public void setExposure(Double exposure) {
+        this.exposure = unbox(exposure);
+    }
+
+    public void setExposure(double exposure) {
         this.exposure = exposure;
     }
 
+    private static byte ordinal(Enum<?> e) {
+        return e == null ? UNSET : (byte) e.ordinal();
+    }
+
+    private static Double box(double v) {
+        return Double.isNaN(v) ? null : v;
+    }
+
+    private static double unbox(Double v) {
+        return v == null ? Double.NaN : v;
+    }
+
     @Override
     public String toString() {
         return "#" + getPlanNo() +
@@ -0,0 +1,38 @@
+package edu.gemini;
+
+/**
+ * The outcome of creating a science plan. Every outcome other than ACCEPTED means
+ * the plan was saved as a draft (or, for SYSTEM_ERROR, not saved at all).
+ */
+public enum SciencePlanOutcome {
+    ACCEPTED(null),
+    INCOMPLETE("Please complete all required fields before saving the science plan."),
+    INVALID_DATE_RANGE("Start date cannot be after the end date."),
+    INVALID_FUNDING("Funding amount must be a positive numerical value."),
+    DUPLICATE_NAME("A science plan with this name already exists. Please use a different plan name."),
+    UNKNOWN_TARGET("Selected target not found in the star catalogue. Please choose a valid target."),
+    TARGET_NOT_OBSERVABLE("Selected target cannot be observed from this telescope during the selected dates."),
+    DATE_CONFLICT("Selected date range conflicts with another scheduled plan for this telescope."),
+    TELESCOPE_UNAVAILABLE("The telescope is unavailable on a day within the selected date range."),
+    DATA_PROCESSING_OUT_OF_RANGE("Invalid input value. Please enter valid decimal numbers within the allowed range."),
+    DATA_PROCESSING_INCOMPLETE("Please complete all required fields for the selected data processing mode."),
+    LEGACY_INCOMPATIBLE("Input data is not compatible with the legacy OCS system."),
+    SYSTEM_ERROR("Unable to save the science plan due to network or system error. Please try again later.");
+
+    private final String message;
+
+    SciencePlanOutcome(String message) {
+        this.message = message;
+    }
+
+    /**
+     * @return the message shown to the astronomer, or null for ACCEPTED
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    public boolean isAccepted() {
+        return this == ACCEPTED;
+    }
+}
@@ -0,0 +1,92 @@
+package edu.gemini;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Primary-key store for science plans. Complete plans and drafts live in one
+ * table keyed by plan number, each entry carrying a draft flag, so lookup and
+ * removal are O(1) regardless of how many plans are resident.
+ * <p>
+ * The table is a {@link ConcurrentHashMap}, so lookups never take a lock and
+ * may run concurrently with inserts and removals.
+ */
+class SciencePlanRepository {
+
+    private static final Comparator<SciencePlan> BY_PLAN_NO = Comparator.comparingInt(SciencePlan::getPlanNo);
+
+    private static final class Entry {
+        final SciencePlan plan;
+        final boolean draft;
+
+        Entry(SciencePlan plan, boolean draft) {
+            this.plan = plan;
+            this.draft = draft;
+        }
+    }
+
+    private final ConcurrentHashMap<Integer, Entry> plans = new ConcurrentHashMap<>();
+    private final AtomicInteger draftCount = new AtomicInteger();
+
+    public SciencePlan get(int planNo) {
+        Entry e = plans.get(planNo);
+        return e == null ? null : e.plan;
+    }
+
+    public boolean isDraft(int planNo) {
+        Entry e = plans.get(planNo);
+        return e != null && e.draft;
+    }
+
+    public void add(SciencePlan sp, boolean draft) {
+        Entry old = plans.put(sp.getPlanNo(), new Entry(sp, draft));
+        if (old != null && old.draft) draftCount.decrementAndGet();
+        if (draft) draftCount.incrementAndGet();
+    }
+
+    public SciencePlan remove(int planNo) {
+        Entry e = plans.remove(planNo);
+        if (e == null) return null;
+        if (e.draft) draftCount.decrementAndGet();
+        return e.plan;
+    }
+
+    public void clear() {
+        plans.clear();
+        draftCount.set(0);
+    }
+
+    public int size() {
+        return plans.size();
+    }
+
+    public int draftSize() {
+        return draftCount.get();
+    }
+
+    public int completeSize() {
+        return plans.size() - draftCount.get();
+    }
+
+    public ArrayList<SciencePlan> getCompletePlans() {
+        return collect(false, completeSize());
+    }
+
+    public ArrayList<SciencePlan> getDraftPlans() {
+        return collect(true, draftSize());
+    }
+
+    // Snapshot of one kind of plan, in plan number (creation) order
+    private ArrayList<SciencePlan> collect(boolean draft, int expected) {
+        ArrayList<SciencePlan> result = new ArrayList<>(Math.max(expected, 0));
+        for (Entry e : plans.values()) {
+            if (e.draft == draft) {
+                result.add(e.plan);
+            }
+        }
+        result.sort(BY_PLAN_NO);
+        return result;
+    }
+}
@@ -0,0 +1,36 @@
+package edu.gemini;
+
+/**
+ * The outcome of testing or submitting a science plan. Only PASSED, TESTED and SUBMITTED
+ * mean the step went through.
+ */
+public enum SciencePlanStepOutcome {
+    PASSED("Science plan passed the test. Status remains CREATED."),
+    TESTED("Science plan passed the test. Status updated to TESTED."),
+    SUBMITTED("Science plan submitted successfully. It now awaits validation by a Science Observer."),
+    NOT_FOUND("Science plan not found."),
+    NOT_CREATED("TEST FAILED: Science plan must be in CREATED status."),
+    INVALID_FUNDING("TEST FAILED: Invalid funding amount."),
+    MISSING_OBJECTIVE("TEST FAILED: Missing objective."),
+    MISSING_TARGET("TEST FAILED: Missing target."),
+    NOT_TESTED("This science plan is created but not tested. Please test it before submission."),
+    ALREADY_SUBMITTED("This science plan has already been submitted or executed."),
+    CLOSED("This science plan cannot be submitted because it is INVALIDATED or CANCELLED.");
+
+    private final String message;
+
+    SciencePlanStepOutcome(String message) {
+        this.message = message;
+    }
+
+    /**
+     * @return the message shown to the astronomer
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    public boolean isSuccess() {
+        return this == PASSED || this == TESTED || this == SUBMITTED;
+    }
+}
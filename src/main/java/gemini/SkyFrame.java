@@ -0,0 +1,180 @@
+package edu.gemini;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import edu.gemini.model.StarSystem;
+
+/**
+ * One exposure taken by a telescope: a grey-scale image in a pooled direct buffer, with the
+ * pointing it was taken at.
+ * <p>
+ * Pixels are unsigned, 8 or 16 bits, stored row by row in big-endian order (the order of
+ * FITS files). The frame owns its buffer until {@link #release()} hands it back to the pool;
+ * after that the pixels must not be read. Frames read back from the astronomical data store
+ * are read-only views of the mapped file and belong to no pool.
+ */
+public final class SkyFrame {
+
+    /**
+     * Resolution and bit depth of the frames a telescope takes. Immutable.
+     */
+    public static final class Format {
+        public static final Format DEFAULT = new Format(1024, 1024, 16);
+
+        private final int width;
+        private final int height;
+        private final int bitDepth;
+
+        /**
+         * @throws IllegalArgumentException if a dimension is not positive, the frame is over 256 MB,
+         *         or the bit depth is not 8 or 16
+         */
+        public Format(int width, int height, int bitDepth) {
+            if (width <= 0 || height <= 0) {
+                throw new IllegalArgumentException("Frame size must be positive: " + width + "x" + height);
+            }
+            if (bitDepth != 8 && bitDepth != 16) {
+                throw new IllegalArgumentException("Bit depth must be 8 or 16: " + bitDepth);
+            }
+            if ((long) width * height * (bitDepth / 8) > (256L << 20)) {
+                throw new IllegalArgumentException("Frame is too large: " + width + "x" + height);
+            }
+            this.width = width;
+            this.height = height;
+            this.bitDepth = bitDepth;
+        }
+
+        public int getWidth() { return width; }
+
+        public int getHeight() { return height; }
+
+        public int getBitDepth() { return bitDepth; }
+
+        public int getBytesPerPixel() { return bitDepth / 8; }
+
+        public int getMaxValue() { return (1 << bitDepth) - 1; }
+
+        public int getByteSize() { return width * height * getBytesPerPixel(); }
+
+        @Override
+        public String toString() {
+            return width + "x" + height + ", " + bitDepth + "-bit";
+        }
+    }
+
+    private final Format format;
+    private final ByteBuffer pixels;
+    private final FrameBufferPool pool;
+    private final TelescopeSite site;
+    private final StarSystem.CONSTELLATIONS target;
+    private final int azimuth;
+    private final int altitude;
+    private final boolean focused;
+    private final long takenAt;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    SkyFrame(Format format, ByteBuffer pixels, FrameBufferPool pool, TelescopeSite site,
+             StarSystem.CONSTELLATIONS target, int azimuth, int altitude, boolean focused, long takenAt) {
+        this.format = format;
+        this.pixels = pixels;
+        this.pool = pool;
+        this.site = site;
+        this.target = target;
+        this.azimuth = azimuth;
+        this.altitude = altitude;
+        this.focused = focused;
+        this.takenAt = takenAt;
+    }
+
+    public Format getFormat() { return format; }
+
+    public int getWidth() { return format.width; }
+
+    public int getHeight() { return format.height; }
+
+    public int getBitDepth() { return format.bitDepth; }
+
+    public TelescopeSite getSite() { return site; }
+
+    /** @return the constellation observed, or null if no plan was being observed */
+    public StarSystem.CONSTELLATIONS getTarget() { return target; }
+
+    public int getAzimuth() { return azimuth; }
+
+    public int getAltitude() { return altitude; }
+
+    public boolean isFocused() { return focused; }
+
+    /** @return when the frame was taken, in epoch milliseconds */
+    public long getTakenAt() { return takenAt; }
+
+    /**
+     * @return the unsigned value of a pixel
+     */
+    public int getPixel(int x, int y) {
+        checkNotReleased();
+        int i = y * format.width + x;
+        return format.bitDepth == 8 ? pixels.get(i) & 0xFF : pixels.getShort(i * 2) & 0xFFFF;
+    }
+
+    /**
+     * @return a read-only view of the pixels, position 0
+     */
+    public ByteBuffer getPixels() {
+        checkNotReleased();
+        return pixels.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return a copy of the frame in its own heap buffer, which belongs to no pool and stays
+     *         readable after this frame is released
+     */
+    public SkyFrame copy() {
+        checkNotReleased();
+        ByteBuffer copy = ByteBuffer.allocate(format.getByteSize());
+        copy.put(0, pixels, 0, format.getByteSize());
+        return new SkyFrame(format, copy, null, site, target, azimuth, altitude, focused, takenAt);
+    }
+
+    // The buffer itself, for code in this package that fills or processes it
+    ByteBuffer buffer() {
+        checkNotReleased();
+        return pixels;
+    }
+
+    // Frames read from the data store have no pool; their processed copies go to the default one
+    FrameBufferPool pool() {
+        return pool != null ? pool : FrameBufferPool.getDefault();
+    }
+
+    // The same exposure with other pixels, e.g. after processing; the buffer must come from pool()
+    SkyFrame withPixels(ByteBuffer pixels) {
+        return new SkyFrame(format, pixels, pool(), site, target, azimuth, altitude, focused, takenAt);
+    }
+
+    public boolean isReleased() {
+        return released.get();
+    }
+
+    /**
+     * Hand the pixel buffer back to the pool. Only the first call has an effect.
+     */
+    public void release() {
+        if (released.compareAndSet(false, true) && pool != null) {
+            pool.release(pixels);
+        }
+    }
+
+    private void checkNotReleased() {
+        if (released.get()) {
+            throw new IllegalStateException("Frame has been released");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return format + " frame of " + (target == null ? "the sky" : target.name()) + " from " +
+                site.getDisplayName() + " at azimuth " + azimuth + ", altitude " + altitude;
+    }
+}
@@ -0,0 +1,135 @@
+package edu.gemini;
+
+import java.nio.ByteBuffer;
+
+import edu.gemini.model.StarSystem;
+
+/**
+ * Renders synthetic sky frames for the virtual telescopes.
+ * <p>
+ * A frame is sky background, brighter towards the horizon, with read noise, plus a star field
+ * drawn as Gaussian spots. The star field depends only on the target and the pointing, so
+ * two exposures of the same field show the same stars; the noise differs per exposure.
+ * Larger constellations get more stars. An unfocused telescope spreads each star over a wider
+ * spot. Rendering writes straight into the frame's pooled buffer and allocates nothing else.
+ */
+final class SkyRenderer {
+
+    // Star spot width in pixels
+    private static final double FOCUSED_SIGMA = 1.2;
+    private static final double UNFOCUSED_SIGMA = 3.5;
+    private static final float[] FOCUSED_KERNEL = kernel(FOCUSED_SIGMA);
+    private static final float[] UNFOCUSED_KERNEL = kernel(UNFOCUSED_SIGMA);
+
+    // Stars in a 1024x1024 frame of the smallest and largest constellations
+    private static final int MIN_STARS = 30;
+    private static final int MAX_STARS = 400;
+    private static final double REFERENCE_PIXELS = 1024.0 * 1024.0;
+
+    private SkyRenderer() {
+    }
+
+    /**
+     * @param target the constellation observed, or null for a field with no catalogue target
+     * @param exposure distinguishes exposures of the same field, e.g. the photo number
+     */
+    static SkyFrame render(SkyFrame.Format format, FrameBufferPool pool, TelescopeSite site,
+                           StarSystem.CONSTELLATIONS target, int azimuth, int altitude, boolean focused,
+                           long exposure) {
+        ByteBuffer pixels = pool.acquire(format.getByteSize());
+        int width = format.getWidth();
+        int height = format.getHeight();
+        int max = format.getMaxValue();
+        boolean wide = format.getBitDepth() == 16;
+
+        // Background: 4% of full scale at the zenith up to 10% at the horizon, 1% read noise
+        int sky = (int) (max * (0.04 + 0.06 * (90 - Math.max(0, Math.min(90, altitude))) / 90.0));
+        // Fixed point: noise * 2^-20 per unit of the 21-bit deviates below
+        long noise = (long) (max * 0.01 * 2);
+        long rng = mix(exposure * 0x9E3779B97F4A7C15L + site.ordinal());
+        int n = width * height;
+        for (int i = 0; i < n; i++) {
+            rng = next(rng);
+            // Sum of three uniforms, a cheap approximation of a normal deviate
+            long g = (rng & 0x1FFFFF) + (rng >>> 21 & 0x1FFFFF) + (rng >>> 42 & 0x1FFFFF) - (3L << 20);
+            int v = clamp(sky + (int) (noise * g >> 21), max);
+            if (wide) {
+                pixels.putShort(i << 1, (short) v);
+            } else {
+                pixels.put(i, (byte) v);
+            }
+        }
+
+        float[] kernel = focused ? FOCUSED_KERNEL : UNFOCUSED_KERNEL;
+        int radius = kernel.length / 2;
+        long field = mix(((target == null ? -1L : target.ordinal()) << 32) ^ ((long) azimuth << 16) ^ altitude);
+        int stars = starCount(target, n);
+        for (int s = 0; s < stars; s++) {
+            field = next(field);
+            int cx = (int) (unit(field) * width);
+            int cy = (int) (unit(field >>> 21) * height);
+            // Few bright stars, many faint ones
+            double u = unit(field >>> 42);
+            double peak = max * (0.05 + 0.9 * u * u * u);
+            for (int dy = -radius; dy <= radius; dy++) {
+                int y = cy + dy;
+                if (y < 0 || y >= height) continue;
+                float ky = kernel[dy + radius];
+                for (int dx = -radius; dx <= radius; dx++) {
+                    int x = cx + dx;
+                    if (x < 0 || x >= width) continue;
+                    int i = y * width + x;
+                    int add = (int) (peak * ky * kernel[dx + radius]);
+                    if (wide) {
+                        pixels.putShort(i * 2, (short) clamp((pixels.getShort(i * 2) & 0xFFFF) + add, max));
+                    } else {
+                        pixels.put(i, (byte) clamp((pixels.get(i) & 0xFF) + add, max));
+                    }
+                }
+            }
+        }
+        return new SkyFrame(format, pixels, pool, site, target, azimuth, altitude, focused,
+                System.currentTimeMillis());
+    }
+
+    private static int starCount(StarSystem.CONSTELLATIONS target, int pixels) {
+        // Constellation areas run from about 70 to 1300 square degrees
+        double base = target == null ? MIN_STARS : MIN_STARS + (MAX_STARS - MIN_STARS) * Math.min(1.0, target.area / 1300.0);
+        return Math.max(1, (int) (base * pixels / REFERENCE_PIXELS));
+    }
+
+    // 1-D Gaussian with peak 1, out to three sigma; a spot is the product of two
+    private static float[] kernel(double sigma) {
+        int radius = (int) Math.ceil(3 * sigma);
+        float[] k = new float[2 * radius + 1];
+        for (int i = -radius; i <= radius; i++) {
+            k[i + radius] = (float) Math.exp(-(i * i) / (2 * sigma * sigma));
+        }
+        return k;
+    }
+
+    private static int clamp(int v, int max) {
+        return v < 0 ? 0 : Math.min(v, max);
+    }
+
+    // xorshift64
+    private static long next(long x) {
+        x ^= x << 13;
+        x ^= x >>> 7;
+        x ^= x << 17;
+        return x;
+    }
+
+    // SplitMix64 finalizer; 0 is remapped, xorshift would stay at 0
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z ^= z >>> 31;
+        return z == 0 ? 0x2545F4914F6CDD1DL : z;
+    }
+
+    // 21 bits as a double in [0, 1)
+    private static double unit(long bits) {
+        return (bits & 0x1FFFFF) / (double) (1 << 21);
+    }
+}
@@ -0,0 +1,288 @@
+package edu.gemini;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import edu.gemini.model.StarSystem;
+
+/**
+ * Lookup index over {@link StarSystem.CONSTELLATIONS}, built once.
+ * <p>
+ * Every constellation is known by its Latin name ("CanisMajor", also "Canis Major"), its
+ * English name ("Greater Dog") and, when the English name has a remark in parentheses,
+ * the name without it ("Whale" for "Whale (or Sea Monster)"). Names are matched on their
+ * letters and digits only, ignoring case, accents, spaces and punctuation, so
+ * "berenice's hair" finds ComaBerenices. A shortened English name shared by two
+ * constellations ("Compass") is left out rather than guessed.
+ * <p>
+ * {@link #find} is O(name length) and does not allocate for ASCII input. {@link #complete}
+ * walks a trie over the same names and every word inside them ("bear" suggests both
+ * UrsaMajor and UrsaMinor), with the matches of each node precomputed, so it costs
+ * O(prefix length + results). The index is immutable and safe to share between threads.
+ */
+public final class StarCatalogue {
+
+    private static final StarCatalogue DEFAULT = new StarCatalogue(StarSystem.CONSTELLATIONS.values());
+
+    private final List<StarSystem.CONSTELLATIONS> all;
+
+    // Open-addressing table from folded name to constellation; size is a power of two
+    private final String[] keys;
+    private final StarSystem.CONSTELLATIONS[] values;
+    private final int mask;
+
+    private final TrieNode root;
+
+    private static final class TrieNode {
+        char[] labels = new char[0];
+        TrieNode[] children = new TrieNode[0];
+        // Ordinals of the constellations below this node, ascending
+        int[] matches;
+    }
+
+    StarCatalogue(StarSystem.CONSTELLATIONS[] constellations) {
+        this.all = Collections.unmodifiableList(Arrays.asList(constellations.clone()));
+
+        // Latin names first, so they win over English names that fold to the same key
+        Map<String, StarSystem.CONSTELLATIONS> names = new HashMap<>();
+        Map<String, StarSystem.CONSTELLATIONS> aliases = new HashMap<>();
+        List<String> ambiguous = new ArrayList<>();
+        for (StarSystem.CONSTELLATIONS c : constellations) {
+            names.put(fold(c.name()), c);
+        }
+        for (StarSystem.CONSTELLATIONS c : constellations) {
+            names.putIfAbsent(fold(c.engName), c);
+        }
+        for (StarSystem.CONSTELLATIONS c : constellations) {
+            String shortName = fold(withoutRemark(c.engName));
+            if (shortName.isEmpty() || names.containsKey(shortName)) continue;
+            StarSystem.CONSTELLATIONS other = aliases.putIfAbsent(shortName, c);
+            if (other != null && other != c) ambiguous.add(shortName);
+        }
+        ambiguous.forEach(aliases::remove);
+        names.putAll(aliases);
+
+        int capacity = Integer.highestOneBit(Math.max(names.size(), 1) * 4);
+        this.keys = new String[capacity];
+        this.values = new StarSystem.CONSTELLATIONS[capacity];
+        this.mask = capacity - 1;
+        for (Map.Entry<String, StarSystem.CONSTELLATIONS> e : names.entrySet()) {
+            int i = hash(e.getKey()) & mask;
+            while (keys[i] != null) i = (i + 1) & mask;
+            keys[i] = e.getKey();
+            values[i] = e.getValue();
+        }
+
+        this.root = buildTrie(constellations);
+    }
+
+    /**
+     * @return the catalogue of every star system supported by Gemini
+     */
+    public static StarCatalogue getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return every star system, in catalogue order
+     */
+    public List<StarSystem.CONSTELLATIONS> getAll() {
+        return all;
+    }
+
+    /**
+     * Look up a star system by its Latin or English name.
+     *
+     * @param name the name, in any case and spacing
+     * @return the star system, or null if the name is not in the catalogue
+     */
+    public StarSystem.CONSTELLATIONS find(String name) {
+        if (name == null) return null;
+        if (!isAscii(name)) {
+            name = stripAccents(name);
+        }
+        int h = 0;
+        int length = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = foldChar(name.charAt(i));
+            if (c != 0) {
+                h = 31 * h + c;
+                length++;
+            }
+        }
+        if (length == 0) return null;
+        for (int i = spread(h) & mask; keys[i] != null; i = (i + 1) & mask) {
+            if (keys[i].length() == length && matchesFolded(keys[i], name)) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    public boolean contains(String name) {
+        return find(name) != null;
+    }
+
+    /**
+     * Suggest star systems whose Latin or English name, or a word in it, starts with the prefix.
+     *
+     * @param prefix the text typed so far
+     * @param limit the maximum number of suggestions
+     * @return the suggestions in catalogue order, empty if the prefix matches nothing
+     */
+    public List<StarSystem.CONSTELLATIONS> complete(String prefix, int limit) {
+        if (prefix == null || limit <= 0) return Collections.emptyList();
+        if (!isAscii(prefix)) {
+            prefix = stripAccents(prefix);
+        }
+        TrieNode node = root;
+        for (int i = 0; i < prefix.length() && node != null; i++) {
+            char c = foldChar(prefix.charAt(i));
+            if (c != 0) {
+                node = child(node, c);
+            }
+        }
+        if (node == null || node == root) return Collections.emptyList();
+
+        int n = Math.min(limit, node.matches.length);
+        List<StarSystem.CONSTELLATIONS> result = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            result.add(all.get(node.matches[i]));
+        }
+        return result;
+    }
+
+    // --- Trie ---
+
+    private static TrieNode buildTrie(StarSystem.CONSTELLATIONS[] constellations) {
+        // Collect the matches per node in sorted sets first, then freeze them into arrays
+        Map<TrieNode, TreeSet<Integer>> pending = new HashMap<>();
+        TrieNode root = new TrieNode();
+        for (StarSystem.CONSTELLATIONS c : constellations) {
+            for (String word : wordsOf(c)) {
+                TrieNode node = root;
+                for (int i = 0; i < word.length(); i++) {
+                    node = childOrAdd(node, word.charAt(i));
+                    pending.computeIfAbsent(node, k -> new TreeSet<>()).add(c.ordinal());
+                }
+            }
+        }
+        root.matches = new int[0];
+        for (Map.Entry<TrieNode, TreeSet<Integer>> e : pending.entrySet()) {
+            e.getKey().matches = e.getValue().stream().mapToInt(Integer::intValue).toArray();
+        }
+        return root;
+    }
+
+    // Every folded name of the constellation, plus the folded text from the start of each word in it
+    private static List<String> wordsOf(StarSystem.CONSTELLATIONS c) {
+        List<String> words = new ArrayList<>();
+        for (String name : new String[] { splitCamelCase(c.name()), c.engName }) {
+            String plain = stripAccents(name);
+            boolean wordStart = true;
+            for (int i = 0; i < plain.length(); i++) {
+                boolean letter = foldChar(plain.charAt(i)) != 0;
+                if (letter && wordStart) {
+                    String word = fold(plain.substring(i));
+                    if (!words.contains(word)) words.add(word);
+                }
+                wordStart = !letter;
+            }
+        }
+        return words;
+    }
+
+    private static TrieNode child(TrieNode node, char c) {
+        int i = Arrays.binarySearch(node.labels, c);
+        return i < 0 ? null : node.children[i];
+    }
+
+    private static TrieNode childOrAdd(TrieNode node, char c) {
+        int i = Arrays.binarySearch(node.labels, c);
+        if (i >= 0) return node.children[i];
+        int at = -i - 1;
+        int n = node.labels.length;
+        char[] labels = new char[n + 1];
+        TrieNode[] children = new TrieNode[n + 1];
+        System.arraycopy(node.labels, 0, labels, 0, at);
+        System.arraycopy(node.children, 0, children, 0, at);
+        System.arraycopy(node.labels, at, labels, at + 1, n - at);
+        System.arraycopy(node.children, at, children, at + 1, n - at);
+        labels[at] = c;
+        children[at] = new TrieNode();
+        node.labels = labels;
+        node.children = children;
+        return children[at];
+    }
+
+    // --- Folding ---
+
+    // Lower-cased letter or digit, or 0 for characters that are ignored
+    private static char foldChar(char c) {
+        if (c >= 'a' && c <= 'z' || c >= '0' && c <= '9') return c;
+        if (c >= 'A' && c <= 'Z') return (char) (c + ('a' - 'A'));
+        if (c < 128 || !Character.isLetterOrDigit(c)) return 0;
+        return Character.toLowerCase(c);
+    }
+
+    static String fold(String s) {
+        String plain = stripAccents(s);
+        StringBuilder sb = new StringBuilder(plain.length());
+        for (int i = 0; i < plain.length(); i++) {
+            char c = foldChar(plain.charAt(i));
+            if (c != 0) sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static boolean matchesFolded(String key, String name) {
+        int k = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = foldChar(name.charAt(i));
+            if (c != 0 && key.charAt(k++) != c) return false;
+        }
+        return true;
+    }
+
+    private static int hash(String folded) {
+        return spread(folded.hashCode());
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 128) return false;
+        }
+        return true;
+    }
+
+    private static String stripAccents(String s) {
+        return Normalizer.normalize(s, Normalizer.Form.NFD).replaceAll("\\p{M}", "");
+    }
+
+    // "Whale (or Sea Monster)" -> "Whale"
+    private static String withoutRemark(String engName) {
+        int paren = engName.indexOf('(');
+        return paren < 0 ? engName : engName.substring(0, paren).trim();
+    }
+
+    // "CanisMajor" -> "Canis Major", so each part is a word for autocomplete
+    private static String splitCamelCase(String name) {
+        StringBuilder sb = new StringBuilder(name.length() + 4);
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (i > 0 && Character.isUpperCase(c)) sb.append(' ');
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
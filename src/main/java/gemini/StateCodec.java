@@ -0,0 +1,303 @@
+package edu.gemini;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import edu.gemini.model.AbstractObservingProgramConfigs;
+import edu.gemini.model.AbstractSciencePlan;
+import edu.gemini.model.AbstractTelePositionPair;
+
+/**
+ * Binary encoding of the OCS domain objects, shared by the journal and the snapshots.
+ * Nullable values are prefixed with a presence flag; enums are stored as ordinals.
+ */
+final class StateCodec {
+
+    private static final AbstractSciencePlan.STATUS[] STATUSES = AbstractSciencePlan.STATUS.values();
+    private static final SciencePlan.FileType[] FILE_TYPES = SciencePlan.FileType.values();
+    private static final SciencePlan.FileQuality[] FILE_QUALITIES = SciencePlan.FileQuality.values();
+    private static final SciencePlan.ColorType[] COLOR_TYPES = SciencePlan.ColorType.values();
+    private static final AbstractObservingProgramConfigs.FoldMirrorType[] FOLD_MIRROR_TYPES =
+            AbstractObservingProgramConfigs.FoldMirrorType.values();
+    private static final AbstractObservingProgramConfigs.CalibrationUnit[] CALIBRATION_UNITS =
+            AbstractObservingProgramConfigs.CalibrationUnit.values();
+    private static final AbstractObservingProgramConfigs.LightType[] LIGHT_TYPES =
+            AbstractObservingProgramConfigs.LightType.values();
+
+    private StateCodec() {
+    }
+
+    // --- Science plans ---
+
+    static void writePlan(DataOutput out, SciencePlan sp) throws IOException {
+        out.writeInt(sp.getPlanNo());
+        writeString(out, sp.getName());
+        writeString(out, sp.getCreator());
+        out.writeDouble(sp.getFunding());
+        writeString(out, sp.getObjective());
+        writeDate(out, sp.getStartDate());
+        writeDate(out, sp.getEndDate());
+        writeString(out, sp.getTelescope());
+        writeString(out, sp.getTarget());
+        writeStatus(out, sp.getStatus());
+        writeAstronomer(out, sp.getCreatorAstronomer());
+        writeEnum(out, sp.getFileType());
+        writeEnum(out, sp.getFileQuality());
+        writeEnum(out, sp.getColorType());
+        writeOptional(out, sp.getContrastValue());
+        writeOptional(out, sp.getBrightnessValue());
+        writeOptional(out, sp.getSaturationValue());
+        writeOptional(out, sp.getExposureValue());
+    }
+
+    static SciencePlan readPlan(DataInput in) throws IOException {
+        SciencePlan sp = new SciencePlan();
+        sp.setPlanNo(in.readInt());
+        sp.setName(readString(in));
+        String creator = readString(in);
+        sp.setFunding(in.readDouble());
+        sp.setObjective(readString(in));
+        sp.setStartDate(readDate(in));
+        sp.setEndDate(readDate(in));
+        sp.setTelescope(readString(in));
+        sp.setTarget(readString(in));
+        sp.setStatus(readStatus(in));
+        sp.setCreator(readAstronomer(in));
+        sp.setCreator(creator);
+        int fileType = in.readByte();
+        sp.setFileType(fileType < 0 ? null : FILE_TYPES[fileType]);
+        int fileQuality = in.readByte();
+        sp.setFileQuality(fileQuality < 0 ? null : FILE_QUALITIES[fileQuality]);
+        int colorType = in.readByte();
+        sp.setColorType(colorType < 0 ? null : COLOR_TYPES[colorType]);
+        sp.setContrast(readOptional(in));
+        sp.setBrightness(readOptional(in));
+        sp.setSaturation(readOptional(in));
+        sp.setExposure(readOptional(in));
+        return sp;
+    }
+
+    static void writeStatus(DataOutput out, AbstractSciencePlan.STATUS status) throws IOException {
+        out.writeByte(status == null ? -1 : status.ordinal());
+    }
+
+    static AbstractSciencePlan.STATUS readStatus(DataInput in) throws IOException {
+        int ordinal = in.readByte();
+        return ordinal < 0 ? null : STATUSES[ordinal];
+    }
+
+    // --- Observing programs ---
+
+    static void writeProgram(DataOutput out, ObservingProgram op) throws IOException {
+        out.writeInt(op.getId());
+        out.writeInt(op.getSciencePlan() == null ? -1 : op.getSciencePlan().getPlanNo());
+        writeString(out, op.getGeminiLocation());
+        writeString(out, op.getOpticsPrimary());
+        out.writeDouble(op.getFStop());
+        out.writeDouble(op.getOpticsSecondaryRMS());
+        out.writeDouble(op.getScienceFoldMirrorDegree());
+        out.writeInt(op.getModuleContent());
+
+        ObservingProgramConfigs conf = op.getConfigs();
+        out.writeBoolean(conf != null);
+        if (conf != null) {
+            writeString(out, conf.getOpticsPrimary());
+            out.writeDouble(conf.getFStop());
+            out.writeDouble(conf.getOpticsSecondaryRMS());
+            out.writeDouble(conf.getScienceFoldMirrorDegree());
+            writeEnum(out, conf.getFoldMirrorTypeValue());
+            out.writeInt(conf.getModuleContent());
+            writeEnum(out, conf.getCalibrationUnitValue());
+            writeEnum(out, conf.getLightTypeValue());
+            AbstractTelePositionPair[] pairs = conf.getTelePositionPairs();
+            out.writeInt(pairs == null ? -1 : pairs.length);
+            if (pairs != null) {
+                for (AbstractTelePositionPair pair : pairs) {
+                    out.writeDouble(pair.getDirection());
+                    out.writeDouble(pair.getDegree());
+                }
+            }
+        }
+
+        ScienceObserver so = op.getObserver();
+        out.writeBoolean(so != null);
+        if (so != null) {
+            out.writeInt(so.getId());
+            writeString(out, so.getFirstName());
+            writeString(out, so.getLastName());
+            writeString(out, so.getAddress());
+            writeString(out, so.getEmail());
+            writeString(out, so.getDepartment());
+        }
+
+        GcalCalibration.Solution[] calibration = op.getCalibration();
+        out.writeInt(calibration == null ? -1 : calibration.length);
+        if (calibration != null) {
+            for (GcalCalibration.Solution solution : calibration) {
+                out.writeBoolean(solution != null);
+                if (solution != null) {
+                    writeEnum(out, solution.getLamp());
+                    double[] coefficients = solution.getCoefficients();
+                    out.writeInt(coefficients.length);
+                    for (double c : coefficients) {
+                        out.writeDouble(c);
+                    }
+                    out.writeInt(solution.getMatchedLines());
+                    out.writeDouble(solution.getRmsNm());
+                }
+            }
+        }
+    }
+
+    /**
+     * Read an observing program. The referenced science plan is resolved through the given OCS,
+     * so plans must be restored before the programs that refer to them.
+     *
+     * @param withCalibration false for programs written before calibrations were stored; their
+     *                        calibration is fitted again from the plan's arcs, which are seeded by plan number
+     */
+    static ObservingProgram readProgram(DataInput in, OCS ocs, boolean withCalibration) throws IOException {
+        ObservingProgram op = new ObservingProgram();
+        op.setId(in.readInt());
+        int planNo = in.readInt();
+        if (planNo >= 0) {
+            op.setSciencePlan(ocs.getSciencePlanByNo(planNo));
+        }
+        op.setGeminiLocation(readString(in));
+        op.setOpticsPrimary(readString(in));
+        op.setFStop(in.readDouble());
+        op.setOpticsSecondaryRMS(in.readDouble());
+        op.setScienceFoldMirrorDegree(in.readDouble());
+        op.setModuleContent(in.readInt());
+
+        if (in.readBoolean()) {
+            String opticsPrimary = readString(in);
+            double fStop = in.readDouble();
+            double rms = in.readDouble();
+            double degree = in.readDouble();
+            int foldMirrorType = in.readByte();
+            int moduleContent = in.readInt();
+            int calibrationUnit = in.readByte();
+            int lightType = in.readByte();
+            int pairCount = in.readInt();
+            AbstractTelePositionPair[] pairs = null;
+            if (pairCount >= 0) {
+                pairs = new AbstractTelePositionPair[pairCount];
+                for (int i = 0; i < pairCount; i++) {
+                    pairs[i] = new AbstractTelePositionPair(in.readDouble(), in.readDouble());
+                }
+            }
+            op.setConfigs(new ObservingProgramConfigs(opticsPrimary, fStop, rms, degree,
+                    foldMirrorType < 0 ? null : FOLD_MIRROR_TYPES[foldMirrorType],
+                    moduleContent,
+                    calibrationUnit < 0 ? null : CALIBRATION_UNITS[calibrationUnit],
+                    lightType < 0 ? null : LIGHT_TYPES[lightType],
+                    pairs));
+        }
+
+        if (in.readBoolean()) {
+            ScienceObserver so = new ScienceObserver();
+            so.setId(in.readInt());
+            so.setFirstName(readString(in));
+            so.setLastName(readString(in));
+            so.setAddress(readString(in));
+            so.setEmail(readString(in));
+            so.setDepartment(readString(in));
+            op.setObserver(so);
+        }
+
+        if (withCalibration) {
+            int count = in.readInt();
+            if (count >= 0) {
+                GcalCalibration.Solution[] calibration = new GcalCalibration.Solution[count];
+                for (int i = 0; i < count; i++) {
+                    if (in.readBoolean()) {
+                        int lamp = in.readByte();
+                        double[] coefficients = new double[in.readInt()];
+                        for (int c = 0; c < coefficients.length; c++) {
+                            coefficients[c] = in.readDouble();
+                        }
+                        calibration[i] = new GcalCalibration.Solution(CALIBRATION_UNITS[lamp], coefficients,
+                                in.readInt(), in.readDouble());
+                    }
+                }
+                op.setCalibration(calibration);
+            }
+        } else if (op.getSciencePlan() != null && op.getConfigs() != null &&
+                op.getConfigs().getCalibrationUnitValue() != null) {
+            op.setCalibration(OCS.calibrate(op.getSciencePlan().getPlanNo(), op.getConfigs().getCalibrationUnitValue()));
+        }
+        return op;
+    }
+
+    // --- Primitives ---
+
+    private static void writeAstronomer(DataOutput out, Astronomer an) throws IOException {
+        out.writeBoolean(an != null);
+        if (an != null) {
+            out.writeInt(an.getId());
+            writeString(out, an.getFirstName());
+            writeString(out, an.getLastName());
+            writeString(out, an.getAddress());
+            writeString(out, an.getEmail());
+            writeString(out, an.getInstitution());
+        }
+    }
+
+    private static Astronomer readAstronomer(DataInput in) throws IOException {
+        if (!in.readBoolean()) return null;
+        Astronomer an = new Astronomer();
+        an.setId(in.readInt());
+        an.setFirstName(readString(in));
+        an.setLastName(readString(in));
+        an.setAddress(readString(in));
+        an.setEmail(readString(in));
+        an.setInstitution(readString(in));
+        return an;
+    }
+
+    // Strings are written as length-prefixed UTF-8, so long objectives are not limited to 64 KB
+    static void writeString(DataOutput out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeDate(DataOutput out, Date d) throws IOException {
+        out.writeBoolean(d != null);
+        if (d != null) out.writeLong(d.getTime());
+    }
+
+    static Date readDate(DataInput in) throws IOException {
+        return in.readBoolean() ? new Date(in.readLong()) : null;
+    }
+
+    // Optional plan values are NaN when not set
+    private static void writeOptional(DataOutput out, double d) throws IOException {
+        out.writeBoolean(!Double.isNaN(d));
+        if (!Double.isNaN(d)) out.writeDouble(d);
+    }
+
+    private static double readOptional(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readDouble() : Double.NaN;
+    }
+
+    private static void writeEnum(DataOutput out, Enum<?> e) throws IOException {
+        out.writeByte(e == null ? -1 : e.ordinal());
+    }
+}
@@ -0,0 +1,598 @@
+package edu.gemini;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * Packs pending science plans into non-overlapping windows on the Hawaii and Chile
+ * calendars over a horizon of whole days, maximizing the funding of the scheduled plans.
+ * <p>
+ * Each request asks for a number of consecutive days at one site (the plan's telescope) in the
+ * months its target is in season there. Days that are blocked at a site, because of an
+ * unavailable date or a plan already running, are never used. Within the feasible windows a
+ * plan is placed as close to its target's best month as possible.
+ * <p>
+ * {@link #solve()} runs a greedy pass in order of funding per day, then rounds of local search:
+ * every unscheduled plan looks, in parallel, for the window where evicting the plans in its way
+ * gains the most funding, counting one evicted plan that can move to a free window as kept.
+ * The best moves are applied one by one, re-checked against the current calendar, and the
+ * other evicted plans are placed elsewhere if they fit. After a solve,
+ * {@link #update} and {@link #remove} re-solve around a single changed plan.
+ * <p>
+ * Calendars are bitmaps with one bit per horizon day, so finding every window of n free days
+ * is a handful of word operations. All public methods are synchronized.
+ */
+public final class TelescopeScheduler {
+
+    private static final TelescopeSite[] SITES = TelescopeSite.values();
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+    private static final double EPSILON = 1e-9;
+    private static final int MAX_ROUNDS = 50;
+
+    /**
+     * A plan to schedule.
+     */
+    public static final class Request {
+        final int planNo;
+        final double funding;
+        final int days;
+        final long spanMs;
+        final TelescopeSite site;
+        final int monthMask;
+        final int bestMonth;
+
+        /**
+         * @param planNo the science plan number
+         * @param funding the plan's funding
+         * @param spanMs the length of the plan, end date minus start date
+         * @param site the site that must observe the plan
+         * @param monthMask the months the target can be observed from the site, bit (month - 1) for each
+         * @param bestMonth the target's best month, 1 to 12
+         */
+        public Request(int planNo, double funding, long spanMs, TelescopeSite site, int monthMask, int bestMonth) {
+            this.planNo = planNo;
+            this.funding = funding;
+            this.spanMs = Math.max(spanMs, 0);
+            this.days = (int) (this.spanMs / DAY_MS) + 1;
+            this.site = site;
+            this.monthMask = monthMask;
+            this.bestMonth = bestMonth;
+        }
+
+        double density() {
+            return funding / days;
+        }
+    }
+
+    /**
+     * A scheduled plan.
+     */
+    public static final class Assignment {
+        private final int planNo;
+        private final TelescopeSite site;
+        private final Date start;
+        private final Date end;
+        private final double funding;
+
+        Assignment(int planNo, TelescopeSite site, Date start, Date end, double funding) {
+            this.planNo = planNo;
+            this.site = site;
+            this.start = start;
+            this.end = end;
+            this.funding = funding;
+        }
+
+        public int getPlanNo() { return planNo; }
+
+        public TelescopeSite getSite() { return site; }
+
+        public Date getStart() { return start; }
+
+        public Date getEnd() { return end; }
+
+        public double getFunding() { return funding; }
+
+        @Override
+        public String toString() {
+            return "#" + planNo + " " + site.getDisplayName() + " " + start + " - " + end;
+        }
+    }
+
+    /**
+     * The result of a solve: the assignments ordered by site and start, and the plans left out.
+     */
+    public static final class Schedule {
+        private final List<Assignment> assignments;
+        private final int[] unscheduledPlanNos;
+        private final double totalFunding;
+        private final long scheduledHours;
+
+        Schedule(List<Assignment> assignments, int[] unscheduledPlanNos) {
+            this.assignments = Collections.unmodifiableList(assignments);
+            this.unscheduledPlanNos = unscheduledPlanNos;
+            double funding = 0;
+            long hours = 0;
+            for (Assignment a : assignments) {
+                funding += a.funding;
+                hours += (a.end.getTime() - a.start.getTime()) / (60 * 60 * 1000);
+            }
+            this.totalFunding = funding;
+            this.scheduledHours = hours;
+        }
+
+        public List<Assignment> getAssignments() { return assignments; }
+
+        public int[] getUnscheduledPlanNos() { return unscheduledPlanNos.clone(); }
+
+        public double getTotalFunding() { return totalFunding; }
+
+        public long getScheduledHours() { return scheduledHours; }
+    }
+
+    private final ZoneId zone;
+    private final long firstDay;
+    private final int horizonDays;
+    private final int words;
+    private final byte[] monthOfDay;            // 0-11, per horizon day
+    private final long[][] blocked;             // [site] days that can never be used
+    private final long[][] occupied;            // [site] days used by assignments
+    private final int[][] owner;                // [site][day] request index, or -1
+    // Concurrent: filled from the parallel search in improve
+    private final List<Map<Integer, long[]>> allowedCache = new ArrayList<>();
+
+    private final ArrayList<Request> requests = new ArrayList<>();   // null once removed
+    private final Map<Integer, Integer> indexOfPlan = new HashMap<>();
+    private int[] start = new int[16];                               // horizon day, or -1
+
+    /**
+     * @param zone the time zone days are counted in
+     * @param firstDay the first horizon day, as an epoch day
+     * @param horizonDays the number of days to schedule
+     * @param blockedDays per site (by ordinal), the epoch days that cannot be used
+     */
+    public TelescopeScheduler(ZoneId zone, long firstDay, int horizonDays, long[][] blockedDays) {
+        if (horizonDays <= 0) {
+            throw new IllegalArgumentException("horizonDays must be positive: " + horizonDays);
+        }
+        this.zone = zone;
+        this.firstDay = firstDay;
+        this.horizonDays = horizonDays;
+        this.words = (horizonDays + 63) >>> 6;
+        this.monthOfDay = new byte[horizonDays];
+        for (int d = 0; d < horizonDays; d++) {
+            monthOfDay[d] = (byte) (LocalDate.ofEpochDay(firstDay + d).getMonthValue() - 1);
+        }
+        this.blocked = new long[SITES.length][words];
+        this.occupied = new long[SITES.length][words];
+        this.owner = new int[SITES.length][horizonDays];
+        for (TelescopeSite site : SITES) {
+            Arrays.fill(owner[site.ordinal()], -1);
+            allowedCache.add(new ConcurrentHashMap<>());
+            long[] days = site.ordinal() < blockedDays.length ? blockedDays[site.ordinal()] : null;
+            if (days != null) {
+                for (long day : days) {
+                    long d = day - firstDay;
+                    if (d >= 0 && d < horizonDays) {
+                        blocked[site.ordinal()][(int) (d >>> 6)] |= 1L << d;
+                    }
+                }
+            }
+        }
+    }
+
+    // --- Solving ---
+
+    /**
+     * Schedule the given requests from scratch, replacing any earlier ones.
+     */
+    public synchronized Schedule solve(List<Request> newRequests) {
+        requests.clear();
+        indexOfPlan.clear();
+        for (int s = 0; s < SITES.length; s++) {
+            Arrays.fill(occupied[s], 0);
+            Arrays.fill(owner[s], -1);
+        }
+        start = new int[Math.max(16, newRequests.size())];
+        Arrays.fill(start, -1);
+        for (Request r : newRequests) {
+            indexOfPlan.put(r.planNo, requests.size());
+            requests.add(r);
+        }
+        return solve();
+    }
+
+    /**
+     * Re-run the greedy pass for the unscheduled plans and the local search over the current calendar.
+     */
+    public synchronized Schedule solve() {
+        placeGreedily(unscheduled());
+        for (int round = 0; round < MAX_ROUNDS; round++) {
+            if (!improve(unscheduled())) break;
+        }
+        return snapshot();
+    }
+
+    /**
+     * Add a plan or replace its request, keeping every other assignment where it is unless
+     * evicting some of them for this plan gains funding.
+     */
+    public synchronized Schedule update(Request r) {
+        Integer index = indexOfPlan.get(r.planNo);
+        int i;
+        if (index != null) {
+            i = index;
+            if (start[i] >= 0) unplace(i);
+            requests.set(i, r);
+        } else {
+            i = requests.size();
+            requests.add(r);
+            indexOfPlan.put(r.planNo, i);
+            if (start.length <= i) {
+                int old = start.length;
+                start = Arrays.copyOf(start, old * 2);
+                Arrays.fill(start, old, start.length, -1);
+            }
+            start[i] = -1;
+        }
+
+        int s = bestStart(i, free(r));
+        if (s >= 0) {
+            place(i, s);
+        } else {
+            Move move = bestMove(i);
+            if (move != null) apply(move);
+        }
+        // Whatever the plan gave up may now fit others
+        placeGreedily(unscheduled());
+        return snapshot();
+    }
+
+    /**
+     * Drop a plan, e.g. because it was cancelled, and fill the freed days with unscheduled plans.
+     */
+    public synchronized Schedule remove(int planNo) {
+        Integer index = indexOfPlan.remove(planNo);
+        if (index != null) {
+            if (start[index] >= 0) unplace(index);
+            requests.set(index, null);
+            placeGreedily(unscheduled());
+        }
+        return snapshot();
+    }
+
+    public synchronized Schedule getSchedule() {
+        return snapshot();
+    }
+
+    private void placeGreedily(List<Integer> candidates) {
+        candidates.sort(byDensity());
+        for (int i : candidates) {
+            int s = bestStart(i, free(requests.get(i)));
+            if (s >= 0) place(i, s);
+        }
+    }
+
+    // Highest funding per day first; ties by funding, then plan number for a stable result
+    private Comparator<Integer> byDensity() {
+        return (a, b) -> {
+            Request ra = requests.get(a);
+            Request rb = requests.get(b);
+            int c = Double.compare(rb.density(), ra.density());
+            if (c != 0) return c;
+            c = Double.compare(rb.funding, ra.funding);
+            return c != 0 ? c : Integer.compare(ra.planNo, rb.planNo);
+        };
+    }
+
+    private List<Integer> unscheduled() {
+        List<Integer> result = new ArrayList<>();
+        for (int i = 0; i < requests.size(); i++) {
+            if (requests.get(i) != null && start[i] < 0 && requests.get(i).site != null) {
+                result.add(i);
+            }
+        }
+        return result;
+    }
+
+    // --- Local search ---
+
+    /**
+     * Placing a request at a start, evicting the assignments in its way. At most one evicted
+     * assignment moves to a window of its own; the others go back to the unscheduled plans.
+     */
+    private static final class Move {
+        final int request;
+        final int start;
+        final double gain;
+        final int relocated;
+        final int relocatedStart;
+
+        Move(int request, int start, double gain, int relocated, int relocatedStart) {
+            this.request = request;
+            this.start = start;
+            this.gain = gain;
+            this.relocated = relocated;
+            this.relocatedStart = relocatedStart;
+        }
+    }
+
+    /**
+     * One round: evaluate the best move of every unscheduled plan in parallel, then apply the
+     * improving ones in order of gain, re-evaluating each against the current calendar.
+     *
+     * @return true if any move was applied
+     */
+    private boolean improve(List<Integer> candidates) {
+        if (candidates.isEmpty()) return false;
+        Move[] moves = new Move[candidates.size()];
+        IntStream.range(0, moves.length).parallel().forEach(k -> moves[k] = bestMove(candidates.get(k)));
+
+        List<Move> improving = new ArrayList<>();
+        for (Move m : moves) {
+            if (m != null) improving.add(m);
+        }
+        improving.sort((a, b) -> {
+            int c = Double.compare(b.gain, a.gain);
+            return c != 0 ? c : Integer.compare(requests.get(a.request).planNo, requests.get(b.request).planNo);
+        });
+
+        boolean applied = false;
+        for (Move m : improving) {
+            if (start[m.request] >= 0) continue;
+            // Earlier moves of this round may have changed the window
+            Move current = evaluate(m.request, m.start);
+            if (current != null && current.gain > EPSILON) {
+                apply(current);
+                applied = true;
+            }
+        }
+        return applied;
+    }
+
+    // The move with the highest gain for an unscheduled request, or null if none gains anything
+    private Move bestMove(int i) {
+        Request r = requests.get(i);
+        long[] starts = runStarts(allowed(r), r.days);
+        Move best = null;
+        for (int w = 0; w < words; w++) {
+            for (long bits = starts[w]; bits != 0; bits &= bits - 1) {
+                int s = (w << 6) + Long.numberOfTrailingZeros(bits);
+                // Relocation can at best save the most funded evicted assignment
+                if (r.funding - evictionLoss(i, s, true) <= (best == null ? EPSILON : best.gain + EPSILON)) {
+                    continue;
+                }
+                Move m = evaluate(i, s);
+                if (m != null && m.gain > EPSILON && (best == null || m.gain > best.gain + EPSILON)) {
+                    best = m;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the move placing the request at the start, or null if the window is not allowed
+     */
+    private Move evaluate(int i, int s) {
+        Request r = requests.get(i);
+        long[] allowed = allowed(r);
+        for (int d = s; d < s + r.days; d++) {
+            if (d >= horizonDays || (allowed[d >>> 6] & (1L << d)) == 0) return null;
+        }
+
+        int[] days = owner[r.site.ordinal()];
+        double loss = evictionLoss(i, s, false);
+        int relocated = -1;
+        int relocatedStart = -1;
+        int last = -1;
+        for (int d = s; d < s + r.days; d++) {
+            int o = days[d];
+            if (o < 0 || o == last) continue;
+            last = o;
+            if (relocated >= 0 && requests.get(o).funding <= requests.get(relocated).funding) continue;
+            int to = relocationStart(o, s, r.days);
+            if (to >= 0) {
+                relocated = o;
+                relocatedStart = to;
+            }
+        }
+        if (relocated >= 0) loss -= requests.get(relocated).funding;
+        return new Move(i, s, r.funding - loss, relocated, relocatedStart);
+    }
+
+    /**
+     * Funding of the assignments overlapping the window; each assignment covers consecutive days.
+     *
+     * @param exceptBest leave out the most funded of them
+     */
+    private double evictionLoss(int i, int s, boolean exceptBest) {
+        Request r = requests.get(i);
+        int[] days = owner[r.site.ordinal()];
+        double loss = 0;
+        double best = 0;
+        int last = -1;
+        for (int d = s; d < s + r.days; d++) {
+            int o = days[d];
+            if (o >= 0 && o != last) {
+                double funding = requests.get(o).funding;
+                loss += funding;
+                best = Math.max(best, funding);
+                last = o;
+            }
+        }
+        return exceptBest ? loss - best : loss;
+    }
+
+    // Where an assignment could go if it left its days and the window [s, s + length) were taken, or -1
+    private int relocationStart(int o, int s, int length) {
+        Request r = requests.get(o);
+        long[] free = free(r);
+        for (int d = start[o]; d < start[o] + r.days; d++) {
+            free[d >>> 6] |= 1L << d;
+        }
+        long[] allowed = allowed(r);
+        for (int w = 0; w < words; w++) {
+            free[w] &= allowed[w];
+        }
+        for (int d = s; d < s + length; d++) {
+            free[d >>> 6] &= ~(1L << d);
+        }
+        return bestStart(o, free);
+    }
+
+    private void apply(Move m) {
+        Request r = requests.get(m.request);
+        int[] days = owner[r.site.ordinal()];
+        List<Integer> evicted = new ArrayList<>();
+        for (int d = m.start; d < m.start + r.days; d++) {
+            int o = days[d];
+            if (o >= 0 && !evicted.contains(o)) evicted.add(o);
+        }
+        for (int o : evicted) unplace(o);
+        place(m.request, m.start);
+        if (m.relocated >= 0) {
+            place(m.relocated, m.relocatedStart);
+            evicted.remove(Integer.valueOf(m.relocated));
+        }
+        placeGreedily(evicted);
+    }
+
+    // --- Calendar ---
+
+    private void place(int i, int s) {
+        Request r = requests.get(i);
+        int site = r.site.ordinal();
+        for (int d = s; d < s + r.days; d++) {
+            owner[site][d] = i;
+            occupied[site][d >>> 6] |= 1L << d;
+        }
+        start[i] = s;
+    }
+
+    private void unplace(int i) {
+        Request r = requests.get(i);
+        int site = r.site.ordinal();
+        for (int d = start[i]; d < start[i] + r.days; d++) {
+            owner[site][d] = -1;
+            occupied[site][d >>> 6] &= ~(1L << d);
+        }
+        start[i] = -1;
+    }
+
+    // Days the request may use at its site if nothing else were scheduled: in season and not blocked
+    private long[] allowed(Request r) {
+        int site = r.site.ordinal();
+        return allowedCache.get(site).computeIfAbsent(r.monthMask, mask -> {
+            long[] days = new long[words];
+            for (int d = 0; d < horizonDays; d++) {
+                if ((mask & (1 << monthOfDay[d])) != 0) {
+                    days[d >>> 6] |= 1L << d;
+                }
+            }
+            for (int w = 0; w < words; w++) {
+                days[w] &= ~blocked[site][w];
+            }
+            return days;
+        });
+    }
+
+    private long[] free(Request r) {
+        long[] allowed = allowed(r);
+        long[] occ = occupied[r.site.ordinal()];
+        long[] free = new long[words];
+        for (int w = 0; w < words; w++) {
+            free[w] = allowed[w] & ~occ[w];
+        }
+        return free;
+    }
+
+    /**
+     * @return a bitmap with bit s set when days s to s + length - 1 are all set in days
+     */
+    private long[] runStarts(long[] days, int length) {
+        long[] runs = days.clone();
+        if (length > horizonDays) {
+            Arrays.fill(runs, 0);
+            return runs;
+        }
+        // After each step bit s covers days s to s + covered - 1; doubling takes O(log length) steps
+        int covered = 1;
+        while (covered < length) {
+            int step = Math.min(covered, length - covered);
+            long[] shifted = shiftDown(runs, step);
+            for (int w = 0; w < words; w++) {
+                runs[w] &= shifted[w];
+            }
+            covered += step;
+        }
+        return runs;
+    }
+
+    // Bit s of the result is bit s + n of the input
+    private long[] shiftDown(long[] bits, int n) {
+        long[] result = new long[words];
+        int wordShift = n >>> 6;
+        int bitShift = n & 63;
+        for (int w = 0; w + wordShift < words; w++) {
+            long lo = bits[w + wordShift] >>> bitShift;
+            long hi = bitShift == 0 || w + wordShift + 1 >= words ? 0 : bits[w + wordShift + 1] << (64 - bitShift);
+            result[w] = lo | hi;
+        }
+        return result;
+    }
+
+    // Among the windows of free days, the one whose middle is closest to the best month; earliest on ties
+    private int bestStart(int i, long[] free) {
+        Request r = requests.get(i);
+        long[] starts = runStarts(free, r.days);
+        int best = -1;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int w = 0; w < words; w++) {
+            for (long bits = starts[w]; bits != 0; bits &= bits - 1) {
+                int s = (w << 6) + Long.numberOfTrailingZeros(bits);
+                int distance = monthDistance(monthOfDay[s + r.days / 2], r.bestMonth - 1);
+                if (distance < bestDistance) {
+                    best = s;
+                    bestDistance = distance;
+                    if (distance == 0) return best;
+                }
+            }
+        }
+        return best;
+    }
+
+    private static int monthDistance(int a, int b) {
+        int d = Math.abs(a - b) % 12;
+        return Math.min(d, 12 - d);
+    }
+
+    private Schedule snapshot() {
+        List<Assignment> assignments = new ArrayList<>();
+        List<Integer> left = new ArrayList<>();
+        for (int i = 0; i < requests.size(); i++) {
+            Request r = requests.get(i);
+            if (r == null) continue;
+            if (start[i] < 0) {
+                left.add(r.planNo);
+            } else {
+                Date begin = Date.from(LocalDate.ofEpochDay(firstDay + start[i]).atStartOfDay(zone).toInstant());
+                assignments.add(new Assignment(r.planNo, r.site, begin,
+                        new Date(begin.getTime() + r.spanMs), r.funding));
+            }
+        }
+        assignments.sort(Comparator.comparing(Assignment::getSite)
+                .thenComparing(Assignment::getStart)
+                .thenComparingInt(Assignment::getPlanNo));
+        return new Schedule(assignments, left.stream().mapToInt(Integer::intValue).sorted().toArray());
+    }
+}
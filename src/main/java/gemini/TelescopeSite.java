@@ -0,0 +1,63 @@
+package edu.gemini;
+
+import edu.gemini.model.Quadrant;
+
+/**
+ * The two Gemini telescopes and where they stand.
+ */
+public enum TelescopeSite {
+    /** Gemini North on Mauna Kea. */
+    HAWAII("Hawaii", 19.82),
+    /** Gemini South on Cerro Pachón. */
+    CHILE("Chile", -30.24);
+
+    private static final TelescopeSite[] SITES = values();
+
+    private final String displayName;
+    private final double latitude;
+
+    TelescopeSite(String displayName, double latitude) {
+        this.displayName = displayName;
+        this.latitude = latitude;
+    }
+
+    /**
+     * @return the telescope name used in science plans, e.g. "Hawaii"
+     */
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * @return the latitude of the site in degrees, north positive
+     */
+    public double getLatitude() {
+        return latitude;
+    }
+
+    /**
+     * The quadrant rule: northern quadrants (NQ1-NQ4) are observed from Hawaii and
+     * southern quadrants (SQ1-SQ4) from Chile.
+     *
+     * @return the site that observes the quadrant, or null for a null quadrant
+     */
+    public static TelescopeSite forQuadrant(Quadrant.QUADRANT quadrant) {
+        if (quadrant == null) return null;
+        return quadrant.name().startsWith("N") ? HAWAII : CHILE;
+    }
+
+    /**
+     * Find the site of a telescope name as used in science plans, ignoring case.
+     *
+     * @return the site, or null if the name is not a Gemini telescope
+     */
+    public static TelescopeSite of(String telescope) {
+        if (telescope == null) return null;
+        for (TelescopeSite site : SITES) {
+            if (site.displayName.equalsIgnoreCase(telescope)) {
+                return site;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,129 @@
+package edu.gemini;
+
+import java.nio.ByteBuffer;
+import java.util.stream.IntStream;
+
+import edu.gemini.model.AbstractAstronomicalData;
+
+/**
+ * The processing adjustments of an {@link AbstractAstronomicalData} compiled into one lookup
+ * table, applied to frames in a single pass.
+ * <p>
+ * Every adjustment maps a pixel value to a new value independently of its neighbours, so the
+ * whole chain (exposure, blacks, shadows, highlights, whites, contrast, brightness, luminance)
+ * is evaluated once per possible value and a frame is processed with one table lookup per
+ * pixel. The frame is split into tiles that run in parallel on the fork-join pool.
+ * <p>
+ * Frames are grey-scale, so saturation and hue, which act on colour, leave them unchanged.
+ * Unset (NaN) adjustments are neutral: 1 for contrast, 0 for the others. Immutable.
+ */
+public final class ToneCurve {
+
+    // Pixels per tile: 256 KB of 16-bit pixels, large enough to amortise the fork
+    private static final int TILE_PIXELS = 1 << 17;
+
+    private final int bitDepth;
+    private final char[] lut;
+    private final boolean identity;
+
+    private ToneCurve(int bitDepth, char[] lut, boolean identity) {
+        this.bitDepth = bitDepth;
+        this.lut = lut;
+        this.identity = identity;
+    }
+
+    /**
+     * @param bitDepth the bit depth of the frames the curve is for, 8 or 16
+     * @throws IllegalArgumentException if the bit depth is not 8 or 16
+     */
+    public static ToneCurve of(AbstractAstronomicalData data, int bitDepth) {
+        if (bitDepth != 8 && bitDepth != 16) {
+            throw new IllegalArgumentException("Bit depth must be 8 or 16: " + bitDepth);
+        }
+        double exposure = Math.pow(2, neutral(data.getExposure(), 0));
+        double blacks = neutral(data.getBlacks(), 0);
+        double shadows = neutral(data.getShadows(), 0);
+        double highlights = neutral(data.getHighlights(), 0);
+        double whites = neutral(data.getWhites(), 0);
+        double contrast = neutral(data.getContrast(), 1);
+        double brightness = neutral(data.getBrightness(), 0);
+        double gamma = Math.pow(2, -neutral(data.getLuminance(), 0));
+
+        int max = (1 << bitDepth) - 1;
+        char[] lut = new char[max + 1];
+        boolean identity = true;
+        for (int v = 0; v <= max; v++) {
+            double x = v / (double) max * exposure;
+            // Tone regions: each weight peaks in its part of the range and fades elsewhere
+            double lo = 1 - clamp(x);
+            double hi = clamp(x);
+            x += 0.25 * (blacks * lo * lo * lo * lo + whites * hi * hi * hi * hi);
+            x += shadows * (lo * lo - lo * lo * lo * lo) + highlights * (hi * hi - hi * hi * hi * hi);
+            x = 0.5 + (x - 0.5) * contrast;
+            x += 0.5 * brightness;
+            x = Math.pow(clamp(x), gamma);
+            int out = (int) Math.round(x * max);
+            lut[v] = (char) out;
+            identity &= out == v;
+        }
+        return new ToneCurve(bitDepth, lut, identity);
+    }
+
+    public int getBitDepth() {
+        return bitDepth;
+    }
+
+    /**
+     * @return true if the curve leaves every value unchanged
+     */
+    public boolean isIdentity() {
+        return identity;
+    }
+
+    /**
+     * @return the value a pixel maps to
+     */
+    public int map(int value) {
+        return lut[value];
+    }
+
+    /**
+     * Process a frame into a new frame from the same pool. The source is left as it is; the
+     * caller owns both frames.
+     *
+     * @throws IllegalArgumentException if the frame's bit depth is not the curve's
+     */
+    public SkyFrame apply(SkyFrame source) {
+        if (source.getBitDepth() != bitDepth) {
+            throw new IllegalArgumentException("Curve is for " + bitDepth + "-bit frames, frame is " +
+                    source.getBitDepth() + "-bit");
+        }
+        SkyFrame.Format format = source.getFormat();
+        ByteBuffer in = source.buffer();
+        ByteBuffer out = source.pool().acquire(format.getByteSize());
+        int n = format.getWidth() * format.getHeight();
+        int tiles = (n + TILE_PIXELS - 1) / TILE_PIXELS;
+        IntStream.range(0, tiles).parallel().forEach(t -> {
+            int from = t * TILE_PIXELS;
+            int to = Math.min(n, from + TILE_PIXELS);
+            if (bitDepth == 8) {
+                for (int i = from; i < to; i++) {
+                    out.put(i, (byte) lut[in.get(i) & 0xFF]);
+                }
+            } else {
+                for (int i = from; i < to; i++) {
+                    out.putShort(i << 1, (short) lut[in.getShort(i << 1) & 0xFFFF]);
+                }
+            }
+        });
+        return source.withPixels(out);
+    }
+
+    private static double neutral(double value, double neutral) {
+        return Double.isNaN(value) ? neutral : value;
+    }
+
+    private static double clamp(double x) {
+        return x < 0 ? 0 : Math.min(x, 1);
+    }
+}
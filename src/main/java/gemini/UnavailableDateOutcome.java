@@ -0,0 +1,26 @@
+package edu.gemini;
+
+/**
+ * The outcome of adding or removing a day a telescope is unavailable.
+ */
+public enum UnavailableDateOutcome {
+    ADDED("Added unavailable date."),
+    REMOVED("Removed unavailable date."),
+    DATE_REQUIRED("Date is required."),
+    ALREADY_EXISTS("Date already exists."),
+    NOT_FOUND("Date not found.");
+
+    private final String message;
+
+    UnavailableDateOutcome(String message) {
+        this.message = message;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public boolean isSuccess() {
+        return this == ADDED || this == REMOVED;
+    }
+}
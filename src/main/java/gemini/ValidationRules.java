@@ -0,0 +1,250 @@
+package edu.gemini;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.function.Predicate;
+
+/**
+ * The science plan checks of createSciencePlan, compiled once into flat arrays.
+ * <p>
+ * {@link #check(SciencePlan)} runs every rule and returns the failures as a bit mask of rule
+ * ids, 0 meaning the plan is accepted. Rule ids follow the order the checks are reported in,
+ * so the lowest set bit is the failure the astronomer sees first. Checking allocates nothing;
+ * message text is only built by {@link #message(long)}, when a caller asks for it.
+ * <p>
+ * Range rules are data: a field code, a bound pair and a rule id per entry, added with
+ * {@link Builder#range}. Instances are immutable and safe to share between threads.
+ */
+final class ValidationRules {
+
+    // Rule ids, in reporting order
+    static final int INCOMPLETE = 0;
+    static final int DATE_ORDER = 1;
+    static final int FUNDING = 2;
+    static final int TARGET = 3;
+    static final int NOT_OBSERVABLE = 4;
+    static final int CONTRAST_RANGE = 5;
+    static final int BRIGHTNESS_RANGE = 6;
+    static final int SATURATION_RANGE = 7;
+    static final int EXPOSURE_RANGE = 8;
+    static final int COLOR_REQUIRED = 9;
+    static final int CONTRAST_REQUIRED = 10;
+    static final int LEGACY = 11;
+    static final int RULE_COUNT = 12;
+
+    // Plan fields a range rule can read; a missing value is NaN and skips the rule
+    static final int CONTRAST = 0;
+    static final int BRIGHTNESS = 1;
+    static final int SATURATION = 2;
+    static final int EXPOSURE = 3;
+
+    private static final long RANGE_RULES = bit(CONTRAST_RANGE) | bit(BRIGHTNESS_RANGE) |
+            bit(SATURATION_RANGE) | bit(EXPOSURE_RANGE);
+
+    private static final SciencePlanOutcome[] OUTCOMES = new SciencePlanOutcome[RULE_COUNT];
+
+    static {
+        OUTCOMES[INCOMPLETE] = SciencePlanOutcome.INCOMPLETE;
+        OUTCOMES[DATE_ORDER] = SciencePlanOutcome.INVALID_DATE_RANGE;
+        OUTCOMES[FUNDING] = SciencePlanOutcome.INVALID_FUNDING;
+        OUTCOMES[TARGET] = SciencePlanOutcome.UNKNOWN_TARGET;
+        OUTCOMES[NOT_OBSERVABLE] = SciencePlanOutcome.TARGET_NOT_OBSERVABLE;
+        OUTCOMES[CONTRAST_RANGE] = SciencePlanOutcome.DATA_PROCESSING_OUT_OF_RANGE;
+        OUTCOMES[BRIGHTNESS_RANGE] = SciencePlanOutcome.DATA_PROCESSING_OUT_OF_RANGE;
+        OUTCOMES[SATURATION_RANGE] = SciencePlanOutcome.DATA_PROCESSING_OUT_OF_RANGE;
+        OUTCOMES[EXPOSURE_RANGE] = SciencePlanOutcome.DATA_PROCESSING_OUT_OF_RANGE;
+        OUTCOMES[COLOR_REQUIRED] = SciencePlanOutcome.DATA_PROCESSING_INCOMPLETE;
+        OUTCOMES[CONTRAST_REQUIRED] = SciencePlanOutcome.DATA_PROCESSING_INCOMPLETE;
+        OUTCOMES[LEGACY] = SciencePlanOutcome.LEGACY_INCOMPATIBLE;
+    }
+
+    /**
+     * Decides whether a known target can be observed from a telescope over a date range.
+     */
+    interface ObservabilityCheck {
+        boolean isObservable(String target, String telescope, Date start, Date end);
+    }
+
+    private final Predicate<String> targetCheck;
+    private final ObservabilityCheck observabilityCheck;
+    private final int[] rangeRule;
+    private final int[] rangeField;
+    private final double[] rangeMin;
+    private final double[] rangeMax;
+    // "Contrast must be between 0.0 to 2.0", rendered at compile time, indexed by rule id
+    private final String[] rangeText;
+
+    private ValidationRules(Builder b) {
+        this.targetCheck = b.targetCheck;
+        this.observabilityCheck = b.observabilityCheck;
+        this.rangeRule = Arrays.copyOf(b.rangeRule, b.rangeCount);
+        this.rangeField = Arrays.copyOf(b.rangeField, b.rangeCount);
+        this.rangeMin = Arrays.copyOf(b.rangeMin, b.rangeCount);
+        this.rangeMax = Arrays.copyOf(b.rangeMax, b.rangeCount);
+        this.rangeText = new String[RULE_COUNT];
+        for (int i = 0; i < b.rangeCount; i++) {
+            rangeText[rangeRule[i]] = b.rangeLabel[i] + " must be between " +
+                    String.format("%.1f to %.1f", rangeMin[i], rangeMax[i]);
+        }
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    static final class Builder {
+        private Predicate<String> targetCheck = t -> true;
+        private ObservabilityCheck observabilityCheck = (target, telescope, start, end) -> true;
+        private int rangeCount;
+        private int[] rangeRule = new int[4];
+        private int[] rangeField = new int[4];
+        private double[] rangeMin = new double[4];
+        private double[] rangeMax = new double[4];
+        private String[] rangeLabel = new String[4];
+
+        private Builder() {
+        }
+
+        Builder target(Predicate<String> targetCheck) {
+            this.targetCheck = targetCheck;
+            return this;
+        }
+
+        /**
+         * Only asked for plans whose target is known and whose dates are in order.
+         */
+        Builder observability(ObservabilityCheck observabilityCheck) {
+            this.observabilityCheck = observabilityCheck;
+            return this;
+        }
+
+        /**
+         * Fail the given rule when the field is set and lies outside [min, max].
+         */
+        Builder range(int rule, int field, String label, double min, double max) {
+            if (rangeCount == rangeRule.length) {
+                int size = rangeCount * 2;
+                rangeRule = Arrays.copyOf(rangeRule, size);
+                rangeField = Arrays.copyOf(rangeField, size);
+                rangeMin = Arrays.copyOf(rangeMin, size);
+                rangeMax = Arrays.copyOf(rangeMax, size);
+                rangeLabel = Arrays.copyOf(rangeLabel, size);
+            }
+            rangeRule[rangeCount] = rule;
+            rangeField[rangeCount] = field;
+            rangeMin[rangeCount] = min;
+            rangeMax[rangeCount] = max;
+            rangeLabel[rangeCount] = label;
+            rangeCount++;
+            return this;
+        }
+
+        ValidationRules compile() {
+            return new ValidationRules(this);
+        }
+    }
+
+    /**
+     * Run every rule against the plan. An incomplete plan fails INCOMPLETE alone, since the
+     * other rules need its required fields.
+     *
+     * @return the failed rule ids as a bit mask, 0 if the plan passes
+     */
+    long check(SciencePlan sp) {
+        if (isBlank(sp.getName()) ||
+            isBlank(sp.getObjective()) ||
+            sp.getStartDate() == null ||
+            sp.getEndDate() == null ||
+            isBlank(sp.getTelescope()) ||
+            isBlank(sp.getTarget())) {
+            return bit(INCOMPLETE);
+        }
+
+        long failures = 0;
+        if (sp.getStartDate().after(sp.getEndDate())) {
+            failures |= bit(DATE_ORDER);
+        }
+        if (sp.getFunding() <= 0) {
+            failures |= bit(FUNDING);
+        }
+        if (!targetCheck.test(sp.getTarget())) {
+            failures |= bit(TARGET);
+        } else if ((failures & bit(DATE_ORDER)) == 0 &&
+                !observabilityCheck.isObservable(sp.getTarget(), sp.getTelescope(), sp.getStartDate(), sp.getEndDate())) {
+            failures |= bit(NOT_OBSERVABLE);
+        }
+        for (int i = 0; i < rangeRule.length; i++) {
+            double v = field(sp, rangeField[i]);
+            // NaN (a missing value) fails neither comparison
+            if (v < rangeMin[i] || v > rangeMax[i]) {
+                failures |= bit(rangeRule[i]);
+            }
+        }
+        if (sp.getColorType() == SciencePlan.ColorType.COLOR &&
+            (Double.isNaN(sp.getBrightnessValue()) || Double.isNaN(sp.getSaturationValue()) ||
+             Double.isNaN(sp.getExposureValue()))) {
+            failures |= bit(COLOR_REQUIRED);
+        }
+        if (Double.isNaN(sp.getContrastValue())) {
+            failures |= bit(CONTRAST_REQUIRED);
+        }
+        if (sp.getFileType() == SciencePlan.FileType.RAW && sp.getFileQuality() == SciencePlan.FileQuality.FINE) {
+            failures |= bit(LEGACY);
+        }
+        return failures;
+    }
+
+    /**
+     * @return the rule reported for these failures, or -1 if there are none
+     */
+    static int firstFailure(long failures) {
+        return failures == 0 ? -1 : Long.numberOfTrailingZeros(failures);
+    }
+
+    static SciencePlanOutcome outcome(long failures) {
+        return failures == 0 ? SciencePlanOutcome.ACCEPTED : OUTCOMES[firstFailure(failures)];
+    }
+
+    /**
+     * Render the message for the first failure. Out-of-range data processing values list
+     * every field that is out of range.
+     *
+     * @return the message, or null if there are no failures
+     */
+    String message(long failures) {
+        SciencePlanOutcome outcome = outcome(failures);
+        if (outcome != SciencePlanOutcome.DATA_PROCESSING_OUT_OF_RANGE) {
+            return outcome.getMessage();
+        }
+        StringBuilder sb = new StringBuilder(outcome.getMessage());
+        String separator = " ";
+        for (long ranges = failures & RANGE_RULES; ranges != 0; ranges &= ranges - 1) {
+            sb.append(separator).append(rangeText[Long.numberOfTrailingZeros(ranges)]);
+            separator = ". ";
+        }
+        return sb.append('.').toString();
+    }
+
+    private static long bit(int rule) {
+        return 1L << rule;
+    }
+
+    private static double field(SciencePlan sp, int field) {
+        switch (field) {
+            case CONTRAST: return sp.getContrastValue();
+            case BRIGHTNESS: return sp.getBrightnessValue();
+            case SATURATION: return sp.getSaturationValue();
+            case EXPOSURE: return sp.getExposureValue();
+            default: return Double.NaN;
+        }
+    }
+
+    // Like String.trim().isEmpty(), without the copy trim makes
+    private static boolean isBlank(String s) {
+        if (s == null) return true;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) > ' ') return false;
+        }
+        return true;
+    }
+}
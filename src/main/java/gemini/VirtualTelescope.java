@@ -0,0 +1,523 @@
+package edu.gemini;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import edu.gemini.model.StarSystem;
+
+/**
+ * Simulation of one Gemini telescope, driven by the commands of
+ * {@link GeminiAPI#executeCommand(String)}.
+ * <p>
+ * Control commands (START, UP, DOWN, LEFT, RIGHT, FOCUS, TAKE_PHOTO, STOP) go through a bounded
+ * mailbox to a single actor thread, the only writer of the telescope model, so they run one at
+ * a time in arrival order without locks. When the mailbox is full a command is refused at once
+ * rather than queued without limit. After each step the actor publishes an immutable
+ * {@link Snapshot} through a volatile field; the status queries (GetVersion, GetStatus,
+ * GetState, RunTest) read that snapshot and never wait for commands in progress.
+ * <p>
+ * The model: the telescope points at an azimuth (0-359, wrapping) and an altitude (0-90), moved
+ * 10 points per command. Moving defocuses it until the next FOCUS. The actor thread starts with
+ * the first control command.
+ * <p>
+ * A {@link CommandScript} takes one mailbox slot and runs start to finish without other
+ * commands in between, stopping at the first command the telescope refuses.
+ * <p>
+ * TAKE_PHOTO renders a {@link SkyFrame} of the current pointing in the configured
+ * {@link SkyFrame.Format}, into a buffer from the frame pool. While a science plan is being
+ * observed the frame is blurred by the PSF of the program's optics and goes to the plan, through
+ * the frame sink; otherwise it is released at once.
+ */
+public final class VirtualTelescope {
+
+    public static final String VERSION = "Gemini Virtual Telescope 1.0";
+    public static final int STEP = 10;
+    public static final int MIN_ALTITUDE = 0;
+    public static final int MAX_ALTITUDE = 90;
+    public static final int DEFAULT_MAILBOX_CAPACITY = 256;
+
+    // How long a caller waits for a command: a fixed allowance for the queue and the command, plus
+    // per command of a script and per megapixel of each photo it takes
+    private static final long COMMAND_TIMEOUT_MS = 5_000;
+    private static final long SCRIPT_COMMAND_MS = 1;
+    private static final long PHOTO_MS_PER_MEGAPIXEL = 250;
+
+    /** Subsystem status, as reported by GetStatus. */
+    public enum Status {
+        DOWN, BOOTED, CONFIGURING, CONFIGURED, INITIALIZING, RUNNING, MAINTENANCE, SIMULATION,
+        DISABLED, SHUTDOWN, LOCKED
+    }
+
+    /** Internal state, as reported by GetState. */
+    public enum State {
+        READY, BUSY_ON, NOT_READY
+    }
+
+    /** Self-test result, as reported by RunTest. */
+    public enum TestResult {
+        OK, BAD, WARNING
+    }
+
+    public enum Command {
+        START, UP, DOWN, LEFT, RIGHT, FOCUS, TAKE_PHOTO, STOP
+    }
+
+    private static final Command[] COMMANDS = Command.values();
+
+    /**
+     * The telescope as of the last step of the actor. Immutable.
+     */
+    public static final class Snapshot {
+        private final Status status;
+        private final State state;
+        private final Command busyOn;
+        private final int azimuth;
+        private final int altitude;
+        private final boolean focused;
+        private final int photos;
+        private final long commandsExecuted;
+
+        Snapshot(Status status, State state, Command busyOn, int azimuth, int altitude,
+                 boolean focused, int photos, long commandsExecuted) {
+            this.status = status;
+            this.state = state;
+            this.busyOn = busyOn;
+            this.azimuth = azimuth;
+            this.altitude = altitude;
+            this.focused = focused;
+            this.photos = photos;
+            this.commandsExecuted = commandsExecuted;
+        }
+
+        public Status getStatus() { return status; }
+
+        public State getState() { return state; }
+
+        /** @return the command being processed while BUSY_ON, otherwise null */
+        public Command getBusyOn() { return busyOn; }
+
+        public int getAzimuth() { return azimuth; }
+
+        public int getAltitude() { return altitude; }
+
+        public boolean isFocused() { return focused; }
+
+        public int getPhotos() { return photos; }
+
+        public long getCommandsExecuted() { return commandsExecuted; }
+    }
+
+    /**
+     * The aggregated result of a script: the message of every command that ran, up to and
+     * including the first one refused.
+     */
+    public static final class ScriptResult {
+        private final String[] messages;
+        private final int failedAt;
+
+        ScriptResult(String[] messages, int failedAt) {
+            this.messages = messages;
+            this.failedAt = failedAt;
+        }
+
+        public boolean isCompleted() {
+            return failedAt < 0;
+        }
+
+        /** @return the index of the refused command, or -1 if every command ran */
+        public int getFailedAt() {
+            return failedAt;
+        }
+
+        /** @return the number of commands that ran successfully */
+        public int getExecuted() {
+            return failedAt < 0 ? messages.length : failedAt;
+        }
+
+        public String getMessage(int i) {
+            return messages[i];
+        }
+
+        public int size() {
+            return messages.length;
+        }
+
+        /** @return the last message, which explains why the script stopped if it did */
+        public String getLastMessage() {
+            return messages.length == 0 ? "" : messages[messages.length - 1];
+        }
+
+        @Override
+        public String toString() {
+            if (isCompleted()) {
+                return "Script completed: " + messages.length + " commands. " + getLastMessage();
+            }
+            return "Script stopped at command " + (failedAt + 1) + " after " + failedAt +
+                    " commands: " + messages[failedAt];
+        }
+    }
+
+    /**
+     * Receives the frames taken while a plan is observed, on the actor thread. The receiver
+     * owns the frame and must release it when done.
+     */
+    interface FrameSink {
+        FrameSink RELEASE = (planNo, frame) -> frame.release();
+
+        void frameTaken(int planNo, SkyFrame frame);
+    }
+
+    // The plan being observed, its target and the optics of its observing program
+    private static final class Observation {
+        final int planNo;
+        final StarSystem.CONSTELLATIONS target;
+        final OpticsPsf optics;
+
+        Observation(int planNo, StarSystem.CONSTELLATIONS target, OpticsPsf optics) {
+            this.planNo = planNo;
+            this.target = target;
+            this.optics = optics;
+        }
+    }
+
+    // A command or script waiting in the mailbox, completed by the actor with its result
+    private static final class Envelope {
+        final Command single;
+        final CommandScript script;
+        final CompletableFuture<ScriptResult> result = new CompletableFuture<>();
+
+        Envelope(Command single, CommandScript script) {
+            this.single = single;
+            this.script = script;
+        }
+
+        int size() {
+            return script == null ? 1 : script.size();
+        }
+
+        Command command(int i) {
+            return script == null ? single : COMMANDS[script.opcode(i)];
+        }
+    }
+
+    private final TelescopeSite site;
+    private final BlockingQueue<Envelope> mailbox;
+    private volatile Snapshot snapshot = new Snapshot(Status.DOWN, State.NOT_READY, null, 0, 0, false, 0, 0);
+    private volatile Thread actor;
+    private final FrameBufferPool framePool;
+    private final FrameSink frameSink;
+    // Set by other threads, read by the actor when it takes a photo
+    private volatile SkyFrame.Format frameFormat = SkyFrame.Format.DEFAULT;
+    private volatile Observation observation;
+
+    // Model state, only touched by the actor thread
+    private Status status = Status.DOWN;
+    private int azimuth;
+    private int altitude;
+    private boolean focused;
+    private int photos;
+    private long commandsExecuted;
+    private boolean refused;
+
+    public VirtualTelescope(TelescopeSite site) {
+        this(site, DEFAULT_MAILBOX_CAPACITY);
+    }
+
+    public VirtualTelescope(TelescopeSite site, int mailboxCapacity) {
+        this(site, mailboxCapacity, FrameBufferPool.getDefault(), FrameSink.RELEASE);
+    }
+
+    VirtualTelescope(TelescopeSite site, int mailboxCapacity, FrameBufferPool framePool, FrameSink frameSink) {
+        this.site = site;
+        this.mailbox = new ArrayBlockingQueue<>(mailboxCapacity);
+        this.framePool = framePool;
+        this.frameSink = frameSink;
+    }
+
+    public SkyFrame.Format getFrameFormat() {
+        return frameFormat;
+    }
+
+    /**
+     * Set the resolution and bit depth of the following photos.
+     */
+    public void setFrameFormat(SkyFrame.Format format) {
+        this.frameFormat = format;
+    }
+
+    /**
+     * Send the following photos to a plan.
+     *
+     * @param target the constellation observed, shown in the frames
+     * @param optics the PSF the frames are convolved with, or null to leave them sharp
+     */
+    void observe(int planNo, StarSystem.CONSTELLATIONS target, OpticsPsf optics) {
+        this.observation = new Observation(planNo, target, optics);
+    }
+
+    /**
+     * Stop sending photos to the plan, if it is the one observed.
+     */
+    void endObservation(int planNo) {
+        Observation current = observation;
+        if (current != null && current.planNo == planNo) {
+            observation = null;
+        }
+    }
+
+    /**
+     * @return the number of the plan being observed, or -1
+     */
+    public int getObservingPlanNo() {
+        Observation current = observation;
+        return current == null ? -1 : current.planNo;
+    }
+
+    public TelescopeSite getSite() {
+        return site;
+    }
+
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Run a command or status query, by name in any case ("take_photo", "GetStatus").
+     * Control commands wait for the actor to run them.
+     *
+     * @return the result text
+     */
+    public String execute(String text) {
+        String name = text == null ? "" : text.trim();
+        if (name.equalsIgnoreCase("GetVersion")) return VERSION + " (" + site.getDisplayName() + ")";
+        if (name.equalsIgnoreCase("GetStatus")) return snapshot.status.name();
+        if (name.equalsIgnoreCase("GetState")) return describeState(snapshot);
+        if (name.equalsIgnoreCase("RunTest")) return runTest(snapshot).name();
+        Command command = parse(name);
+        if (command == null) {
+            return "Unknown command: " + name;
+        }
+        long timeout = COMMAND_TIMEOUT_MS + (command == Command.TAKE_PHOTO ? photoTimeoutMs() : 0);
+        return await(offer(new Envelope(command, null)), command.name(), timeout).getLastMessage();
+    }
+
+    /**
+     * Run a compiled script and wait for it. The wait grows with the script's length and the
+     * photos it takes; a script still running when it runs out is reported as not completed, and
+     * {@link #submit(CommandScript)} gives its result when it does complete.
+     *
+     * @return the result of every command run
+     */
+    public ScriptResult execute(CommandScript script) {
+        long timeout = COMMAND_TIMEOUT_MS + script.size() * SCRIPT_COMMAND_MS +
+                script.count(Command.TAKE_PHOTO) * photoTimeoutMs();
+        return await(submit(script), "the script", timeout);
+    }
+
+    /**
+     * Queue a control command without waiting for it.
+     *
+     * @return the command's result, already completed if the mailbox is full
+     */
+    public CompletableFuture<String> submit(Command command) {
+        return offer(new Envelope(command, null)).thenApply(ScriptResult::getLastMessage);
+    }
+
+    /**
+     * Queue a script without waiting for it. The script takes one mailbox slot.
+     *
+     * @return the script's result, already completed if the mailbox is full
+     */
+    public CompletableFuture<ScriptResult> submit(CommandScript script) {
+        return offer(new Envelope(null, script));
+    }
+
+    private CompletableFuture<ScriptResult> offer(Envelope envelope) {
+        startActor();
+        if (!mailbox.offer(envelope)) {
+            String busy = "Telescope busy: " + mailbox.size() + " commands queued. Try again later.";
+            envelope.result.complete(new ScriptResult(new String[] { busy }, 0));
+        }
+        return envelope.result;
+    }
+
+    // Rendering, tone curve and PSF all scale with the frame's pixels
+    private long photoTimeoutMs() {
+        SkyFrame.Format format = frameFormat;
+        long pixels = (long) format.getWidth() * format.getHeight();
+        return Math.max(SCRIPT_COMMAND_MS, pixels * PHOTO_MS_PER_MEGAPIXEL / (1 << 20));
+    }
+
+    private ScriptResult await(CompletableFuture<ScriptResult> result, String what, long timeoutMs) {
+        String failure;
+        try {
+            return result.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = "Interrupted while waiting for " + what;
+        } catch (ExecutionException e) {
+            failure = "Telescope did not complete " + what;
+        } catch (TimeoutException e) {
+            failure = "Telescope did not complete " + what + " within " + timeoutMs + " ms; it is still running";
+        }
+        return new ScriptResult(new String[] { failure }, 0);
+    }
+
+    /**
+     * @return the control command with this name, ignoring case, or null
+     */
+    public static Command parse(String name) {
+        for (Command c : COMMANDS) {
+            if (c.name().equalsIgnoreCase(name)) return c;
+        }
+        return null;
+    }
+
+    static String describeState(Snapshot s) {
+        return s.state == State.BUSY_ON ? "BUSY_ON " + s.busyOn : s.state.name();
+    }
+
+    // Problems that stop observing are BAD; an unfocused telescope still works, with a WARNING
+    static TestResult runTest(Snapshot s) {
+        if (s.status == Status.LOCKED || s.status == Status.DOWN) return TestResult.BAD;
+        if (s.altitude < MIN_ALTITUDE || s.altitude > MAX_ALTITUDE) return TestResult.BAD;
+        if (s.status == Status.RUNNING && !s.focused) return TestResult.WARNING;
+        return TestResult.OK;
+    }
+
+    // --- Actor ---
+
+    private void startActor() {
+        if (actor != null) return;
+        synchronized (this) {
+            if (actor != null) return;
+            Thread t = new Thread(this::run, "telescope-" + site.name().toLowerCase(Locale.ROOT));
+            t.setDaemon(true);
+            t.start();
+            actor = t;
+        }
+    }
+
+    private void run() {
+        while (true) {
+            Envelope envelope;
+            try {
+                envelope = mailbox.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            int n = envelope.size();
+            String[] messages = new String[n];
+            int failedAt = -1;
+            for (int i = 0; i < n && failedAt < 0; i++) {
+                Command command = envelope.command(i);
+                refused = false;
+                try {
+                    publish(State.BUSY_ON, command);
+                    messages[i] = apply(command);
+                } catch (RuntimeException e) {
+                    messages[i] = "Command " + command + " failed: " + e.getMessage();
+                    refused = true;
+                }
+                commandsExecuted++;
+                if (refused) {
+                    failedAt = i;
+                }
+            }
+            publish(status == Status.RUNNING ? State.READY : State.NOT_READY, null);
+            envelope.result.complete(new ScriptResult(
+                    failedAt < 0 ? messages : Arrays.copyOf(messages, failedAt + 1), failedAt));
+        }
+    }
+
+    // Sets refused, so a script stops after this command
+    private String refuse(String message) {
+        refused = true;
+        return message;
+    }
+
+    private String apply(Command command) {
+        if (command == Command.START) {
+            if (status == Status.RUNNING) return "Telescope is already running.";
+            // Boot sequence; each step is visible to GetStatus
+            for (Status step : new Status[] { Status.BOOTED, Status.CONFIGURING, Status.CONFIGURED,
+                    Status.INITIALIZING, Status.RUNNING }) {
+                status = step;
+                publish(State.BUSY_ON, command);
+            }
+            return "Telescope " + site.getDisplayName() + " started.";
+        }
+        if (status != Status.RUNNING) {
+            return refuse("Telescope is not running (" + status + "). Send START first.");
+        }
+        switch (command) {
+            case UP:
+                if (altitude + STEP > MAX_ALTITUDE) return refuse("Cannot move UP: altitude is at " + altitude + ".");
+                altitude += STEP;
+                return moved();
+            case DOWN:
+                if (altitude - STEP < MIN_ALTITUDE) return refuse("Cannot move DOWN: altitude is at " + altitude + ".");
+                altitude -= STEP;
+                return moved();
+            case LEFT:
+                azimuth = Math.floorMod(azimuth - STEP, 360);
+                return moved();
+            case RIGHT:
+                azimuth = Math.floorMod(azimuth + STEP, 360);
+                return moved();
+            case FOCUS:
+                focused = true;
+                return "Focused at " + position() + ".";
+            case TAKE_PHOTO:
+                return takePhoto();
+            case STOP:
+                status = Status.SHUTDOWN;
+                publish(State.BUSY_ON, command);
+                status = Status.DOWN;
+                focused = false;
+                return "Telescope " + site.getDisplayName() + " stopped.";
+            default:
+                return refuse("Unsupported command: " + command);
+        }
+    }
+
+    private String takePhoto() {
+        Observation current = observation;
+        StarSystem.CONSTELLATIONS target = current == null ? null : current.target;
+        SkyFrame frame = SkyRenderer.render(frameFormat, framePool, site, target, azimuth, altitude, focused,
+                commandsExecuted);
+        if (current != null && current.optics != null) {
+            SkyFrame raw = frame;
+            frame = current.optics.apply(raw);
+            raw.release();
+        }
+        photos++;
+        String message = "Photo #" + photos + (target == null ? "" : " of " + target.name()) + " taken at " +
+                position() + " (" + frame.getFormat() + (focused ? ")." : ", out of focus).");
+        if (current == null) {
+            frame.release();
+        } else {
+            frameSink.frameTaken(current.planNo, frame);
+        }
+        return message;
+    }
+
+    private String moved() {
+        focused = false;
+        return "Moved to " + position() + ".";
+    }
+
+    private String position() {
+        return "azimuth " + azimuth + ", altitude " + altitude;
+    }
+
+    private void publish(State state, Command busyOn) {
+        snapshot = new Snapshot(status, state, busyOn, azimuth, altitude, focused, photos, commandsExecuted);
+    }
+}
@@ -36,7 +36,7 @@ public abstract class AbstractSciencePlan {
     private Date endDate;
     private String telescope;
     private String target;
-    private STATUS status;
+    private volatile STATUS status;
 
     public AbstractSciencePlan() {
         this.status = STATUS.CREATED;
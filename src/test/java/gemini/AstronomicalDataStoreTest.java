@@ -0,0 +1,167 @@
+package edu.gemini;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AstronomicalDataStoreTest {
+
+    // A few records per segment, so compactions happen after a handful of appends
+    private static final int SEGMENT_SIZE = 1024;
+    private static final int HEADER_LENGTH = 21;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void recoveryAfterInterruptedCompactionKeepsLaterCopy() throws Exception {
+        int records;
+        try (AstronomicalDataStore store = new AstronomicalDataStore(dir, SEGMENT_SIZE)) {
+            records = appendUntilSegments(store, 1, 3, "old");
+        }
+        // A compaction of segment 1 that copied every record and crashed before deleting the
+        // segment; the copies are marked so we can tell which one recovery picked
+        Path victim = AstronomicalDataStore.segmentPath(dir, 1);
+        ByteBuffer copy = ByteBuffer.wrap(Files.readAllBytes(victim));
+        int copied = rewriteRecords(copy, "old", "new");
+        Files.write(AstronomicalDataStore.segmentPath(dir, 4), copy.array());
+
+        try (AstronomicalDataStore store = new AstronomicalDataStore(dir, SEGMENT_SIZE)) {
+            assertEquals(records, store.count(1));
+            assertRecords(store, records, copied);
+            // Every record of segment 1 is dead now, so the compactor deletes it
+            awaitDeleted(victim);
+            assertRecords(store, records, copied);
+        }
+        try (AstronomicalDataStore store = new AstronomicalDataStore(dir, SEGMENT_SIZE)) {
+            assertEquals(records, store.count(1));
+            assertRecords(store, records, copied);
+        }
+    }
+
+    @Test
+    void tombstonesSurviveCompactionOfNonOldestSegment() throws Exception {
+        int records;
+        try (AstronomicalDataStore store = new AstronomicalDataStore(dir, SEGMENT_SIZE)) {
+            // Segment 1 full of plan 1, which spills one record into segment 2
+            records = appendUntilSegments(store, 1, 2, "old");
+            // Its tombstone lands in segment 2, its target stays in segment 1
+            store.remove(1, 0);
+            appendUntilSegments(store, 2, 3, "old");
+            // Segment 2 is now mostly dead and gets compacted, while segment 1 is not
+            store.removePlan(2);
+            awaitDeleted(AstronomicalDataStore.segmentPath(dir, 2));
+
+            assertEquals(records - 1, store.count(1));
+            assertEquals("f-2", store.get(1, 0).getFileName());
+        }
+        assertTrue(Files.exists(AstronomicalDataStore.segmentPath(dir, 1)));
+
+        try (AstronomicalDataStore store = new AstronomicalDataStore(dir, SEGMENT_SIZE)) {
+            assertEquals(records - 1, store.count(1));
+            assertEquals("f-2", store.get(1, 0).getFileName());
+            assertEquals(0, store.count(2));
+        }
+    }
+
+    @Test
+    void recoveryDropsCorruptTail() throws Exception {
+        try (AstronomicalDataStore store = new AstronomicalDataStore(dir, SEGMENT_SIZE)) {
+            for (int i = 1; i <= 5; i++) {
+                store.append(1, data(i, "old"));
+            }
+        }
+        Path segment = AstronomicalDataStore.segmentPath(dir, 1);
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(segment));
+        int last = 0;
+        for (int i = 1; i < 5; i++) {
+            last += bytes.getInt(last);
+        }
+        bytes.put(last + HEADER_LENGTH + 10, (byte) (bytes.get(last + HEADER_LENGTH + 10) ^ 0x5a));
+        Files.write(segment, bytes.array());
+
+        try (AstronomicalDataStore store = new AstronomicalDataStore(dir, SEGMENT_SIZE)) {
+            assertEquals(4, store.count(1));
+            assertEquals("f-4", store.getLatest(1).getFileName());
+            // New records go where the corrupt one was
+            store.append(1, data(6, "old"));
+        }
+        try (AstronomicalDataStore store = new AstronomicalDataStore(dir, SEGMENT_SIZE)) {
+            assertEquals(5, store.count(1));
+            assertEquals("f-4", store.get(1, 3).getFileName());
+            assertEquals("f-6", store.getLatest(1).getFileName());
+        }
+    }
+
+    private static AstronomicalData data(int i, String description) {
+        return new AstronomicalData("PNG", "LOW", "COLOR", 1, 0, 1, 0, 0, 0, 0, 0, 0, 0,
+                "f-" + i, description);
+    }
+
+    // Append records f-1, f-2, ... for a plan until the store has the given number of segments
+    private static int appendUntilSegments(AstronomicalDataStore store, int planNo, int segments,
+                                           String description) throws IOException {
+        int n = 0;
+        while (store.getSegmentCount() < segments) {
+            store.append(planNo, data(++n, description));
+        }
+        return n;
+    }
+
+    // The first copied records carry the copy's description, the rest the original one
+    private static void assertRecords(AstronomicalDataStore store, int records, int copied) {
+        for (int i = 0; i < records; i++) {
+            AstronomicalData d = store.get(1, i);
+            assertEquals("f-" + (i + 1), d.getFileName());
+            assertEquals(i < copied ? "new" : "old", d.getDescription(), "record " + i);
+        }
+    }
+
+    /**
+     * Replace a same-length string in the body of every record of a segment image and reseal
+     * the records with a fresh CRC.
+     *
+     * @return the number of records rewritten
+     */
+    private static int rewriteRecords(ByteBuffer segment, String from, String to) {
+        byte[] a = from.getBytes(StandardCharsets.UTF_8);
+        byte[] b = to.getBytes(StandardCharsets.UTF_8);
+        byte[] image = segment.array();
+        int records = 0;
+        int at = 0;
+        while (at + HEADER_LENGTH <= image.length) {
+            int length = segment.getInt(at);
+            if (length < HEADER_LENGTH) break;
+            for (int i = at + HEADER_LENGTH; i + a.length <= at + length; i++) {
+                if (Arrays.equals(image, i, i + a.length, a, 0, a.length)) {
+                    System.arraycopy(b, 0, image, i, b.length);
+                    break;
+                }
+            }
+            CRC32 crc = new CRC32();
+            crc.update(image, at + 8, length - 8);
+            segment.putInt(at + 4, (int) crc.getValue());
+            records++;
+            at += length;
+        }
+        return records;
+    }
+
+    private static void awaitDeleted(Path file) throws InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (Files.exists(file)) {
+            assertTrue(System.nanoTime() < deadline, file.getFileName() + " was not compacted away");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package edu.gemini;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import edu.gemini.model.AbstractObservingProgramConfigs;
+import edu.gemini.model.AbstractSciencePlan;
+import edu.gemini.model.AbstractTelePositionPair;
+
+class OcsJournalTest {
+
+    private static final long START = 1_893_456_000_000L;   // 2030-01-01
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replayStopsAtTornTailAndTruncatesIt() throws IOException {
+        try (OcsJournal journal = new OcsJournal(dir, 0, true)) {
+            for (int planNo = 1; planNo <= 3; planNo++) {
+                journal.planStored(plan(planNo), true);
+            }
+            journal.sync();
+        }
+        Path segment = OcsJournal.segmentPath(dir, 1);
+        long validLength = Files.size(segment);
+        // A record header promising 40 bytes, cut off by a crash two bytes in
+        Files.write(segment, new byte[] {0, 0, 0, 40, 0, 0}, StandardOpenOption.APPEND);
+
+        OCS ocs = new OCS();
+        OcsJournal.ReplayState state = OcsJournal.replay(dir, 0, new OcsJournal.ReplayState(0, 1, 1), ocs);
+        assertEquals(3, state.lastSeq);
+        assertEquals(4, state.nextPlanNo);
+        assertEquals(3, ocs.getAllDraftSciencePlans().size());
+        assertEquals(validLength, Files.size(segment));
+
+        // The journal continues cleanly after the cut
+        try (OcsJournal journal = new OcsJournal(dir, state.lastSeq, true)) {
+            journal.planStored(plan(4), true);
+            journal.sync();
+        }
+        OCS again = new OCS();
+        state = OcsJournal.replay(dir, 0, new OcsJournal.ReplayState(0, 1, 1), again);
+        assertEquals(4, state.lastSeq);
+        assertEquals(4, again.getAllDraftSciencePlans().size());
+    }
+
+    @Test
+    void replayRejectsRecordWithBadChecksum() throws IOException {
+        long firstRecordEnd;
+        try (OcsJournal journal = new OcsJournal(dir, 0, true)) {
+            journal.planStored(plan(1), true);
+            journal.sync();
+            firstRecordEnd = Files.size(OcsJournal.segmentPath(dir, 1));
+            journal.planStored(plan(2), true);
+            journal.planStatusChanged(1, AbstractSciencePlan.STATUS.TESTED);
+            journal.sync();
+        }
+        // Flip the first payload byte of the second record: its length still frames it, its CRC does not match
+        Path segment = OcsJournal.segmentPath(dir, 1);
+        byte[] bytes = Files.readAllBytes(segment);
+        bytes[(int) firstRecordEnd + 4 + 8 + 1] ^= 0x5a;
+        Files.write(segment, bytes);
+
+        OCS ocs = new OCS();
+        OcsJournal.ReplayState state = OcsJournal.replay(dir, 0, new OcsJournal.ReplayState(0, 1, 1), ocs);
+        assertEquals(1, state.lastSeq);
+        assertNotNull(ocs.getSciencePlanByNo(1));
+        assertNull(ocs.getSciencePlanByNo(2));
+        // Nothing after the corrupt record is applied either
+        assertEquals(AbstractSciencePlan.STATUS.CREATED, ocs.getSciencePlanByNo(1).getStatus());
+        assertEquals(firstRecordEnd, Files.size(segment));
+    }
+
+    @Test
+    void corruptionBeforeLastSegmentFailsReplay() throws IOException {
+        writeSession(0, 5);
+        writeSession(5, 5);
+        Path first = OcsJournal.segmentPath(dir, 1);
+        byte[] bytes = Files.readAllBytes(first);
+        bytes[bytes.length / 2] ^= 0x5a;
+        Files.write(first, bytes);
+        long secondLength = Files.size(OcsJournal.segmentPath(dir, 6));
+
+        assertThrows(IOException.class,
+                () -> OcsJournal.replay(dir, 0, new OcsJournal.ReplayState(0, 1, 1), new OCS()));
+        // Nothing is cut off, so the journal can still be repaired by hand
+        assertEquals(bytes.length, Files.size(first));
+        assertEquals(secondLength, Files.size(OcsJournal.segmentPath(dir, 6)));
+    }
+
+    @Test
+    void gapBetweenSegmentsFailsReplay() throws IOException {
+        writeSession(0, 5);
+        writeSession(7, 2);
+
+        assertThrows(IOException.class,
+                () -> OcsJournal.replay(dir, 0, new OcsJournal.ReplayState(0, 1, 1), new OCS()));
+    }
+
+    @Test
+    void fuzzySnapshotPlusJournalReplayReachesSameState() throws Exception {
+        Astronomer an = new Astronomer(1, "Ada", "Lovelace", "Gemini");
+        String expected;
+        try (OcsPersistence persistence = OcsPersistence.open(dir, Duration.ofHours(1), false)) {
+            OCS ocs = persistence.getOcs();
+            for (int i = 0; i < 50; i++) {
+                ocs.createSciencePlan(draft("seed-" + i), an);
+            }
+
+            // Keep changing the OCS while snapshots are taken, so each snapshot also holds
+            // changes made after its journal sequence number
+            AtomicBoolean done = new AtomicBoolean();
+            CountDownLatch started = new CountDownLatch(1);
+            Thread writer = new Thread(() -> {
+                int i = 0;
+                while (!done.get() || i < 200) {
+                    ocs.createSciencePlan(draft("busy-" + i), an);
+                    ocs.updateSciencePlanStatus(1 + i % 50, AbstractSciencePlan.STATUS.values()[i % 3]);
+                    if (i % 7 == 0) {
+                        ocs.deleteSciencePlanByNo(51 + i / 2);
+                    }
+                    if (i % 11 == 0) {
+                        ocs.addConfiguration("conf-" + i + ".conf");
+                    }
+                    if (i % 13 == 0) {
+                        ocs.addUnavailableDate("Chile", new Date(START + i * 86_400_000L));
+                    }
+                    started.countDown();
+                    i++;
+                }
+            });
+            writer.start();
+            started.await();
+            for (int i = 0; i < 3; i++) {
+                persistence.snapshot();
+            }
+            done.set(true);
+            writer.join();
+
+            expected = describe(ocs);
+        }
+
+        try (OcsPersistence persistence = OcsPersistence.open(dir, Duration.ofHours(1), false)) {
+            assertEquals(expected, describe(persistence.getOcs()));
+        }
+    }
+
+    @Test
+    void unreadableSnapshotFailsOpen() throws IOException {
+        long seq;
+        try (OcsPersistence persistence = OcsPersistence.open(dir, Duration.ofHours(1), true)) {
+            Astronomer an = new Astronomer(1, "Ada", "Lovelace", "Gemini");
+            for (int i = 0; i < 10; i++) {
+                persistence.getOcs().createSciencePlan(draft("plan-" + i), an);
+            }
+            seq = persistence.snapshot();
+        }
+        Path snapshot = OcsSnapshot.path(dir, seq);
+        byte[] bytes = Files.readAllBytes(snapshot);
+        Files.write(snapshot, Arrays.copyOf(bytes, bytes.length / 2));
+
+        // The journal it covered is gone, so starting without it would lose the plans for good
+        assertThrows(IOException.class, () -> OcsPersistence.open(dir, Duration.ofHours(1), true));
+    }
+
+    @Test
+    void recoveryKeepsDataOfPlansMissingFromOcs() throws IOException {
+        Path data = dir.resolve(OcsPersistence.DATA_DIRECTORY);
+        try (AstronomicalDataStore store = new AstronomicalDataStore(data)) {
+            store.append(99, new AstronomicalData("frame-1.png", "lost with its plan"));
+        }
+        try (OcsPersistence persistence = OcsPersistence.open(dir, Duration.ofHours(1), true)) {
+            assertNull(persistence.getOcs().getSciencePlanByNo(99));
+        }
+        try (AstronomicalDataStore store = new AstronomicalDataStore(data)) {
+            assertEquals(1, store.count(99));
+        }
+    }
+
+    @Test
+    void calibrationSurvivesJournalAndSnapshot() throws IOException {
+        ObservingProgram op = program(plan(7), AbstractObservingProgramConfigs.CalibrationUnit.ThAr);
+        try (OcsJournal journal = new OcsJournal(dir, 0, true)) {
+            journal.planStored(op.getSciencePlan(), false);
+            journal.programStored(op);
+            journal.sync();
+        }
+
+        OCS replayed = new OCS();
+        OcsJournal.replay(dir, 0, new OcsJournal.ReplayState(0, 1, 1), replayed);
+        assertSameCalibration(op.getCalibration(), replayed.getObservingProgramById(op.getId()).getCalibration());
+
+        OcsSnapshot.write(dir, 2, replayed);
+        OCS restored = new OCS();
+        OcsSnapshot.read(OcsSnapshot.path(dir, 2), restored);
+        assertSameCalibration(op.getCalibration(), restored.getObservingProgramById(op.getId()).getCalibration());
+    }
+
+    @Test
+    void recoveryResumesObservationOfRunningPlans() throws IOException {
+        SciencePlan running = plan(7);
+        running.setStatus(AbstractSciencePlan.STATUS.RUNNING);
+        ObservingProgram op = program(running, null);
+        try (OcsJournal journal = new OcsJournal(dir, 0, true)) {
+            journal.planStored(running, false);
+            journal.programStored(op);
+            journal.sync();
+        }
+
+        try (OcsPersistence persistence = OcsPersistence.open(dir, Duration.ofHours(1), true)) {
+            OCS ocs = persistence.getOcs();
+            assertEquals(7, ocs.getObservingPlanNo("Hawaii"));
+            assertEquals(-1, ocs.getObservingPlanNo("Chile"));
+
+            assertTrue(ocs.deleteObservingProgram(op.getId()));
+            assertEquals(-1, ocs.getObservingPlanNo("Hawaii"));
+        }
+        try (OcsPersistence persistence = OcsPersistence.open(dir, Duration.ofHours(1), true)) {
+            assertEquals(-1, persistence.getOcs().getObservingPlanNo("Hawaii"));
+        }
+    }
+
+    @Test
+    void awaitDurableReturnsOnlyOnceEveryEarlierRecordIsOnDisk() throws Exception {
+        int threads = 4;
+        int perThread = 25;
+        ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+        try (OcsJournal journal = new OcsJournal(dir, 0, true)) {
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int first = 1 + t * perThread;
+                workers.add(new Thread(() -> {
+                    try {
+                        for (int planNo = first; planNo < first + perThread; planNo++) {
+                            journal.planStored(plan(planNo), true);
+                            journal.awaitDurable();
+                            // What a crash right now would leave behind
+                            OCS recovered = recoverCopy(OcsJournal.segmentPath(dir, 1));
+                            for (int p = first; p <= planNo; p++) {
+                                if (recovered.getSciencePlanByNo(p) == null) {
+                                    failures.add("plan " + p + " missing after awaitDurable of plan " + planNo);
+                                }
+                            }
+                        }
+                    } catch (IOException e) {
+                        failures.add(e.toString());
+                    }
+                }));
+            }
+            workers.forEach(Thread::start);
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            assertTrue(failures.isEmpty(), String.valueOf(failures));
+            assertEquals(threads * perThread, journal.getLastSeq());
+        }
+    }
+
+    // One run of the OCS: a journal continuing after lastSeq, with one stored plan per record
+    private void writeSession(long lastSeq, int records) throws IOException {
+        try (OcsJournal journal = new OcsJournal(dir, lastSeq, true)) {
+            for (int i = 1; i <= records; i++) {
+                journal.planStored(plan((int) lastSeq + i), true);
+            }
+            journal.sync();
+        }
+    }
+
+    // Replay a copy of the segment as it is on disk, without truncating the live file
+    private static OCS recoverCopy(Path segment) throws IOException {
+        Path copy = Files.createTempDirectory("journal-copy");
+        try {
+            Files.write(OcsJournal.segmentPath(copy, 1), Files.readAllBytes(segment));
+            OCS ocs = new OCS();
+            OcsJournal.ReplayState state = OcsJournal.replay(copy, 0, new OcsJournal.ReplayState(0, 1, 1), ocs);
+            // Sequence numbers on disk have no gaps: one stored plan per record
+            assertEquals(state.lastSeq, ocs.getAllDraftSciencePlans().size());
+            return ocs;
+        } finally {
+            try (var files = Files.list(copy)) {
+                for (Path p : (Iterable<Path>) files::iterator) {
+                    Files.delete(p);
+                }
+            }
+            Files.delete(copy);
+        }
+    }
+
+    private static ObservingProgram program(SciencePlan sp, AbstractObservingProgramConfigs.CalibrationUnit lamp) {
+        ObservingProgram op = new ObservingProgram();
+        op.setId(1);
+        op.setSciencePlan(sp);
+        op.setConfigs(new ObservingProgramConfigs("GNZ", 4, 10, 40,
+                AbstractObservingProgramConfigs.FoldMirrorType.CASSEGRAIN_FOCUS, 2, lamp,
+                AbstractObservingProgramConfigs.LightType.MaunaKeaSkyEmission, new AbstractTelePositionPair[0]));
+        op.setOpticsPrimary("GNZ");
+        op.setFStop(4);
+        op.setOpticsSecondaryRMS(10);
+        op.setCalibration(lamp == null ? null : OCS.calibrate(sp.getPlanNo(), lamp));
+        return op;
+    }
+
+    private static void assertSameCalibration(GcalCalibration.Solution[] expected, GcalCalibration.Solution[] actual) {
+        assertNotNull(actual);
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i] == null, actual[i] == null);
+            if (expected[i] == null) continue;
+            assertEquals(expected[i].getLamp(), actual[i].getLamp());
+            assertEquals(expected[i].getMatchedLines(), actual[i].getMatchedLines());
+            assertEquals(expected[i].getRmsNm(), actual[i].getRmsNm(), 0);
+            assertEquals(expected[i].wavelength(512), actual[i].wavelength(512), 0);
+        }
+    }
+
+    private static SciencePlan plan(int planNo) {
+        return new SciencePlan(planNo, "plan-" + planNo, "Ada Lovelace", 1000, "Survey",
+                new Date(START), new Date(START + 86_400_000L), "Hawaii", "Aquarius",
+                AbstractSciencePlan.STATUS.CREATED);
+    }
+
+    // Missing its objective, so createSciencePlan files it as a draft without the catalogue checks
+    private static SciencePlan draft(String name) {
+        SciencePlan sp = new SciencePlan();
+        sp.setName(name);
+        sp.setFunding(1000);
+        sp.setStartDate(new Date(START));
+        sp.setEndDate(new Date(START + 86_400_000L));
+        sp.setTelescope("Chile");
+        sp.setTarget("Aquarius");
+        return sp;
+    }
+
+    private static String describe(OCS ocs) {
+        StringBuilder sb = new StringBuilder();
+        List<SciencePlan> plans = new ArrayList<>(ocs.getAllSciencePlans());
+        plans.addAll(ocs.getAllDraftSciencePlans());
+        plans.sort((a, b) -> Integer.compare(a.getPlanNo(), b.getPlanNo()));
+        for (SciencePlan sp : plans) {
+            sb.append('#').append(sp.getPlanNo()).append(' ').append(sp.getName()).append(' ')
+                    .append(sp.getStatus()).append(ocs.isDraftSciencePlan(sp.getPlanNo()) ? " draft" : "")
+                    .append('\n');
+        }
+        sb.append(ocs.getConfigurationList()).append('\n');
+        sb.append(ocs.getUnavailableDates("Chile")).append('\n');
+        sb.append("next plan ").append(ocs.getNextPlanNo()).append('\n');
+        return sb.toString();
+    }
+}
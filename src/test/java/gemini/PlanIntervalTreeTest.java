@@ -0,0 +1,131 @@
+package edu.gemini;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import edu.gemini.model.AbstractSciencePlan;
+
+class PlanIntervalTreeTest {
+
+    private static final String[] TELESCOPES = {"Hawaii", "hawaii", "Chile", "CHILE"};
+
+    @Test
+    void endpointsAreInclusive() {
+        PlanIntervalTree tree = new PlanIntervalTree();
+        tree.insert(1, 10, 20);
+        assertEquals(1, tree.findAnyOverlap(20, 30));
+        assertEquals(1, tree.findAnyOverlap(0, 10));
+        assertEquals(-1, tree.findAnyOverlap(21, 30));
+        assertEquals(-1, tree.findAnyOverlap(0, 9));
+        assertArrayEquals(new int[] {1}, tree.findOverlaps(15, 15));
+    }
+
+    @Test
+    void reinsertMovesPlan() {
+        PlanIntervalTree tree = new PlanIntervalTree();
+        tree.insert(1, 10, 20);
+        tree.insert(1, 100, 200);
+        assertEquals(1, tree.size());
+        assertEquals(-1, tree.findAnyOverlap(10, 20));
+        assertEquals(1, tree.findAnyOverlap(150, 150));
+        assertTrue(tree.remove(1));
+        assertFalse(tree.remove(1));
+        assertEquals(-1, tree.findAnyOverlap(Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    @Test
+    void treeMatchesLinearScan() {
+        Random random = new Random(42);
+        PlanIntervalTree tree = new PlanIntervalTree();
+        Map<Integer, long[]> ranges = new HashMap<>();
+        for (int step = 0; step < 20_000; step++) {
+            int planNo = random.nextInt(500);
+            if (random.nextInt(4) == 0) {
+                assertEquals(ranges.remove(planNo) != null, tree.remove(planNo));
+            } else {
+                long start = random.nextInt(10_000);
+                long end = start + random.nextInt(200);
+                tree.insert(planNo, start, end);
+                ranges.put(planNo, new long[] {start, end});
+            }
+            assertEquals(ranges.size(), tree.size());
+
+            long start = random.nextInt(10_200) - 100;
+            long end = start + random.nextInt(300);
+            int[] expected = ranges.entrySet().stream()
+                    .filter(e -> e.getValue()[0] <= end && e.getValue()[1] >= start)
+                    .mapToInt(Map.Entry::getKey).sorted().toArray();
+            int[] actual = tree.findOverlaps(start, end);
+            Arrays.sort(actual);
+            assertArrayEquals(expected, actual, "overlaps of [" + start + ", " + end + "]");
+
+            int any = tree.findAnyOverlap(start, end);
+            if (expected.length == 0) {
+                assertEquals(-1, any);
+            } else {
+                assertTrue(Arrays.binarySearch(expected, any) >= 0, "plan " + any + " does not overlap");
+            }
+        }
+    }
+
+    @Test
+    void conflictIndexMatchesLinearCheck() {
+        Random random = new Random(7);
+        DateConflictIndex index = new DateConflictIndex();
+        Map<Integer, SciencePlan> plans = new HashMap<>();
+        for (int step = 0; step < 5_000; step++) {
+            int planNo = random.nextInt(300);
+            if (random.nextInt(4) == 0) {
+                assertEquals(plans.remove(planNo) != null, index.remove(planNo));
+            } else {
+                SciencePlan sp = plan(planNo, random);
+                index.add(sp);
+                plans.put(planNo, sp);
+            }
+
+            SciencePlan probe = plan(-1, random);
+            List<Integer> expected = new ArrayList<>();
+            for (SciencePlan existing : plans.values()) {
+                if (conflicts(existing, probe)) {
+                    expected.add(existing.getPlanNo());
+                }
+            }
+            int[] actual = index.findConflicts(probe.getTelescope(), probe.getStartDate(), probe.getEndDate());
+            assertArrayEquals(expected.stream().mapToInt(Integer::intValue).sorted().toArray(),
+                    Arrays.stream(actual).sorted().toArray());
+
+            int any = index.findConflict(probe.getTelescope(), probe.getStartDate(), probe.getEndDate());
+            assertEquals(expected.isEmpty(), any < 0);
+            assertTrue(any < 0 || expected.contains(any));
+        }
+    }
+
+    // The date conflict check createSciencePlan used to run against every stored plan
+    private static boolean conflicts(SciencePlan existing, SciencePlan newPlan) {
+        if (!existing.getTelescope().equalsIgnoreCase(newPlan.getTelescope())) {
+            return false;
+        }
+        return !(newPlan.getEndDate().before(existing.getStartDate()) ||
+                 newPlan.getStartDate().after(existing.getEndDate()));
+    }
+
+    private static SciencePlan plan(int planNo, Random random) {
+        long start = 1_893_456_000_000L + random.nextInt(365) * 86_400_000L;
+        long end = start + random.nextInt(10) * 86_400_000L;
+        return new SciencePlan(planNo, "plan-" + planNo, "Ada Lovelace", 1000, "Survey",
+                new Date(start), new Date(end), TELESCOPES[random.nextInt(TELESCOPES.length)], "Aquarius",
+                AbstractSciencePlan.STATUS.CREATED);
+    }
+}
@@ -0,0 +1,214 @@
+package edu.gemini;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class TelescopeSchedulerTest {
+
+    private static final ZoneId ZONE = ZoneOffset.UTC;
+    private static final long FIRST_DAY = LocalDate.of(2030, 1, 1).toEpochDay();
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+    private static final int ALL_MONTHS = 0xfff;
+
+    @Test
+    void usesOnlyWindowLeftByBlockedDays() {
+        // Days 0-9 free for a 3-day plan only at 4-6
+        long[][] blocked = blocked(new long[] {0, 1, 2, 3, 7, 8, 9}, new long[0]);
+        TelescopeScheduler scheduler = new TelescopeScheduler(ZONE, FIRST_DAY, 10, blocked);
+        TelescopeScheduler.Schedule schedule = scheduler.solve(List.of(
+                request(1, 100, 3, TelescopeSite.HAWAII, ALL_MONTHS, 1),
+                request(2, 100, 5, TelescopeSite.HAWAII, ALL_MONTHS, 1)));
+
+        assertEquals(1, schedule.getAssignments().size());
+        assertEquals(FIRST_DAY + 4, startDay(schedule.getAssignments().get(0)));
+        assertArrayEquals(new int[] {2}, schedule.getUnscheduledPlanNos());
+    }
+
+    @Test
+    void keepsToTargetSeason() {
+        // 2030-01-01 plus 90 days reaches into April; the plan may only use March
+        TelescopeScheduler scheduler = new TelescopeScheduler(ZONE, FIRST_DAY, 90, new long[0][]);
+        TelescopeScheduler.Schedule schedule = scheduler.solve(List.of(
+                request(1, 100, 5, TelescopeSite.CHILE, 1 << 2, 3)));
+
+        assertEquals(3, LocalDate.ofEpochDay(startDay(schedule.getAssignments().get(0))).getMonthValue());
+    }
+
+    @Test
+    void prefersFundingWhenPlansCompete() {
+        TelescopeScheduler scheduler = new TelescopeScheduler(ZONE, FIRST_DAY, 10, new long[0][]);
+        TelescopeScheduler.Schedule schedule = scheduler.solve(List.of(
+                request(1, 100, 6, TelescopeSite.HAWAII, ALL_MONTHS, 1),
+                request(2, 300, 6, TelescopeSite.HAWAII, ALL_MONTHS, 1),
+                request(3, 50, 6, TelescopeSite.CHILE, ALL_MONTHS, 1)));
+
+        assertArrayEquals(new int[] {1}, schedule.getUnscheduledPlanNos());
+        assertEquals(350, schedule.getTotalFunding(), 1e-9);
+    }
+
+    @Test
+    void randomSolveHasNoOverlapsAndRespectsBlockedDays() {
+        Random random = new Random(3);
+        int horizon = 180;
+        long[][] blocked = randomBlocked(random, horizon);
+        Map<Integer, TelescopeScheduler.Request> requests = new HashMap<>();
+        for (int planNo = 1; planNo <= 150; planNo++) {
+            requests.put(planNo, randomRequest(random, planNo));
+        }
+        TelescopeScheduler scheduler = new TelescopeScheduler(ZONE, FIRST_DAY, horizon, blocked);
+        TelescopeScheduler.Schedule schedule = scheduler.solve(new ArrayList<>(requests.values()));
+
+        assertValid(schedule, requests, blocked, horizon);
+        assertFalse(schedule.getAssignments().isEmpty());
+        assertTrue(schedule.getUnscheduledPlanNos().length > 0, "the calendar should be oversubscribed");
+    }
+
+    @Test
+    void incrementalUpdatesAndRemovalsKeepScheduleValid() {
+        Random random = new Random(5);
+        int horizon = 120;
+        long[][] blocked = randomBlocked(random, horizon);
+        Map<Integer, TelescopeScheduler.Request> requests = new HashMap<>();
+        for (int planNo = 1; planNo <= 80; planNo++) {
+            requests.put(planNo, randomRequest(random, planNo));
+        }
+        TelescopeScheduler scheduler = new TelescopeScheduler(ZONE, FIRST_DAY, horizon, blocked);
+        TelescopeScheduler.Schedule schedule = scheduler.solve(new ArrayList<>(requests.values()));
+        assertValid(schedule, requests, blocked, horizon);
+
+        for (int step = 0; step < 300; step++) {
+            int planNo = 1 + random.nextInt(120);
+            if (random.nextInt(3) == 0) {
+                requests.remove(planNo);
+                schedule = scheduler.remove(planNo);
+            } else {
+                TelescopeScheduler.Request r = randomRequest(random, planNo);
+                requests.put(planNo, r);
+                schedule = scheduler.update(r);
+            }
+            assertValid(schedule, requests, blocked, horizon);
+        }
+        // A full re-solve sees the same requests
+        schedule = scheduler.solve();
+        assertValid(schedule, requests, blocked, horizon);
+    }
+
+    @Test
+    void removalFreesDaysForWaitingPlan() {
+        TelescopeScheduler scheduler = new TelescopeScheduler(ZONE, FIRST_DAY, 10, new long[0][]);
+        scheduler.solve(List.of(
+                request(1, 200, 10, TelescopeSite.HAWAII, ALL_MONTHS, 1),
+                request(2, 100, 4, TelescopeSite.HAWAII, ALL_MONTHS, 1)));
+
+        TelescopeScheduler.Schedule schedule = scheduler.remove(1);
+        assertEquals(1, schedule.getAssignments().size());
+        assertEquals(2, schedule.getAssignments().get(0).getPlanNo());
+        assertEquals(0, schedule.getUnscheduledPlanNos().length);
+    }
+
+    @Test
+    void updateEvictsForBetterFundedPlan() {
+        TelescopeScheduler scheduler = new TelescopeScheduler(ZONE, FIRST_DAY, 10, new long[0][]);
+        scheduler.solve(List.of(request(1, 100, 8, TelescopeSite.CHILE, ALL_MONTHS, 1)));
+
+        TelescopeScheduler.Schedule schedule = scheduler.update(request(2, 500, 8, TelescopeSite.CHILE, ALL_MONTHS, 1));
+        assertEquals(1, schedule.getAssignments().size());
+        assertEquals(2, schedule.getAssignments().get(0).getPlanNo());
+        assertArrayEquals(new int[] {1}, schedule.getUnscheduledPlanNos());
+    }
+
+    private static void assertValid(TelescopeScheduler.Schedule schedule,
+                                    Map<Integer, TelescopeScheduler.Request> requests,
+                                    long[][] blocked, int horizon) {
+        Set<Integer> seen = new HashSet<>();
+        Map<TelescopeSite, Set<Long>> used = new HashMap<>();
+        for (TelescopeScheduler.Assignment a : schedule.getAssignments()) {
+            TelescopeScheduler.Request r = requests.get(a.getPlanNo());
+            assertTrue(r != null, "unknown plan " + a.getPlanNo());
+            assertTrue(seen.add(a.getPlanNo()), "plan " + a.getPlanNo() + " scheduled twice");
+            assertEquals(r.site, a.getSite());
+            assertEquals(r.spanMs, a.getEnd().getTime() - a.getStart().getTime());
+
+            long first = startDay(a);
+            Set<Long> days = used.computeIfAbsent(a.getSite(), k -> new HashSet<>());
+            for (long day = first; day < first + r.days; day++) {
+                assertTrue(day >= FIRST_DAY && day < FIRST_DAY + horizon, "plan " + a.getPlanNo() + " off the horizon");
+                assertTrue(days.add(day), "plan " + a.getPlanNo() + " overlaps on day " + day);
+                assertFalse(contains(blocked[a.getSite().ordinal()], day), "plan " + a.getPlanNo() + " on blocked day " + day);
+                int month = LocalDate.ofEpochDay(day).getMonthValue();
+                assertTrue((r.monthMask & (1 << (month - 1))) != 0, "plan " + a.getPlanNo() + " out of season");
+            }
+        }
+        for (int planNo : schedule.getUnscheduledPlanNos()) {
+            assertTrue(requests.containsKey(planNo), "unknown plan " + planNo);
+            assertTrue(seen.add(planNo), "plan " + planNo + " both scheduled and unscheduled");
+        }
+        assertEquals(requests.keySet(), seen);
+    }
+
+    private static TelescopeScheduler.Request request(int planNo, double funding, int days, TelescopeSite site,
+                                                      int monthMask, int bestMonth) {
+        return new TelescopeScheduler.Request(planNo, funding, (days - 1) * DAY_MS + 8 * 60 * 60 * 1000,
+                site, monthMask, bestMonth);
+    }
+
+    private static TelescopeScheduler.Request randomRequest(Random random, int planNo) {
+        // Two or three months in season
+        int firstMonth = random.nextInt(12);
+        int monthMask = 0;
+        for (int m = 0; m < 2 + random.nextInt(2); m++) {
+            monthMask |= 1 << ((firstMonth + m) % 12);
+        }
+        TelescopeSite site = TelescopeSite.values()[random.nextInt(TelescopeSite.values().length)];
+        return request(planNo, 10 + random.nextInt(1000), 1 + random.nextInt(14), site, monthMask, firstMonth + 1);
+    }
+
+    private static long[][] randomBlocked(Random random, int horizon) {
+        long[][] blocked = new long[TelescopeSite.values().length][];
+        for (int s = 0; s < blocked.length; s++) {
+            blocked[s] = random.longs(horizon / 10, FIRST_DAY, FIRST_DAY + horizon).distinct().toArray();
+        }
+        return blocked;
+    }
+
+    private static long[][] blocked(long[] hawaii, long[] chile) {
+        long[][] blocked = new long[TelescopeSite.values().length][];
+        blocked[TelescopeSite.HAWAII.ordinal()] = offset(hawaii);
+        blocked[TelescopeSite.CHILE.ordinal()] = offset(chile);
+        return blocked;
+    }
+
+    private static long[] offset(long[] days) {
+        long[] epochDays = new long[days.length];
+        for (int i = 0; i < days.length; i++) {
+            epochDays[i] = FIRST_DAY + days[i];
+        }
+        return epochDays;
+    }
+
+    private static boolean contains(long[] days, long day) {
+        for (long d : days) {
+            if (d == day) return true;
+        }
+        return false;
+    }
+
+    private static long startDay(TelescopeScheduler.Assignment a) {
+        return a.getStart().toInstant().atZone(ZONE).toLocalDate().toEpochDay();
+    }
+}
@@ -0,0 +1,198 @@
+package edu.gemini;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import org.junit.jupiter.api.Test;
+
+class ValidationRulesTest {
+
+    private static final Set<String> TARGETS = Set.of("Aquarius", "Leo");
+    private static final Predicate<String> TARGET_CHECK = t -> t != null && TARGETS.contains(t.trim());
+
+    // Same bounds and labels as OCS.Validation
+    private static final ValidationRules RULES = ValidationRules.builder()
+            .target(TARGET_CHECK)
+            .range(ValidationRules.CONTRAST_RANGE, ValidationRules.CONTRAST, "Contrast", 0.0, 2.0)
+            .range(ValidationRules.BRIGHTNESS_RANGE, ValidationRules.BRIGHTNESS, "Brightness", -1.0, 1.0)
+            .range(ValidationRules.SATURATION_RANGE, ValidationRules.SATURATION, "Saturation", 0.0, 2.0)
+            .range(ValidationRules.EXPOSURE_RANGE, ValidationRules.EXPOSURE, "Exposure", -3.0, 3.0)
+            .compile();
+
+    private static final String[] BLANK = {null, "", "  "};
+    private static final String[] TELESCOPES = {"Hawaii", "Chile"};
+    private static final String[] TARGET_NAMES = {"Aquarius", " Leo ", "Leo", "Andromeda"};
+    private static final Double[] IN_RANGE = {0.0, 0.5, 1.0};
+    // Out of range for some fields, on a bound or out of range for others
+    private static final Double[] EDGES = {-4.0, -3.0, -1.5, -1.0, 2.0, 2.5, 3.0, 4.0};
+    private static final long DAY_MS = 86_400_000L;
+
+    @Test
+    void acceptedPlanHasNoMessage() {
+        SciencePlan sp = new SciencePlan();
+        sp.setName("M31 survey");
+        sp.setObjective("M31 survey");
+        sp.setFunding(1000);
+        sp.setStartDate(new Date(0));
+        sp.setEndDate(new Date(86_400_000L));
+        sp.setTelescope("Hawaii");
+        sp.setTarget("Aquarius");
+        sp.setColorType(SciencePlan.ColorType.COLOR);
+        sp.setContrast(1.0);
+        sp.setBrightness(0.0);
+        sp.setSaturation(1.0);
+        sp.setExposure(0.0);
+
+        long failures = RULES.check(sp);
+        assertEquals(0, failures);
+        assertEquals(SciencePlanOutcome.ACCEPTED, ValidationRules.outcome(failures));
+        assertNull(RULES.message(failures));
+    }
+
+    @Test
+    void listsEveryOutOfRangeField() {
+        SciencePlan sp = new SciencePlan();
+        sp.setName("M31 survey");
+        sp.setObjective("M31 survey");
+        sp.setFunding(1000);
+        sp.setStartDate(new Date(0));
+        sp.setEndDate(new Date(0));
+        sp.setTelescope("Chile");
+        sp.setTarget("Leo");
+        sp.setContrast(3.0);
+        sp.setSaturation(-1.0);
+
+        assertEquals("Invalid input value. Please enter valid decimal numbers within the allowed range. " +
+                "Contrast must be between 0.0 to 2.0. Saturation must be between 0.0 to 2.0.",
+                RULES.message(RULES.check(sp)));
+    }
+
+    @Test
+    void matchesSequentialChecks() {
+        Random random = new Random(11);
+        Set<SciencePlanOutcome> seen = EnumSet.noneOf(SciencePlanOutcome.class);
+        for (int i = 0; i < 50_000; i++) {
+            SciencePlan sp = randomPlan(random);
+            long failures = RULES.check(sp);
+            SciencePlanOutcome outcome = ValidationRules.outcome(failures);
+            assertEquals(legacyOutcome(sp), outcome, sp.toString());
+            assertEquals(legacyMessage(sp, outcome), RULES.message(failures), sp.toString());
+            seen.add(outcome);
+        }
+        // Every outcome the plan-only checks can give was compared at least once
+        assertEquals(EnumSet.of(SciencePlanOutcome.ACCEPTED, SciencePlanOutcome.INCOMPLETE,
+                SciencePlanOutcome.INVALID_DATE_RANGE, SciencePlanOutcome.INVALID_FUNDING,
+                SciencePlanOutcome.UNKNOWN_TARGET, SciencePlanOutcome.DATA_PROCESSING_OUT_OF_RANGE,
+                SciencePlanOutcome.DATA_PROCESSING_INCOMPLETE, SciencePlanOutcome.LEGACY_INCOMPATIBLE), seen);
+    }
+
+    // Mostly well-formed plans with one or two faults, so every check gets its turn
+    private static SciencePlan randomPlan(Random random) {
+        SciencePlan sp = new SciencePlan();
+        sp.setName(text(random, "M31 survey"));
+        sp.setObjective(text(random, "Map the disk"));
+        sp.setFunding(random.nextInt(10) == 0 ? -random.nextInt(2) : 1000);
+        long start = random.nextInt(5) * DAY_MS;
+        if (random.nextInt(20) > 0) {
+            sp.setStartDate(new Date(start));
+        }
+        if (random.nextInt(20) > 0) {
+            sp.setEndDate(new Date(start + (random.nextInt(8) == 0 ? -DAY_MS : random.nextInt(3) * DAY_MS)));
+        }
+        sp.setTelescope(text(random, pick(random, TELESCOPES)));
+        sp.setTarget(text(random, pick(random, TARGET_NAMES)));
+        sp.setFileType(pickOrNull(random, SciencePlan.FileType.values()));
+        sp.setFileQuality(pickOrNull(random, SciencePlan.FileQuality.values()));
+        sp.setColorType(pickOrNull(random, SciencePlan.ColorType.values()));
+        sp.setContrast(value(random));
+        sp.setBrightness(value(random));
+        sp.setSaturation(value(random));
+        sp.setExposure(value(random));
+        return sp;
+    }
+
+    private static String text(Random random, String value) {
+        return random.nextInt(20) == 0 ? pick(random, BLANK) : value;
+    }
+
+    private static Double value(Random random) {
+        int r = random.nextInt(16);
+        return r == 0 ? null : r == 1 ? pick(random, EDGES) : pick(random, IN_RANGE);
+    }
+
+    private static <T> T pick(Random random, T[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static <T> T pickOrNull(Random random, T[] values) {
+        int i = random.nextInt(values.length + 1);
+        return i == values.length ? null : values[i];
+    }
+
+    // The checks createSciencePlan ran one after another before they were compiled into rules,
+    // leaving out the ones that look at stored plans
+    private static SciencePlanOutcome legacyOutcome(SciencePlan sp) {
+        if (isBlank(sp.getName()) || isBlank(sp.getObjective()) || sp.getStartDate() == null ||
+            sp.getEndDate() == null || isBlank(sp.getTelescope()) || isBlank(sp.getTarget())) {
+            return SciencePlanOutcome.INCOMPLETE;
+        }
+        if (sp.getStartDate().after(sp.getEndDate())) {
+            return SciencePlanOutcome.INVALID_DATE_RANGE;
+        }
+        if (sp.getFunding() <= 0) {
+            return SciencePlanOutcome.INVALID_FUNDING;
+        }
+        if (!TARGET_CHECK.test(sp.getTarget())) {
+            return SciencePlanOutcome.UNKNOWN_TARGET;
+        }
+        if (!rangeErrors(sp).isEmpty()) {
+            return SciencePlanOutcome.DATA_PROCESSING_OUT_OF_RANGE;
+        }
+        if (sp.getColorType() == SciencePlan.ColorType.COLOR &&
+            (sp.getBrightness() == null || sp.getSaturation() == null || sp.getExposure() == null)) {
+            return SciencePlanOutcome.DATA_PROCESSING_INCOMPLETE;
+        }
+        if (sp.getContrast() == null) {
+            return SciencePlanOutcome.DATA_PROCESSING_INCOMPLETE;
+        }
+        if (sp.getFileType() == SciencePlan.FileType.RAW && sp.getFileQuality() == SciencePlan.FileQuality.FINE) {
+            return SciencePlanOutcome.LEGACY_INCOMPATIBLE;
+        }
+        return SciencePlanOutcome.ACCEPTED;
+    }
+
+    private static String legacyMessage(SciencePlan sp, SciencePlanOutcome outcome) {
+        if (outcome != SciencePlanOutcome.DATA_PROCESSING_OUT_OF_RANGE) {
+            return outcome.getMessage();
+        }
+        return "Invalid input value. Please enter valid decimal numbers within the allowed range. " +
+                String.join(". ", rangeErrors(sp)) + ".";
+    }
+
+    private static List<String> rangeErrors(SciencePlan sp) {
+        List<String> errors = new ArrayList<>();
+        addRangeError(errors, "Contrast", sp.getContrast(), 0.0, 2.0);
+        addRangeError(errors, "Brightness", sp.getBrightness(), -1.0, 1.0);
+        addRangeError(errors, "Saturation", sp.getSaturation(), 0.0, 2.0);
+        addRangeError(errors, "Exposure", sp.getExposure(), -3.0, 3.0);
+        return errors;
+    }
+
+    private static void addRangeError(List<String> errors, String label, Double value, double min, double max) {
+        if (value != null && !(value >= min && value <= max)) {
+            errors.add(label + " must be between " + String.format("%.1f to %.1f", min, max));
+        }
+    }
+
+    private static boolean isBlank(String s) {
+        return s == null || s.trim().isEmpty();
+    }
+}